@@ -22,20 +22,35 @@ package br.com.thiaguten.archive;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.utils.IOUtils;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.nio.file.Files.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * Abstract Archive defines some archive behaviors and this class has some
@@ -48,14 +63,55 @@ public abstract class AbstractArchive implements Archive {
 
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private static final Date REPRODUCIBLE_TIME = new Date(315532800000L);
+
+    /**
+     * Largest file read in memory to digest it before writing its entry.
+     */
+    static final int MAX_DIGESTED_CONTENT_SIZE = 1024 * 1024;
+
     private final AtomicInteger count = new AtomicInteger(1);
 
+    private final AtomicLong verifiedEntries = new AtomicLong();
+
+    private final AtomicLong verifiedBytes = new AtomicLong();
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private String digestAlgorithm;
+
+    private int compressionLevel = -1;
+
+    private AdaptiveCompression adaptiveCompression;
+
+    private FsyncMode fsyncMode = FsyncMode.NONE;
+
+    private boolean reproducible;
+
+    private Throttle throttle = new Throttle();
+
+    private ExtractionLimits extractionLimits = new ExtractionLimits();
+
+    private long checkpointInterval;
+
+    private long volumeSize;
+
+    private VolumeListener volumeListener;
+
     protected abstract ArchiveEntry createArchiveEntry(String path, long size, byte[] content);
 
     protected abstract ArchiveInputStream createArchiveInputStream(InputStream inputStream) throws IOException;
 
     protected abstract ArchiveOutputStream createArchiveOutputStream(OutputStream outputStream) throws IOException;
 
+    /**
+     * Decompresses the archive file bytes into the archive format stream, the
+     * archive file itself for formats without an outer compression.
+     */
+    protected InputStream createUncompressedInputStream(InputStream inputStream) throws IOException {
+        return inputStream;
+    }
+
     /**
      * Archive action
      *
@@ -65,11 +121,214 @@ public abstract class AbstractArchive implements Archive {
         COMPRESS, DECOMPRESS
     }
 
+    /**
+     * When the extracted files are forced to the storage device.
+     *
+     * @author Thiago Gutenberg Carvalho da Costa
+     */
+    public enum FsyncMode {
+        /**
+         * Left to the operating system.
+         */
+        NONE,
+        /**
+         * Each file is forced before the next one is written.
+         */
+        EACH,
+        /**
+         * The files are kept open and forced together in batches, the last
+         * batch at the end of the extraction.
+         */
+        BATCH
+    }
+
     @Override
     public String getName() {
         return "Archive";
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Number of threads used by the operations that can work in parallel.
+     * The strategies returned by {@link ArchiveType} are shared, so create a
+     * new instance to change it.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be greater than zero");
+        }
+        this.threads = threads;
+    }
+
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Enables a per-entry digest (e.g. SHA-256 or XXH32) stored in the
+     * archive at compress time and checked by {@link #verify(Path)}. The zip
+     * digests are computed while the entry data is written. The tar digests
+     * go before the data, so they are computed on the file content read in
+     * memory, or by a read of the file before the entry for large files.
+     *
+     * @param digestAlgorithm the algorithm or null to disable it
+     */
+    public void setDigestAlgorithm(String digestAlgorithm) {
+        if (digestAlgorithm != null) {
+            EntryDigest.of(digestAlgorithm);
+        }
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Compression level used by the compressed formats, -1 means the codec
+     * default. Ignored by formats without compression.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public AdaptiveCompression getAdaptiveCompression() {
+        return adaptiveCompression;
+    }
+
+    /**
+     * Enables the per-entry choice of the compression level, overriding the
+     * fixed compression level for the entries.
+     *
+     * @param adaptiveCompression the adaptive compression or null to disable it
+     * @throws UnsupportedOperationException when the format cannot change the
+     *                                       compression between entries
+     */
+    public void setAdaptiveCompression(AdaptiveCompression adaptiveCompression) {
+        if (adaptiveCompression != null && !isAdaptiveCompressionSupported()) {
+            throw new UnsupportedOperationException(getName() + " does not support adaptive compression");
+        }
+        this.adaptiveCompression = adaptiveCompression;
+    }
+
+    public FsyncMode getFsyncMode() {
+        return fsyncMode;
+    }
+
+    /**
+     * Defines when the extracted files are forced to the storage device,
+     * {@link FsyncMode#NONE} by default.
+     */
+    public void setFsyncMode(FsyncMode fsyncMode) {
+        if (fsyncMode == null) {
+            throw new IllegalArgumentException("fsync mode must not be null");
+        }
+        this.fsyncMode = fsyncMode;
+    }
+
+    public boolean isReproducible() {
+        return reproducible;
+    }
+
+    /**
+     * Enables the reproducible mode, where the same input tree always gives
+     * the same archive bytes: the entries get a fixed modification time
+     * (1980-01-01), uid/gid 0 without names and 0644 permissions. The
+     * directories are always walked in sorted order. A fingerprint of the
+     * inputs (relative paths, sizes and modification times) and of the
+     * archive settings is saved next to the archive, and compress returns
+     * the existing archive untouched when the fingerprint matches, or
+     * replaces it otherwise. The encoding does not depend on the number of
+     * threads, the compressed tar archives are always split in blocks of
+     * {@link CompressedTarArchive#getBlockSize()}. Adaptive
+     * compression depends on the measured throughput, so it should not be
+     * combined with this mode.
+     */
+    public void setReproducible(boolean reproducible) {
+        this.reproducible = reproducible;
+    }
+
+    public Throttle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Resource limits applied by the compress and decompress operations,
+     * unlimited by default. Share the same throttle between archives to make
+     * the limits global, its values can be changed while the jobs run.
+     */
+    public void setThrottle(Throttle throttle) {
+        if (throttle == null) {
+            throw new IllegalArgumentException("throttle must not be null");
+        }
+        this.throttle = throttle;
+    }
+
+    public ExtractionLimits getExtractionLimits() {
+        return extractionLimits;
+    }
+
+    /**
+     * Limits checked while the decompress operation extracts the entries,
+     * unlimited by default except for the entries escaping the destination
+     * directory, which are always rejected.
+     */
+    public void setExtractionLimits(ExtractionLimits extractionLimits) {
+        if (extractionLimits == null) {
+            throw new IllegalArgumentException("extraction limits must not be null");
+        }
+        this.extractionLimits = extractionLimits;
+    }
+
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Enables the checkpoints of the compress, recorded next to the archive
+     * every given number of input bytes, zero to disable them. An interrupted
+     * compress is continued from its last checkpoint by
+     * {@link #resume(Path, Path...)}.
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        if (checkpointInterval < 0) {
+            throw new IllegalArgumentException("checkpoint interval must not be negative");
+        }
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public long getVolumeSize() {
+        return volumeSize;
+    }
+
+    /**
+     * Splits the archive written by the compress into volumes of at most the
+     * given size in bytes, zero to write a single file. The tar archives are
+     * split into byte ranges named archive.tar.001, archive.tar.002 and so on,
+     * and the compress returns the first volume, which is also the path given
+     * to the decompress. The zip split archives need at least 64KB per volume.
+     */
+    public void setVolumeSize(long volumeSize) {
+        if (volumeSize < 0) {
+            throw new IllegalArgumentException("volume size must not be negative");
+        }
+        this.volumeSize = volumeSize;
+    }
+
+    public VolumeListener getVolumeListener() {
+        return volumeListener;
+    }
+
+    /**
+     * Listener called with each volume as soon as it is closed.
+     */
+    public void setVolumeListener(VolumeListener volumeListener) {
+        this.volumeListener = volumeListener;
+    }
+
     /**
      * Generic compress implementation
      */
@@ -77,12 +336,28 @@ public abstract class AbstractArchive implements Archive {
     public Path compress(Path... paths) throws IOException {
         Path compress = null;
         ArchiveOutputStream archiveOutputStream = null;
+        String fingerprint = null;
+
+        if (volumeSize > 0 && checkpointInterval > 0) {
+            throw new IllegalStateException("checkpoints are not supported by split archives");
+        }
+
+        if (reproducible && paths.length > 0) {
+            final Path parent = paths[0].getParent();
+            final String name = paths[0].getFileName().toString();
+            final Path existing = Paths.get(parent.toString(), (paths.length == 1 ? name : getName()) + getExtension());
+
+            fingerprint = fingerprint(paths);
+            if (exists(existing) && fingerprint.equals(readFingerprint(existing))) {
+                logger.debug("the archive file " + existing + " is up to date");
+                return existing;
+            }
+        }
 
         for (Path path : paths) {
             // get path infos
             final Path parent = path.getParent();
             final String name = path.getFileName().toString();
-            final boolean isDirectory = isDirectory(path);
 
             if (compress == null) {
                 // create compress file
@@ -91,27 +366,49 @@ public abstract class AbstractArchive implements Archive {
 
                 // creates a new compress file to not override if already exists
                 // if you do not want this behavior, just comment this line
-                compress = createFile(ArchiveAction.COMPRESS, parent, compress);
+                // the reproducible mode replaces an outdated archive instead
+                if (!reproducible) {
+                    compress = createFile(ArchiveAction.COMPRESS, parent, compress);
+                } else {
+                    // an interrupted run must not leave a matching fingerprint behind
+                    deleteIfExists(fingerprintPath(compress));
+                }
 
                 // open compress file stream
-                archiveOutputStream = createArchiveOutputStream(new BufferedOutputStream(newOutputStream(compress)));
+                archiveOutputStream = createArchiveOutputStream(compress);
 
                 logger.debug("creating the archive file " + compressName);
+
+                compressStarted(archiveOutputStream, paths);
+
+                if (checkpointInterval > 0) {
+                    compressCheckpointed(compress, archiveOutputStream, 0, paths);
+                    break;
+                }
             }
 
             logger.debug("reading path " + path);
 
-            if (isDirectory) {
-                compressDirectory(parent, path, archiveOutputStream);
-            } else {
-                compressFile(parent, path, archiveOutputStream);
-            }
+            compressPath(parent, path, archiveOutputStream);
         }
 
         // closing streams
         if (archiveOutputStream != null) {
             archiveOutputStream.finish();
             archiveOutputStream.close();
+
+            if (checkpointInterval > 0) {
+                deleteIfExists(checkpointPath(compress));
+            }
+            if (volumeSize > 0 && exists(VolumeOutputStream.volumePath(compress, 1))) {
+                // tar volumes are written next to the claimed archive path
+                deleteIfExists(compress);
+                compress = VolumeOutputStream.volumePath(compress, 1);
+            }
+        }
+
+        if (fingerprint != null) {
+            write(fingerprintPath(compress), fingerprint.getBytes("UTF-8"));
         }
 
         logger.debug("finishing the archive file: " + compress);
@@ -119,47 +416,185 @@ public abstract class AbstractArchive implements Archive {
         return compress;
     }
 
+    /**
+     * Generic append implementation. The archive is created when it does not
+     * exist yet, otherwise only the new entries are written at its end.
+     */
+    @Override
+    public Path append(Path archive, Path... paths) throws IOException {
+        final boolean append = exists(archive);
+
+        logger.debug((append ? "appending to" : "creating") + " the archive file " + archive);
+
+        try (ArchiveOutputStream archiveOutputStream = append
+                ? createAppendArchiveOutputStream(archive)
+                : createArchiveOutputStream(archive)) {
+
+            compressStarted(archiveOutputStream, paths);
+
+            for (Path path : paths) {
+                logger.debug("reading path " + path);
+
+                compressPath(path.getParent(), path, archiveOutputStream);
+            }
+
+            archiveOutputStream.finish();
+        }
+
+        logger.debug("finishing the archive file: " + archive);
+
+        return archive;
+    }
+
+    /**
+     * Resumes an interrupted checkpointed compress of the given paths. The
+     * archive is truncated to its last checkpoint and the walk continues
+     * after the last file recorded by it, so the paths must be the same.
+     */
+    public Path resume(Path archive, Path... paths) throws IOException {
+        final Path checkpointPath = checkpointPath(archive);
+        if (!exists(checkpointPath)) {
+            throw new IOException("No checkpoint found for the archive file " + archive);
+        }
+        final Properties checkpoint = new Properties();
+        try (InputStream inputStream = newInputStream(checkpointPath)) {
+            checkpoint.load(inputStream);
+        }
+        final long offset = Long.parseLong(checkpoint.getProperty("offset"));
+        final long files = Long.parseLong(checkpoint.getProperty("files"));
+
+        logger.debug("resuming the archive file " + archive + " after " + files + " files at offset " + offset);
+
+        try (FileChannel channel = FileChannel.open(archive, WRITE)) {
+            if (channel.size() < offset) {
+                throw new IOException("The archive file " + archive + " is shorter than its checkpoint");
+            }
+            channel.truncate(offset);
+        }
+
+        try (ArchiveOutputStream archiveOutputStream = createResumeArchiveOutputStream(archive, checkpoint)) {
+            compressStarted(archiveOutputStream, paths);
+            compressCheckpointed(archive, archiveOutputStream, files, paths);
+            archiveOutputStream.finish();
+        }
+        deleteIfExists(checkpointPath);
+
+        logger.debug("finishing the archive file: " + archive);
+
+        return archive;
+    }
+
+    @Override
+    public Path transcode(Path path, ArchiveType type) throws IOException {
+        return transcode(path, (AbstractArchive) type.getStrategy(), null);
+    }
+
+    /**
+     * Copies the entries accepted by the filter, all when it is null, into a
+     * new archive of the target format, streaming them from this archive
+     * without extracting them to disk.
+     */
+    public Path transcode(Path path, AbstractArchive target, ArchiveEntryFilter filter) throws IOException {
+        final Path source = removeExtension(path, getExtension());
+        final Path parent = source.getParent();
+        final Path transcode = target.createFile(ArchiveAction.COMPRESS, parent,
+                Paths.get(parent.toString(), source.getFileName() + target.getExtension()));
+
+        logger.debug("transcoding archive file " + path + " to " + transcode);
+
+        try (ArchiveOutputStream archiveOutputStream = target.createArchiveOutputStream(transcode)) {
+            transcodeEntries(path, target, archiveOutputStream, filter);
+            archiveOutputStream.finish();
+        } catch (IOException | RuntimeException e) {
+            deleteIfExists(transcode);
+            throw e;
+        }
+
+        logger.debug("finishing the archive file: " + transcode);
+
+        return transcode;
+    }
+
+    /**
+     * Reads the entries of the archive and writes the accepted ones with the
+     * target archive.
+     */
+    protected void transcodeEntries(Path path, AbstractArchive target, ArchiveOutputStream archiveOutputStream,
+                                    ArchiveEntryFilter filter) throws IOException {
+        try (ArchiveInputStream archiveInputStream = createArchiveInputStream(new BufferedInputStream(
+                new ThrottledInputStream(newInputStream(path), throttle)))) {
+            ArchiveEntry entry;
+            while ((entry = archiveInputStream.getNextEntry()) != null) {
+                if (archiveInputStream.canReadEntryData(entry) && (filter == null || filter.accept(entry))) {
+                    target.transcodeEntry(entry, archiveInputStream, archiveOutputStream);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a copy of the given entry of another archive, keeping its name,
+     * last modified date and digest.
+     */
+    protected void transcodeEntry(ArchiveEntry source, InputStream inputStream,
+                                  ArchiveOutputStream archiveOutputStream) throws IOException {
+        final String entryName = source.getName();
+
+        logger.debug("transcoding " + entryName + " path in the archive output stream");
+
+        final ArchiveEntry entry = createArchiveEntry(entryName, source.isDirectory() ? 0 : source.getSize(), null);
+        if (source.getLastModifiedDate() != null) {
+            setLastModifiedDate(entry, source.getLastModifiedDate());
+        }
+        final String digest = EntryDigest.load(source);
+        if (digest != null) {
+            EntryDigest.store(entry, digest);
+        }
+        normalizeEntry(entry);
+        archiveOutputStream.putArchiveEntry(entry);
+        if (!source.isDirectory()) {
+            copy(inputStream, archiveOutputStream);
+        }
+        archiveOutputStream.closeArchiveEntry();
+    }
+
     /**
      * Generic decompress implemetation
      */
     @Override
     public Path decompress(Path path) throws IOException {
-        Path decompressDir = removeExtension(path);
+        final Path volumes = VolumeOutputStream.archivePath(path);
+        Path decompressDir = removeExtension(volumes != null ? volumes : path, getExtension());
 
         logger.debug("reading archive file " + path);
 
-        try (ArchiveInputStream archiveInputStream = createArchiveInputStream(new BufferedInputStream(newInputStream(path)))) {
+        final CountingInputStream inputStream = new CountingInputStream(new ThrottledInputStream(
+                volumes != null ? new VolumeInputStream(volumes) : newInputStream(path), throttle));
+        try (ArchiveInputStream archiveInputStream = createArchiveInputStream(new BufferedInputStream(inputStream))) {
 
             // creates a new decompress folder to not override if already exists
             // if you do not want this behavior, just comment this line
             decompressDir = createFile(ArchiveAction.DECOMPRESS, decompressDir.getParent(), decompressDir);
 
-            createDirectories(decompressDir);
-
             logger.debug("creating the decompress destination directory " + decompressDir);
 
-            ArchiveEntry entry;
-            while ((entry = archiveInputStream.getNextEntry()) != null) {
-                if (archiveInputStream.canReadEntryData(entry)) {
-
-                    final String entryName = entry.getName();
-                    final Path target = Paths.get(decompressDir.toString(), entryName);
-                    final Path parent = target.getParent();
-
-                    if (parent != null && !exists(parent)) {
-                        createDirectories(parent);
-                    }
+            try (ExtractionWriter writer = new ExtractionWriter(decompressDir, fsyncMode, throttle,
+                    extractionLimits, inputStream)) {
+                ArchiveEntry entry;
+                while ((entry = archiveInputStream.getNextEntry()) != null) {
+                    if (archiveInputStream.canReadEntryData(entry)) {
 
-                    logger.debug("reading compressed path " + entryName);
+                        final String entryName = entry.getName();
 
-                    if (!entry.isDirectory()) {
-                        try (OutputStream outputStream = new BufferedOutputStream(newOutputStream(target))) {
+                        logger.debug("reading compressed path " + entryName);
 
+                        if (entry.isDirectory()) {
+                            writer.createDirectory(entryName);
+                        } else {
                             logger.debug("writting compressed " + entryName + " file in the decompress directory");
 
-//                            byte[] content = new byte[(int) entry.getSize()];
-//                            outputStream.write(content);
-                            IOUtils.copy(archiveInputStream, outputStream);
+                            writer.write(entryName, entry.getSize(), getCompressedSize(entry), archiveInputStream,
+                                    EntryDigest.load(entry));
                         }
                     }
                 }
@@ -172,46 +607,519 @@ public abstract class AbstractArchive implements Archive {
         return decompressDir;
     }
 
-    protected Path createFile(ArchiveAction archiveAction, Path parent, Path path) {
+    /**
+     * Publishes the entries of the archive as a reactive stream. The archive
+     * is read on the given executor as the subscriber requests entries and
+     * entry data chunks, and only a single subscriber is supported.
+     */
+    public Publisher<StreamEntry> publish(final Path path, Executor executor) {
+        return new ArchivePublisher(new ArchivePublisher.Source() {
+            @Override
+            public ArchiveInputStream open() throws IOException {
+                logger.debug("publishing archive file " + path);
+                return createArchiveInputStream(new BufferedInputStream(
+                        new ThrottledInputStream(newInputStream(path), throttle)));
+            }
+        }, executor, throttle);
+    }
+
+    /**
+     * Writes the entries of the publisher to a new archive, requesting one
+     * entry and one data chunk at a time. The returned future completes with
+     * the archive path when the publisher completes, a new name when the
+     * given path is taken, and the archive is deleted if it fails.
+     */
+    public Future<Path> compress(Path path, Publisher<StreamEntry> entries) {
+        final ArchiveSubscriber subscriber = new ArchiveSubscriber(this, path);
+        entries.subscribe(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * Generic verify implementation. Reads every entry through the archive
+     * input stream, which checks the tar header checksums and the gzip trailer
+     * CRCs, and compares the stored entry digests. No entry data is written.
+     */
+    @Override
+    public boolean verify(Path path) throws IOException {
+        logger.debug("verifying archive file " + path);
+
+        final Path volumes = VolumeOutputStream.archivePath(path);
+        try (InputStream inputStream = new BufferedInputStream(
+                volumes != null ? new VolumeInputStream(volumes) : newInputStream(path))) {
+            try (ArchiveInputStream archiveInputStream = createArchiveInputStream(inputStream)) {
+                ArchiveEntry entry;
+                while ((entry = archiveInputStream.getNextEntry()) != null) {
+                    if (!entry.isDirectory() && !verifyEntry(entry, archiveInputStream)) {
+                        return false;
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("archive file " + path + " is corrupted: " + e.getMessage());
+                return false;
+            }
+        }
+
+        logger.debug("archive file " + path + " verified");
+
+        return true;
+    }
+
+    /**
+     * Number of entries read by the verify runs of this instance.
+     */
+    long getVerifiedEntries() {
+        return verifiedEntries.get();
+    }
+
+    /**
+     * Entry data bytes read by the verify runs of this instance.
+     */
+    long getVerifiedBytes() {
+        return verifiedBytes.get();
+    }
+
+    /**
+     * Reads the entry data, comparing it against the stored entry digest if any.
+     */
+    protected boolean verifyEntry(ArchiveEntry entry, InputStream inputStream) throws IOException {
+        if (entry instanceof TarArchiveEntry && !((TarArchiveEntry) entry).isCheckSumOK()) {
+            logger.warn("entry " + entry.getName() + " header checksum mismatch");
+            return false;
+        }
+
+        final String expected = EntryDigest.load(entry);
+        final EntryDigest digest = expected == null ? null : EntryDigest.forValue(expected);
+        final byte[] buffer = new byte[8192];
+
+        long count = 0;
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            if (digest != null) {
+                digest.update(buffer, 0, n);
+            }
+            count += n;
+        }
+        verifiedEntries.incrementAndGet();
+        verifiedBytes.addAndGet(count);
+
+        if (digest != null) {
+            final String actual = digest.value();
+            if (!expected.equalsIgnoreCase(actual)) {
+                logger.warn("entry " + entry.getName() + " digest mismatch, expected " + expected + " but was " + actual);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compressed size of the entry data checked against the maximum entry
+     * ratio, or -1 to measure the archive bytes read for the entry, which is
+     * right for the formats holding the entry data in the archive stream.
+     */
+    protected long getCompressedSize(ArchiveEntry entry) {
+        return -1;
+    }
+
+    /**
+     * Claims the path of a new archive file or decompress directory, moving
+     * to a new name while the path is taken. The path is created on the
+     * claim, so concurrent runs sharing this strategy never get the same one.
+     */
+    protected Path createFile(ArchiveAction archiveAction, Path parent, Path path) throws IOException {
         Path archiveFile = path;
-        if (exists(archiveFile)) {
+        while (!claim(archiveAction, archiveFile)) {
             String archiveName = getName() + count.getAndIncrement();
             if (ArchiveAction.COMPRESS.equals(archiveAction)) {
                 archiveName += getExtension();
             }
-            archiveFile = createFile(archiveAction, parent, Paths.get(parent.toString(), archiveName));
+            archiveFile = Paths.get(parent.toString(), archiveName);
         }
         return archiveFile;
     }
 
+    private static boolean claim(ArchiveAction archiveAction, Path path) throws IOException {
+        if (exists(VolumeOutputStream.volumePath(path, 1))) {
+            return false;
+        }
+        try {
+            if (ArchiveAction.DECOMPRESS.equals(archiveAction)) {
+                createDirectory(path);
+            } else {
+                Files.createFile(path);
+            }
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    protected ArchiveOutputStream createArchiveOutputStream(Path path) throws IOException {
+        if (volumeSize > 0) {
+            return createArchiveOutputStream(new BufferedOutputStream(
+                    new VolumeOutputStream(path, volumeSize, volumeListener)));
+        }
+        return createArchiveOutputStream(new BufferedOutputStream(newOutputStream(path)));
+    }
+
+    /**
+     * Opens an archive output stream positioned at the end of the existing
+     * entries of the given archive. Implementations that cannot append must
+     * keep this default behavior.
+     */
+    protected ArchiveOutputStream createAppendArchiveOutputStream(Path path) throws IOException {
+        throw new UnsupportedOperationException(getName() + " does not support append");
+    }
+
+    /**
+     * Called when the archive output stream is open, before the entries of
+     * the given paths are written.
+     */
+    protected void compressStarted(ArchiveOutputStream archiveOutputStream, Path... paths) throws IOException {
+        if (adaptiveCompression != null) {
+            long totalSize = 0;
+            for (Path file : listFiles(paths)) {
+                totalSize += size(file);
+            }
+            adaptiveCompression.start(totalSize);
+        }
+    }
+
+    /**
+     * Opens the archive output stream of a resumed compress, after the archive
+     * was truncated to its checkpoint. Appends by default.
+     */
+    protected ArchiveOutputStream createResumeArchiveOutputStream(Path path, Properties checkpoint) throws IOException {
+        return createAppendArchiveOutputStream(path);
+    }
+
+    /**
+     * Records in the checkpoint the state of the archive output stream lost
+     * when the archive is cut at the checkpoint offset. Nothing by default.
+     */
+    protected void storeCheckpoint(ArchiveOutputStream archiveOutputStream, Properties checkpoint) throws IOException {
+    }
+
+    /**
+     * Brings the archive to a state where it can be truncated and appended to,
+     * and returns the archive size, the offset to truncate to. The data
+     * written so far is forced to the storage device.
+     */
+    protected long checkpoint(ArchiveOutputStream archiveOutputStream, Path path) throws IOException {
+        archiveOutputStream.flush();
+        try (FileChannel channel = FileChannel.open(path, WRITE)) {
+            channel.force(true);
+            return channel.size();
+        }
+    }
+
+    /**
+     * Compresses the files of the given paths in the walk order, skipping the
+     * first ones, and records a checkpoint every checkpoint interval bytes.
+     */
+    private void compressCheckpointed(Path archive, ArchiveOutputStream archiveOutputStream, long skip,
+                                      Path... paths) throws IOException {
+        long files = 0;
+        long uncheckpointed = 0;
+        if (skip == 0) {
+            writeCheckpoint(archive, archiveOutputStream, 0);
+        }
+        for (Path path : paths) {
+            final Path root = path.getParent();
+            for (Path file : listFiles(path)) {
+                if (files++ < skip) {
+                    continue;
+                }
+                logger.debug("reading path " + file);
+
+                compressFile(root, file, archiveOutputStream);
+                uncheckpointed += size(file);
+                if (checkpointInterval > 0 && uncheckpointed >= checkpointInterval) {
+                    writeCheckpoint(archive, archiveOutputStream, files);
+                    uncheckpointed = 0;
+                }
+            }
+        }
+    }
+
+    private void writeCheckpoint(Path archive, ArchiveOutputStream archiveOutputStream, long files) throws IOException {
+        final long offset = checkpoint(archiveOutputStream, archive);
+        logger.debug("checkpoint of the archive file " + archive + " after " + files + " files at offset " + offset);
+
+        final Properties checkpoint = new Properties();
+        checkpoint.setProperty("offset", Long.toString(offset));
+        checkpoint.setProperty("files", Long.toString(files));
+        storeCheckpoint(archiveOutputStream, checkpoint);
+        final Path checkpointPath = checkpointPath(archive);
+        final Path temporary = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+        try (OutputStream outputStream = newOutputStream(temporary)) {
+            checkpoint.store(outputStream, null);
+        }
+        move(temporary, checkpointPath, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private static Path checkpointPath(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + ".checkpoint");
+    }
+
+    protected void compressPath(Path root, Path path, ArchiveOutputStream archiveOutputStream) throws IOException {
+        if (isDirectory(path)) {
+            compressDirectory(root, path, archiveOutputStream);
+        } else {
+            compressFile(root, path, archiveOutputStream);
+        }
+    }
+
     protected void compressFile(Path root, Path file, ArchiveOutputStream archiveOutputStream) throws IOException {
-        try (InputStream inputStream = newInputStream(file)) {
+        throttle.acquireFile();
+        try (InputStream inputStream = new ThrottledInputStream(newInputStream(file), throttle)) {
             final long size = size(file);
-            final byte[] content = new byte[(int) size];
             final String relativePath = root.relativize(file).toString();
 
             logger.debug("writting " + relativePath + " path in the archive output stream");
 
-            ArchiveEntry entry = createArchiveEntry(relativePath, size, content);
+            ArchiveEntry entry = createArchiveEntry(relativePath, size, null);
+            normalizeEntry(entry);
+            final EntryDigest entryDigest = digestAlgorithm != null && isDigestStoredAfterData()
+                    ? EntryDigest.of(digestAlgorithm) : null;
+            InputStream dataInputStream = inputStream;
+            if (digestAlgorithm != null && entryDigest == null) {
+                if (size <= MAX_DIGESTED_CONTENT_SIZE) {
+                    // read once, the content is digested and then written from memory
+                    final byte[] content = IOUtils.toByteArray(inputStream);
+                    final EntryDigest digest = EntryDigest.of(digestAlgorithm);
+                    digest.update(content, 0, content.length);
+                    EntryDigest.store(entry, digest.value());
+                    dataInputStream = new ByteArrayInputStream(content);
+                } else {
+                    EntryDigest.store(entry, digest(file));
+                }
+            }
+            if (adaptiveCompression != null) {
+                AdaptiveCompression.Level level = adaptiveCompression.choose(file, size);
+                logger.debug("compressing " + relativePath + " with level " + level);
+                setEntryCompression(entry, level, archiveOutputStream);
+            }
             archiveOutputStream.putArchiveEntry(entry);
-            IOUtils.copy(inputStream, archiveOutputStream); //archiveOutputStream.write(content);
+            copy(dataInputStream, archiveOutputStream, entryDigest);
             archiveOutputStream.closeArchiveEntry();
+            if (entryDigest != null) {
+                EntryDigest.store(entry, entryDigest.value());
+            }
+
+            if (adaptiveCompression != null) {
+                adaptiveCompression.completed(size);
+            }
+        } finally {
+            throttle.releaseFile();
+        }
+    }
+
+    /**
+     * Entry data copy loop, applying the throttle write rate and CPU budget
+     * to each chunk. The read rate applies to the file streams.
+     */
+    protected long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        return copy(inputStream, outputStream, null);
+    }
+
+    /**
+     * Entry data copy loop, updating the entry digest with the copied chunks.
+     */
+    private long copy(InputStream inputStream, OutputStream outputStream, EntryDigest digest) throws IOException {
+        final byte[] buffer = new byte[64 * 1024];
+        long count = 0;
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            throttle.acquireWrite(n);
+            if (digest != null) {
+                digest.update(buffer, 0, n);
+            }
+            outputStream.write(buffer, 0, n);
+            throttle.cpu();
+            count += n;
         }
+        return count;
+    }
+
+    /**
+     * Whether the entry digest can be stored after the entry data is written,
+     * so it is computed by the copy loop. Formats with the digest in a header
+     * written before the data keep this default behavior: the tar PAX header
+     * applies to the entry following it and cannot be rewritten once passed
+     * to a compressor, so the files larger than
+     * {@value #MAX_DIGESTED_CONTENT_SIZE} bytes are read once more to digest
+     * them before the entry.
+     */
+    protected boolean isDigestStoredAfterData() {
+        return false;
+    }
+
+    /**
+     * Whether the entry size must be known before the entry data is written,
+     * the tar header holds the size. Formats writing the size after the data
+     * override this.
+     */
+    protected boolean isEntrySizeRequired() {
+        return true;
+    }
+
+    /**
+     * Clears the entry metadata that depends on the environment, in the
+     * reproducible mode.
+     */
+    protected void normalizeEntry(ArchiveEntry entry) {
+        if (!reproducible) {
+            return;
+        }
+        if (entry instanceof TarArchiveEntry) {
+            final TarArchiveEntry tarEntry = (TarArchiveEntry) entry;
+            tarEntry.setModTime(REPRODUCIBLE_TIME);
+            tarEntry.setUserId(0);
+            tarEntry.setGroupId(0);
+            tarEntry.setUserName("");
+            tarEntry.setGroupName("");
+            tarEntry.setMode(tarEntry.isDirectory() ? TarArchiveEntry.DEFAULT_DIR_MODE : TarArchiveEntry.DEFAULT_FILE_MODE);
+        } else if (entry instanceof ZipArchiveEntry) {
+            // the zip time is a local date time, use the local 1980-01-01 in any time zone
+            final Calendar calendar = Calendar.getInstance();
+            calendar.clear();
+            calendar.set(1980, Calendar.JANUARY, 1);
+            ((ZipArchiveEntry) entry).setTime(calendar.getTimeInMillis());
+        }
+    }
+
+    static void setLastModifiedDate(ArchiveEntry entry, Date date) {
+        if (entry instanceof TarArchiveEntry) {
+            ((TarArchiveEntry) entry).setModTime(date);
+        } else if (entry instanceof ZipArchiveEntry) {
+            ((ZipArchiveEntry) entry).setTime(date.getTime());
+        }
+    }
+
+    /**
+     * Whether the compression level can change between entries, applied by
+     * {@link #setEntryCompression}. Formats without compression, or with one
+     * compressor for the whole stream, keep this default behavior.
+     */
+    protected boolean isAdaptiveCompressionSupported() {
+        return false;
+    }
+
+    /**
+     * Applies the compression level chosen for the entry, called before the
+     * entry is put in the archive output stream. Formats without compression
+     * keep this default behavior.
+     */
+    protected void setEntryCompression(ArchiveEntry entry, AdaptiveCompression.Level level,
+                                       ArchiveOutputStream archiveOutputStream) throws IOException {
+    }
+
+    /**
+     * Lists the regular files of the given paths, walking the directories in
+     * the same order used to compress them.
+     */
+    protected static List<Path> listFiles(Path... paths) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (Path path : paths) {
+            if (isDirectory(path)) {
+                files.addAll(listFiles(listChildren(path).toArray(new Path[0])));
+            } else {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Appends the format specific settings that change the archive bytes to
+     * the fingerprint of the reproducible mode, one per line.
+     */
+    protected void appendFingerprintSettings(StringBuilder fingerprint) {
+    }
+
+    /**
+     * Fingerprint of the inputs and of the settings that change the archive bytes.
+     */
+    private String fingerprint(Path... paths) throws IOException {
+        final StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(getClass().getName()).append('\n')
+                .append(compressionLevel).append('\n')
+                .append(digestAlgorithm).append('\n')
+                .append(adaptiveCompression != null).append('\n')
+                .append(checkpointInterval).append('\n')
+                .append(volumeSize).append('\n');
+        appendFingerprintSettings(fingerprint);
+        for (Path path : paths) {
+            final Path root = path.getParent();
+            for (Path file : listFiles(path)) {
+                fingerprint.append(root.relativize(file)).append('\0')
+                        .append(size(file)).append('\0')
+                        .append(getLastModifiedTime(file).toMillis()).append('\n');
+            }
+        }
+
+        final EntryDigest digest = EntryDigest.of("SHA-256");
+        final byte[] bytes = fingerprint.toString().getBytes("UTF-8");
+        digest.update(bytes, 0, bytes.length);
+        return digest.value();
+    }
+
+    private static Path fingerprintPath(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + ".fingerprint");
+    }
+
+    private static String readFingerprint(Path archive) throws IOException {
+        final Path fingerprintPath = fingerprintPath(archive);
+        return exists(fingerprintPath) ? new String(readAllBytes(fingerprintPath), "UTF-8") : null;
+    }
+
+    private String digest(Path file) throws IOException {
+        if (Checksums.isSupported(digestAlgorithm)) {
+            // the blocks of a large file are checksummed in parallel
+            return EntryDigest.value(digestAlgorithm, Checksums.checksum(file, digestAlgorithm, threads));
+        }
+        final EntryDigest digest = EntryDigest.of(digestAlgorithm);
+        try (InputStream inputStream = newInputStream(file)) {
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.value();
     }
 
     protected void compressDirectory(Path root, Path dir, ArchiveOutputStream archiveOutputStream) throws IOException {
         List<Path> children = listChildren(dir);
         for (Path child : children) {
-            if (isDirectory(child)) {
-                compressDirectory(root, child, archiveOutputStream);
-            } else {
-                compressFile(root, child, archiveOutputStream);
-            }
+            compressPath(root, child, archiveOutputStream);
         }
     }
 
+    /**
+     * Removes the extension of one of the archive types, e.g. .tar.zst, or
+     * the last extension of the file when it has none of them.
+     */
     public static Path removeExtension(Path file) {
+        for (ArchiveType type : ArchiveType.values()) {
+            if (hasExtension(file, type.getExtension())) {
+                return removeExtension(file, type.getExtension());
+            }
+        }
+        return removeExtension(file, null);
+    }
+
+    /**
+     * Removes the given extension, or the last extension of the file when it
+     * does not end with the given one.
+     */
+    public static Path removeExtension(Path file, String extension) {
         String str = file.toString();
+        if (extension != null && hasExtension(file, extension)) {
+            return Paths.get(str.substring(0, str.length() - extension.length()));
+        }
         int index = str.lastIndexOf('.');
         if (index > 0) {
             file = Paths.get(str.substring(0, index));
@@ -219,6 +1127,16 @@ public abstract class AbstractArchive implements Archive {
         return file;
     }
 
+    private static boolean hasExtension(Path file, String extension) {
+        final Path fileName = file.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+        final String name = fileName.toString();
+        return name.length() > extension.length()
+                && name.regionMatches(true, name.length() - extension.length(), extension, 0, extension.length());
+    }
+
     public static List<Path> listChildren(final Path path) throws IOException {
         final List<Path> children = new ArrayList<>();
         if (isDirectory(path)) {
@@ -227,6 +1145,8 @@ public abstract class AbstractArchive implements Archive {
                     children.add(child);
                 }
             }
+            // the directory stream order depends on the file system
+            Collections.sort(children);
         }
         return Collections.unmodifiableList(children);
     }
@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static java.nio.file.Files.newInputStream;
+
+/**
+ * Chooses the compression of each entry by compressing a small sample of
+ * the file (its first bytes) with a fast and a strong deflate level, and
+ * comparing the measured throughput with a target:
+ * <ul>
+ * <li>{@link #throughput(double)} keeps the compression above the given MB/s;</li>
+ * <li>{@link #deadline(long, TimeUnit)} compresses as much as possible while
+ * finishing the whole job within the given time.</li>
+ * </ul>
+ * Incompressible samples are always stored. The files smaller than a sample
+ * are not sampled, the throughput measured on the last sample is compared
+ * with the target instead, so they are not compressed three times. An
+ * instance keeps the progress of the job it is used by, so use one instance
+ * per archive instance.
+ * <p>
+ * Only the formats compressing each entry on their own, zip and gzip,
+ * support it.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class AdaptiveCompression {
+
+    /**
+     * Compression chosen for an entry, from the fastest to the smallest output.
+     */
+    public enum Level {
+        STORE(Deflater.NO_COMPRESSION), FAST(Deflater.BEST_SPEED), STRONG(Deflater.BEST_COMPRESSION);
+
+        private final int deflateLevel;
+
+        Level(int deflateLevel) {
+            this.deflateLevel = deflateLevel;
+        }
+
+        public int getDeflateLevel() {
+            return deflateLevel;
+        }
+    }
+
+    private static final double INCOMPRESSIBLE_RATIO = 0.9;
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final double minThroughput;
+
+    private final long deadline;
+
+    private int sampleSize = 64 * 1024;
+
+    private long startTime;
+
+    private long totalBytes;
+
+    private long compressedBytes;
+
+    // in bytes per nanosecond, measured on the last sample, zero when too slow to be measured
+    private double fastThroughput = -1;
+
+    private double strongThroughput;
+
+    private AdaptiveCompression(double minThroughput, long deadline) {
+        this.minThroughput = minThroughput;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param megabytesPerSecond the minimum compression throughput to keep
+     */
+    public static AdaptiveCompression throughput(double megabytesPerSecond) {
+        if (megabytesPerSecond <= 0) {
+            throw new IllegalArgumentException("throughput must be greater than zero");
+        }
+        return new AdaptiveCompression(megabytesPerSecond * BYTES_PER_MEGABYTE / TimeUnit.SECONDS.toNanos(1), 0);
+    }
+
+    /**
+     * @param time the time available to compress the whole job
+     */
+    public static AdaptiveCompression deadline(long time, TimeUnit unit) {
+        if (time <= 0) {
+            throw new IllegalArgumentException("deadline must be greater than zero");
+        }
+        return new AdaptiveCompression(0, unit.toNanos(time));
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public void setSampleSize(int sampleSize) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("sample size must be greater than zero");
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    void start(long totalBytes) {
+        this.startTime = System.nanoTime();
+        this.totalBytes = totalBytes;
+        this.compressedBytes = 0;
+        this.fastThroughput = -1;
+        this.strongThroughput = 0;
+    }
+
+    void completed(long bytes) {
+        compressedBytes += bytes;
+    }
+
+    Level choose(Path file, long size) throws IOException {
+        if (size == 0) {
+            return Level.STORE;
+        }
+        final double required = requiredThroughput();
+        if (required == Double.POSITIVE_INFINITY) {
+            return Level.STORE;
+        }
+        if (size < sampleSize && fastThroughput >= 0) {
+            // the trials would compress the whole file twice before writing it
+            return fastThroughput < required ? Level.STORE : strongThroughput < required ? Level.FAST : Level.STRONG;
+        }
+
+        final byte[] sample = new byte[(int) Math.min(sampleSize, size)];
+        int length = 0;
+        try (InputStream inputStream = newInputStream(file)) {
+            int n;
+            while (length < sample.length && (n = inputStream.read(sample, length, sample.length - length)) != -1) {
+                length += n;
+            }
+        }
+        if (length == 0) {
+            return Level.STORE;
+        }
+
+        final long fastStart = System.nanoTime();
+        final long fastSize = deflate(sample, length, Level.FAST);
+        fastThroughput = (double) length / Math.max(1, System.nanoTime() - fastStart);
+        strongThroughput = 0;
+        if (fastSize > length * INCOMPRESSIBLE_RATIO || fastThroughput < required) {
+            return Level.STORE;
+        }
+
+        final long strongStart = System.nanoTime();
+        deflate(sample, length, Level.STRONG);
+        strongThroughput = (double) length / Math.max(1, System.nanoTime() - strongStart);
+        return strongThroughput < required ? Level.FAST : Level.STRONG;
+    }
+
+    /**
+     * @return the required throughput in bytes per nanosecond
+     */
+    private double requiredThroughput() {
+        if (deadline == 0) {
+            return minThroughput;
+        }
+        final long remainingTime = deadline - (System.nanoTime() - startTime);
+        final long remainingBytes = Math.max(0, totalBytes - compressedBytes);
+        return remainingTime <= 0 ? Double.POSITIVE_INFINITY : (double) remainingBytes / remainingTime;
+    }
+
+    private static long deflate(byte[] sample, int length, Level level) {
+        final Deflater deflater = new Deflater(level.getDeflateLevel(), true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            final byte[] buffer = new byte[8192];
+            long size = 0;
+            while (!deflater.finished()) {
+                size += deflater.deflate(buffer);
+            }
+            return size;
+        } finally {
+            deflater.end();
+        }
+    }
+
+}
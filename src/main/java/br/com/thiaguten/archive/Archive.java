@@ -38,4 +38,10 @@ public interface Archive {
     Path compress(Path... paths) throws IOException;
 
     Path decompress(Path path) throws IOException;
+
+    Path append(Path archive, Path... paths) throws IOException;
+
+    boolean verify(Path path) throws IOException;
+
+    Path transcode(Path path, ArchiveType type) throws IOException;
 }
@@ -0,0 +1,368 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.Files.getLastModifiedTime;
+import static java.nio.file.Files.newByteChannel;
+
+/**
+ * Cache of decompressed entries for repeated reads from the same archives,
+ * keyed by archive path, archive modification time and entry name, so an
+ * archive replaced on disk is read again.
+ * <p>
+ * The entries are held in an LRU bounded by their total size in bytes,
+ * optionally in direct buffers out of the heap. The parsed index of each
+ * archive is kept as well, in a {@link ArchiveFileSystemProvider} file
+ * system, in an LRU bounded by the number of archives. An evicted index is
+ * closed once the reads in progress on it are done.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class ArchiveCache implements Closeable {
+
+    public static final int DEFAULT_MAX_ARCHIVES = 16;
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveCache.class);
+
+    // the entries are cached whole, a small block cache is enough to keep the decoder position
+    private static final long BLOCK_CACHE_SIZE = 4 * ArchiveFileSystem.BLOCK_SIZE;
+
+    private final ArchiveFileSystemProvider provider = new ArchiveFileSystemProvider();
+
+    private final long maxBytes;
+
+    private final boolean offHeap;
+
+    private final int maxArchives;
+
+    private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<Path, Index> indexes = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    public ArchiveCache(long maxBytes) {
+        this(maxBytes, false, DEFAULT_MAX_ARCHIVES);
+    }
+
+    /**
+     * @param maxBytes    the total size of the cached entries
+     * @param offHeap     whether the entries are held in direct buffers
+     * @param maxArchives the number of archives with their index kept open
+     */
+    public ArchiveCache(long maxBytes, boolean offHeap, int maxArchives) {
+        if (maxBytes < 0 || maxArchives < 1) {
+            throw new IllegalArgumentException("Invalid cache bounds " + maxBytes + " bytes, " + maxArchives + " archives");
+        }
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+        this.maxArchives = maxArchives;
+    }
+
+    /**
+     * Returns the decompressed data of the archive entry, as a read-only
+     * buffer shared with the cache.
+     *
+     * @throws java.nio.file.NoSuchFileException when the archive has no such entry
+     */
+    public ByteBuffer read(Path archive, String entryName) throws IOException {
+        final Path path = archive.toRealPath();
+        final Key key = new Key(path, getLastModifiedTime(path).toMillis(), entryName);
+        synchronized (this) {
+            final ByteBuffer cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached.asReadOnlyBuffer();
+            }
+            misses++;
+        }
+
+        final ByteBuffer data = load(key);
+
+        synchronized (this) {
+            if (data.capacity() <= maxBytes && !entries.containsKey(key)) {
+                entries.put(key, data);
+                size += data.capacity();
+                evict();
+            }
+        }
+        return data.asReadOnlyBuffer();
+    }
+
+    private ByteBuffer load(Key key) throws IOException {
+        final Index index = acquire(key.archive, key.lastModified);
+        try (SeekableByteChannel channel = newByteChannel(index.fileSystem.getPath("/" + key.entryName))) {
+            final long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Entry " + key.entryName + " of " + key.archive + " too large to cache: " + length);
+            }
+            final ByteBuffer data = offHeap ? ByteBuffer.allocateDirect((int) length) : ByteBuffer.allocate((int) length);
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) {
+                    throw new IOException("Unexpected end of entry " + key.entryName + " of " + key.archive);
+                }
+            }
+            data.flip();
+            return data;
+        } finally {
+            release(index);
+        }
+    }
+
+    /**
+     * Returns the index of the archive, reopened when the archive changed,
+     * pinned open until it is released.
+     */
+    private synchronized Index acquire(Path archive, long lastModified) throws IOException {
+        Index index = indexes.get(archive);
+        if (index != null && index.lastModified != lastModified) {
+            invalidate(archive);
+            index = null;
+        }
+        if (index == null) {
+            index = new Index(provider.newFileSystem(archive,
+                    Collections.singletonMap(ArchiveFileSystemProvider.CACHE_SIZE, BLOCK_CACHE_SIZE)), lastModified);
+            indexes.put(archive, index);
+            if (indexes.size() > maxArchives) {
+                final Iterator<Index> eldest = indexes.values().iterator();
+                final Index evicted = eldest.next();
+                eldest.remove();
+                retire(evicted);
+            }
+        }
+        index.readers++;
+        return index;
+    }
+
+    private synchronized void release(Index index) {
+        if (--index.readers == 0 && index.retired) {
+            try {
+                index.fileSystem.close();
+            } catch (IOException e) {
+                logger.warn("Could not close an evicted archive index: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes the index dropped from the cache, or leaves it to the last
+     * reader still using it.
+     */
+    private void retire(Index index) throws IOException {
+        index.retired = true;
+        if (index.readers == 0) {
+            index.fileSystem.close();
+        }
+    }
+
+    private void evict() {
+        final Iterator<ByteBuffer> eldest = entries.values().iterator();
+        while (size > maxBytes && eldest.hasNext()) {
+            size -= eldest.next().capacity();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the cached entries and index of the archive.
+     */
+    public synchronized void invalidate(Path archive) throws IOException {
+        Path path;
+        try {
+            path = archive.toRealPath();
+        } catch (IOException e) {
+            // the archive is gone
+            path = archive.toAbsolutePath().normalize();
+        }
+        final Iterator<Map.Entry<Key, ByteBuffer>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, ByteBuffer> entry = iterator.next();
+            if (entry.getKey().archive.equals(path)) {
+                size -= entry.getValue().capacity();
+                iterator.remove();
+            }
+        }
+        final Index index = indexes.remove(path);
+        if (index != null) {
+            logger.debug("Invalidated the cache of " + path);
+            retire(index);
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, entries.size(), size);
+    }
+
+    /**
+     * Drops all the cached entries and closes the archive indexes, the ones
+     * being read when their reads are done.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        entries.clear();
+        size = 0;
+        final List<Index> open = new ArrayList<>(indexes.values());
+        indexes.clear();
+        IOException failure = null;
+        for (Index index : open) {
+            try {
+                retire(index);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Snapshot of the cache counters.
+     */
+    public static class Stats {
+
+        private final long hits;
+
+        private final long misses;
+
+        private final long evictions;
+
+        private final int entries;
+
+        private final long size;
+
+        Stats(long hits, long misses, long evictions, int entries, long size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.size = size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return the total size in bytes of the cached entries
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public double getHitRatio() {
+            final long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses, %d evictions, %d entries, %d bytes",
+                    hits, misses, evictions, entries, size);
+        }
+
+    }
+
+    /**
+     * Open index of an archive, guarded by the cache lock.
+     */
+    private static class Index {
+
+        final FileSystem fileSystem;
+
+        final long lastModified;
+
+        int readers;
+
+        boolean retired;
+
+        Index(FileSystem fileSystem, long lastModified) {
+            this.fileSystem = fileSystem;
+            this.lastModified = lastModified;
+        }
+
+    }
+
+    private static class Key {
+
+        final Path archive;
+
+        final long lastModified;
+
+        final String entryName;
+
+        Key(Path archive, long lastModified, String entryName) {
+            this.archive = archive;
+            this.lastModified = lastModified;
+            this.entryName = entryName;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return lastModified == that.lastModified && archive.equals(that.archive) && entryName.equals(that.entryName);
+        }
+
+        @Override
+        public int hashCode() {
+            return (archive.hashCode() * 31 + (int) (lastModified ^ (lastModified >>> 32))) * 31 + entryName.hashCode();
+        }
+
+    }
+
+}
@@ -0,0 +1,400 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.file.Files.*;
+
+/**
+ * Command line tool around the archive strategies. Each command prints the
+ * throughput of the run, and the batch command reads one command per line
+ * from the standard input and runs them in parallel in the same JVM.
+ *
+ * <pre>
+ * compress [--format zip|tar|tgz|tar.zst|tar.xz] [--level N] [--threads N] path...
+ * extract [--threads N] archive
+ * list archive
+ * verify [--threads N] archive
+ * batch [--jobs N]
+ * </pre>
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public final class ArchiveCli {
+
+    private static final String USAGE = "usage: simple-compress <command> [options] <paths...>\n"
+            + "  compress [--format zip|tar|tgz|tar.zst|tar.xz] [--level N] [--threads N] path...\n"
+            + "  extract [--threads N] archive\n"
+            + "  list archive\n"
+            + "  verify [--threads N] archive\n"
+            + "  batch [--jobs N]    reads one command per line from the standard input\n";
+
+    private ArchiveCli() {
+    }
+
+    public static void main(String[] args) {
+        if (System.getProperty("logback.configurationFile") == null) {
+            System.setProperty("logback.configurationFile", "simple-compress-cli-logback.xml");
+        }
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    /**
+     * Runs the command of the given arguments.
+     *
+     * @return the process exit status, 0 on success, 1 when a command failed
+     * and 2 on usage errors
+     */
+    static int run(String[] args, InputStream in, PrintStream out, PrintStream err) {
+        final Job job;
+        try {
+            if (args.length > 0 && "batch".equals(args[0])) {
+                return batch(args, in, out, err);
+            }
+            job = Job.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.print(USAGE);
+            return 2;
+        }
+        try {
+            out.println(job.call().format());
+            return 0;
+        } catch (Exception e) {
+            err.println(job + " failed: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static int batch(String[] args, InputStream in, PrintStream out, PrintStream err) {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            if ("--jobs".equals(args[i]) && i + 1 < args.length) {
+                jobs = parsePositive(args[++i], "--jobs");
+            } else {
+                throw new IllegalArgumentException("unknown batch option " + args[i]);
+            }
+        }
+
+        final List<Job> batch = new ArrayList<>();
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    batch.add(Job.parse(line.split("\\s+")));
+                }
+            }
+        } catch (IOException e) {
+            err.println("reading the batch failed: " + e.getMessage());
+            return 1;
+        }
+
+        final long start = System.nanoTime();
+        final Stats total = new Stats("batch of " + batch.size() + " jobs");
+        final ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        int status = 0;
+        try {
+            final List<Future<Stats>> results = new ArrayList<>();
+            for (Job job : batch) {
+                results.add(executor.submit(job));
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    final Stats stats = results.get(i).get();
+                    out.println(stats.format());
+                    total.add(stats);
+                } catch (ExecutionException e) {
+                    err.println(batch.get(i) + " failed: " + e.getCause().getMessage());
+                    status = 1;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("batch interrupted");
+            return 1;
+        } finally {
+            executor.shutdownNow();
+        }
+        total.nanos = System.nanoTime() - start;
+        out.println(total.format());
+        return status;
+    }
+
+    private static int parsePositive(String value, String option) {
+        try {
+            final int n = Integer.parseInt(value);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(option + " must be a positive number: " + value);
+    }
+
+    static AbstractArchive newArchive(ArchiveType type) {
+        // new instances, the shared strategies must not be configured by concurrent jobs
+        switch (type) {
+            case TAR:
+                return new TarArchive();
+            case ZIP:
+                return new ZipArchive();
+            case GZIP:
+                return new GzipArchive();
+            case ZSTD:
+                return new ZstdArchive();
+            case XZ:
+                return new XzArchive();
+            default:
+                throw new IllegalArgumentException("Archive type (" + type + ") not supported");
+        }
+    }
+
+    static ArchiveType formatOf(String format) {
+        final String name = format.startsWith(".") ? format.substring(1) : format;
+        for (ArchiveType type : ArchiveType.values()) {
+            if (type.name().equalsIgnoreCase(name) || type.getExtension().equalsIgnoreCase("." + name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("unknown format " + format);
+    }
+
+    /**
+     * A single command with its options.
+     */
+    private static class Job implements Callable<Stats> {
+
+        private final String command;
+
+        private final List<Path> paths = new ArrayList<>();
+
+        private ArchiveType format = ArchiveType.ZIP;
+
+        private int level = -1;
+
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        private Job(String command) {
+            this.command = command;
+        }
+
+        static Job parse(String[] args) {
+            if (args.length == 0) {
+                throw new IllegalArgumentException("missing command");
+            }
+            final Job job = new Job(args[0]);
+            if (!"compress".equals(job.command) && !"extract".equals(job.command)
+                    && !"list".equals(job.command) && !"verify".equals(job.command)) {
+                throw new IllegalArgumentException("unknown command " + job.command);
+            }
+            for (int i = 1; i < args.length; i++) {
+                final String arg = args[i];
+                if (arg.startsWith("--") && i + 1 == args.length) {
+                    throw new IllegalArgumentException("missing value of " + arg);
+                }
+                if ("--format".equals(arg)) {
+                    job.format = formatOf(args[++i]);
+                } else if ("--level".equals(arg)) {
+                    try {
+                        job.level = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("--level must be a number: " + args[i]);
+                    }
+                } else if ("--threads".equals(arg)) {
+                    job.threads = parsePositive(args[++i], "--threads");
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("unknown option " + arg);
+                } else {
+                    job.paths.add(Paths.get(arg));
+                }
+            }
+            if (job.paths.isEmpty() || (!"compress".equals(job.command) && job.paths.size() != 1)) {
+                throw new IllegalArgumentException(job.command + " needs " + ("compress".equals(job.command)
+                        ? "at least one path" : "a single archive"));
+            }
+            return job;
+        }
+
+        @Override
+        public Stats call() throws IOException {
+            final long start = System.nanoTime();
+            final Stats stats;
+            switch (command) {
+                case "compress":
+                    stats = compress();
+                    break;
+                case "extract":
+                    stats = extract();
+                    break;
+                case "list":
+                    stats = list();
+                    break;
+                default:
+                    stats = verify();
+            }
+            stats.nanos = System.nanoTime() - start;
+            return stats;
+        }
+
+        private AbstractArchive archive(ArchiveType type) {
+            final AbstractArchive archive = newArchive(type);
+            archive.setThreads(threads);
+            archive.setCompressionLevel(level);
+            return archive;
+        }
+
+        private Stats compress() throws IOException {
+            final Path[] inputs = paths.toArray(new Path[0]);
+            final Path compress = archive(format).compress(inputs);
+            final Stats stats = new Stats("compress " + compress);
+            for (Path file : AbstractArchive.listFiles(inputs)) {
+                stats.entries++;
+                stats.bytes += size(file);
+            }
+            stats.archiveBytes = size(compress);
+            return stats;
+        }
+
+        private Stats extract() throws IOException {
+            final Path archive = paths.get(0);
+            final Path decompress = archive(ArchiveType.of(archive)).decompress(archive);
+            final Stats stats = new Stats("extract " + archive + " to " + decompress);
+            for (Path file : AbstractArchive.listFiles(decompress)) {
+                stats.entries++;
+                stats.bytes += size(file);
+            }
+            stats.archiveBytes = size(archive);
+            return stats;
+        }
+
+        private Stats list() throws IOException {
+            final Path archive = paths.get(0);
+            final AbstractArchive strategy = archive(ArchiveType.of(archive));
+            final Stats stats = new Stats("list " + archive);
+            final StringBuilder listing = new StringBuilder();
+            if (strategy instanceof ZipArchive) {
+                // the streaming reader does not know the sizes of the entries written with data descriptors
+                try (ArchiveIndex index = ((ZipArchive) strategy).index(archive)) {
+                    for (int i = 0; i < index.size(); i++) {
+                        stats.add(listing, index.getName(i), index.getSize(i));
+                    }
+                }
+            } else {
+                try (InputStream inputStream = new BufferedInputStream(newInputStream(archive));
+                     ArchiveInputStream archiveInputStream = strategy.createArchiveInputStream(inputStream)) {
+                    ArchiveEntry entry;
+                    while ((entry = archiveInputStream.getNextEntry()) != null) {
+                        stats.add(listing, entry.getName(), entry.getSize());
+                    }
+                }
+            }
+            stats.archiveBytes = size(archive);
+            stats.listing = listing.toString();
+            return stats;
+        }
+
+        private Stats verify() throws IOException {
+            final Path archive = paths.get(0);
+            final AbstractArchive strategy = archive(ArchiveType.of(archive));
+            if (!strategy.verify(archive)) {
+                throw new IOException("archive " + archive + " is corrupted");
+            }
+            final Stats stats = new Stats("verify " + archive);
+            stats.entries = strategy.getVerifiedEntries();
+            stats.bytes = strategy.getVerifiedBytes();
+            stats.archiveBytes = size(archive);
+            return stats;
+        }
+
+        @Override
+        public String toString() {
+            return command + " " + paths;
+        }
+
+    }
+
+    /**
+     * Throughput of a run: the uncompressed bytes and the entries processed
+     * per second and the archive to uncompressed size ratio.
+     */
+    private static class Stats {
+
+        private final String name;
+
+        private long entries;
+
+        private long bytes;
+
+        private long archiveBytes;
+
+        private long nanos;
+
+        private String listing = "";
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void add(StringBuilder listing, String entryName, long size) {
+            listing.append(String.format(Locale.ROOT, "%12d  %s%n", size, entryName));
+            entries++;
+            bytes += Math.max(size, 0);
+        }
+
+        void add(Stats stats) {
+            entries += stats.entries;
+            bytes += stats.bytes;
+            archiveBytes += stats.archiveBytes;
+        }
+
+        String format() {
+            final double seconds = Math.max(nanos, 1) / 1e9;
+            return listing + String.format(Locale.ROOT,
+                    "%s: %d entries, %d bytes, %.3f s, %.2f MB/s, %.1f entries/s, ratio %.3f",
+                    name, entries, bytes, seconds, bytes / seconds / (1024 * 1024), entries / seconds,
+                    bytes == 0 ? 0.0 : (double) archiveBytes / bytes);
+        }
+
+    }
+
+}
@@ -0,0 +1,33 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+
+/**
+ * Selects the entries copied from one archive to another.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public interface ArchiveEntryFilter {
+
+    boolean accept(ArchiveEntry entry);
+
+}
@@ -0,0 +1,620 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.utils.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.getLastModifiedTime;
+import static java.nio.file.Files.newInputStream;
+
+/**
+ * Read-only view of an archive as a file system. The {@link ArchiveIndex} of
+ * the entries is built on first access, together with the tree of the
+ * directories, and the entry data is read through an LRU cache of
+ * decompressed blocks.
+ * <p>
+ * The data of a compressed tar archive is only reachable by decompressing
+ * the archive from its start, so a single decoder is kept open and moved
+ * forward across reads, and restarted when a block before it is missed in
+ * the cache. The blocks of a zip archive are per entry, each entry being
+ * compressed on its own.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class ArchiveFileSystem extends FileSystem {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveFileSystem.class);
+
+    private final ArchiveFileSystemProvider provider;
+
+    private final Path archive;
+
+    private final AbstractArchive strategy;
+
+    private final Map<Long, byte[]> blocks;
+
+    private volatile boolean open = true;
+
+    private ArchiveIndex index;
+
+    private boolean zip;
+
+    private Map<String, Node> directories;
+
+    // the files whose entry name is not their normalized path, e.g. "./file"
+    private Map<String, Integer> renamed;
+
+    private InputStream decoder;
+
+    private int decoderStream;
+
+    private long decoderPosition;
+
+    ArchiveFileSystem(ArchiveFileSystemProvider provider, Path archive, AbstractArchive strategy, long cacheSize) {
+        this.provider = provider;
+        this.archive = archive;
+        this.strategy = strategy;
+        final int maxBlocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, cacheSize / BLOCK_SIZE));
+        this.blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > maxBlocks;
+            }
+        };
+    }
+
+    Path getArchive() {
+        return archive;
+    }
+
+    @Override
+    public ArchiveFileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            blocks.clear();
+            try {
+                closeDecoder();
+            } finally {
+                if (index != null) {
+                    index.close();
+                }
+            }
+        }
+        provider.removeFileSystem(this);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.<Path>singletonList(new ArchivePath(this, "/"));
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Collections.singleton("basic");
+    }
+
+    @Override
+    public ArchivePath getPath(String first, String... more) {
+        final StringBuilder builder = new StringBuilder(first);
+        for (String name : more) {
+            if (!name.isEmpty()) {
+                if (builder.length() > 0) {
+                    builder.append('/');
+                }
+                builder.append(name);
+            }
+        }
+        return new ArchivePath(this, builder.toString());
+    }
+
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        final int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException(syntaxAndPattern);
+        }
+        final String syntax = syntaxAndPattern.substring(0, colon);
+        final String expression = syntaxAndPattern.substring(colon + 1);
+        final Pattern pattern;
+        if (syntax.equalsIgnoreCase("regex")) {
+            pattern = Pattern.compile(expression);
+        } else if (syntax.equalsIgnoreCase("glob")) {
+            pattern = Pattern.compile(globToRegex(expression));
+        } else {
+            throw new UnsupportedOperationException("Syntax '" + syntax + "' not recognized");
+        }
+        return new PathMatcher() {
+            @Override
+            public boolean matches(Path path) {
+                return pattern.matcher(path.toString()).matches();
+            }
+        };
+    }
+
+    /**
+     * Translates the glob wildcards, '*' and '?' within a name, '**' across
+     * names, bracket expressions and groups of subpatterns, to a regex.
+     */
+    static String globToRegex(String glob) {
+        final StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    final int end = glob.indexOf(']', i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Missing ']' in glob " + glob);
+                    }
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+                    i = end;
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(inGroup ? ")" : "\\}");
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '\\':
+                    if (i + 1 < glob.length()) {
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                    }
+                    break;
+                default:
+                    regex.append(Character.isLetterOrDigit(c) || c == '/' ? String.valueOf(c) : Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void ensureOpen() {
+        if (!open) {
+            throw new ClosedFileSystemException();
+        }
+    }
+
+    /**
+     * @return the node of the given path, failing when there is no such entry
+     */
+    Node getNode(Path path) throws IOException {
+        final String name = ((ArchivePath) path).toAbsolutePath().normalize().toString();
+        final ArchiveIndex archiveIndex = index();
+        final Node directory = directories.get(name);
+        if (directory != null) {
+            return directory;
+        }
+        final Integer renamedEntry = renamed.get(name);
+        final int entry = renamedEntry != null ? renamedEntry : archiveIndex.find(name.substring(1));
+        if (entry < 0 || archiveIndex.isDirectory(entry)) {
+            throw new NoSuchFileException(path.toString());
+        }
+        // the zip entries are decompressed on their own, the tar entries are ranges of the tar stream
+        return new Node(false, archiveIndex.getSize(entry), archiveIndex.getLastModified(entry),
+                zip ? entry : 0, zip ? 0 : archiveIndex.getDataOffset(entry));
+    }
+
+    private synchronized ArchiveIndex index() throws IOException {
+        ensureOpen();
+        if (index == null) {
+            final long start = System.nanoTime();
+            final ArchiveIndex archiveIndex = openIndex();
+            final Map<String, Node> tree = new HashMap<>();
+            final Map<String, Integer> aliases = new HashMap<>();
+            tree.put("/", new Node(true, 0, getLastModifiedTime(archive).toMillis(), 0, 0));
+            for (int i = 0; i < archiveIndex.size(); i++) {
+                final String name = archiveIndex.getName(i);
+                if (zip && name.equals(ZipArchive.DICTIONARY_ENTRY)) {
+                    continue;
+                }
+                final String path = new ArchivePath(this, "/" + name).normalize().toString();
+                if (path.equals("/")) {
+                    continue;
+                }
+                final long lastModified = archiveIndex.getLastModified(i);
+                if (archiveIndex.isDirectory(i)) {
+                    final Node directory = tree.get(path);
+                    if (directory == null) {
+                        tree.put(path, new Node(true, 0, lastModified, 0, 0));
+                        link(tree, path, lastModified);
+                    } else {
+                        directory.lastModified = lastModified;
+                    }
+                } else {
+                    link(tree, path, lastModified);
+                    // a later entry of the same name replaces the earlier one, as on extraction
+                    if (path.equals("/" + name)) {
+                        aliases.remove(path);
+                    } else {
+                        aliases.put(path, i);
+                    }
+                }
+            }
+            index = archiveIndex;
+            directories = tree;
+            renamed = aliases;
+            logger.debug("Indexed " + archiveIndex.size() + " entries of " + archive + " in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index from the zip central directory or from the tar
+     * headers, read from the decompressed stream of a compressed tar.
+     */
+    private ArchiveIndex openIndex() throws IOException {
+        if (strategy instanceof ZipArchive) {
+            if (exists(ZipArchive.splitSegment(archive, 1))) {
+                throw new IOException("Split zip archives are not supported: " + archive);
+            }
+            zip = true;
+            return ((ZipArchive) strategy).index(archive);
+        }
+        if (strategy instanceof TarArchive) {
+            return ((TarArchive) strategy).index(archive);
+        }
+        try (InputStream inputStream = openUncompressed()) {
+            return ArchiveIndex.ofTar(inputStream);
+        }
+    }
+
+    /**
+     * Adds the path to the children of its parent, creating the parent
+     * directories missing from the archive.
+     */
+    private static void link(Map<String, Node> tree, String path, long lastModified) {
+        final int slash = path.lastIndexOf('/');
+        final String parentPath = slash == 0 ? "/" : path.substring(0, slash);
+        Node parent = tree.get(parentPath);
+        if (parent == null) {
+            parent = new Node(true, 0, lastModified, 0, 0);
+            tree.put(parentPath, parent);
+            link(tree, parentPath, lastModified);
+        }
+        parent.children.add(path.substring(slash + 1));
+    }
+
+    private InputStream openUncompressed() throws IOException {
+        final InputStream inputStream = new BufferedInputStream(newInputStream(archive));
+        try {
+            return strategy.createUncompressedInputStream(inputStream);
+        } catch (IOException | RuntimeException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the decompressed block of the given stream, the whole
+     * uncompressed tar stream or the data of a single zip entry.
+     */
+    synchronized byte[] getBlock(int stream, long block) throws IOException {
+        ensureOpen();
+        final Long key = ((long) stream << 40) | block;
+        byte[] data = blocks.get(key);
+        if (data != null) {
+            return data;
+        }
+
+        final long position = block * BLOCK_SIZE;
+        if (decoder == null || decoderStream != stream || decoderPosition > position) {
+            closeDecoder();
+            decoder = zip ? index.getInputStream(stream) : openUncompressed();
+            decoderStream = stream;
+            decoderPosition = 0;
+        }
+        skip(position);
+
+        data = new byte[BLOCK_SIZE];
+        final int read = IOUtils.readFully(decoder, data);
+        if (read < BLOCK_SIZE) {
+            data = Arrays.copyOf(data, read);
+        }
+        decoderPosition += read;
+        blocks.put(key, data);
+        return data;
+    }
+
+    /**
+     * Moves the decoder forward to the given position, seeking when the
+     * stream supports it, e.g. an uncompressed tar file.
+     */
+    private void skip(long position) throws IOException {
+        while (decoderPosition < position) {
+            long skipped = decoder.skip(position - decoderPosition);
+            if (skipped <= 0) {
+                if (decoder.read() < 0) {
+                    return;
+                }
+                skipped = 1;
+            }
+            decoderPosition += skipped;
+        }
+    }
+
+    private void closeDecoder() throws IOException {
+        if (decoder != null) {
+            try {
+                decoder.close();
+            } finally {
+                decoder = null;
+            }
+        }
+    }
+
+    /**
+     * Attributes of a path, a file with the location of its data or a
+     * directory of the tree with the names of its children.
+     */
+    static class Node implements BasicFileAttributes {
+
+        final Set<String> children = new TreeSet<>();
+
+        final boolean directory;
+
+        final long size;
+
+        long lastModified;
+
+        final int stream;
+
+        final long offset;
+
+        Node(boolean directory, long size, long lastModified, int stream, long offset) {
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.stream = stream;
+            this.offset = offset;
+        }
+
+        List<String> getChildren() {
+            return new ArrayList<>(children);
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(lastModified);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return !directory;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+
+    }
+
+    /**
+     * Read-only channel over the data of a file entry.
+     */
+    static class EntryChannel implements SeekableByteChannel {
+
+        private final ArchiveFileSystem fileSystem;
+
+        private final Node node;
+
+        private long position;
+
+        private boolean open = true;
+
+        EntryChannel(ArchiveFileSystem fileSystem, Node node) {
+            this.fileSystem = fileSystem;
+            this.node = node;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            if (position >= node.size) {
+                return -1;
+            }
+            int total = 0;
+            while (dst.hasRemaining() && position < node.size) {
+                final long offset = node.offset + position;
+                final byte[] block = fileSystem.getBlock(node.stream, offset / BLOCK_SIZE);
+                final int from = (int) (offset % BLOCK_SIZE);
+                if (from >= block.length) {
+                    throw new IOException("Unexpected end of archive " + fileSystem.getArchive());
+                }
+                final int n = (int) Math.min(Math.min(dst.remaining(), block.length - from), node.size - position);
+                dst.put(block, from, n);
+                position += n;
+                total += n;
+            }
+            return total;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position " + newPosition);
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return node.size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open && fileSystem.isOpen();
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        private void ensureOpen() throws ClosedChannelException {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+        }
+
+    }
+
+}
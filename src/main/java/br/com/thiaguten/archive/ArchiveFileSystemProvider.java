@@ -0,0 +1,360 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Provider of read-only file systems over the archives of the supported
+ * {@link ArchiveType}s, so the archive entries can be read with the
+ * {@link java.nio.file.Files} methods, e.g. walk, readAllBytes and
+ * newByteChannel, without extracting the archive.
+ * <p>
+ * The file systems are identified by URIs of the form
+ * <code>archive:file:///path/to/archive.tgz!/entry/path</code>. The
+ * {@link #CACHE_SIZE} environment property sets the bytes of decompressed
+ * data kept in memory by each file system.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class ArchiveFileSystemProvider extends FileSystemProvider {
+
+    public static final String SCHEME = "archive";
+
+    /**
+     * Environment property with the size in bytes of the decompressed blocks
+     * cache, a number or a string.
+     */
+    public static final String CACHE_SIZE = "cacheSize";
+
+    public static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
+
+    private static final String SEPARATOR = "!/";
+
+    private final Map<Path, ArchiveFileSystem> fileSystems = new HashMap<>();
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        final Path archive = toArchivePath(uri).toRealPath();
+        synchronized (fileSystems) {
+            if (fileSystems.containsKey(archive)) {
+                throw new FileSystemAlreadyExistsException(uri.toString());
+            }
+            final ArchiveFileSystem fileSystem = createFileSystem(archive, env);
+            fileSystems.put(archive, fileSystem);
+            return fileSystem;
+        }
+    }
+
+    /**
+     * Opens a file system not reachable by URI, closed by its owner.
+     */
+    @Override
+    public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+        return createFileSystem(path.toRealPath(), env);
+    }
+
+    private ArchiveFileSystem createFileSystem(Path archive, Map<String, ?> env) throws IOException {
+        final ArchiveType type;
+        try {
+            type = ArchiveType.of(archive);
+        } catch (RuntimeException e) {
+            throw new UnsupportedOperationException(e.getMessage());
+        }
+        final Object cacheSize = env == null ? null : env.get(CACHE_SIZE);
+        return new ArchiveFileSystem(this, archive, (AbstractArchive) type.getStrategy(),
+                cacheSize == null ? DEFAULT_CACHE_SIZE : Long.parseLong(cacheSize.toString()));
+    }
+
+    void removeFileSystem(ArchiveFileSystem fileSystem) {
+        synchronized (fileSystems) {
+            if (fileSystems.get(fileSystem.getArchive()) == fileSystem) {
+                fileSystems.remove(fileSystem.getArchive());
+            }
+        }
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        final ArchiveFileSystem fileSystem;
+        try {
+            synchronized (fileSystems) {
+                fileSystem = fileSystems.get(toArchivePath(uri).toRealPath());
+            }
+        } catch (IOException e) {
+            throw new FileSystemNotFoundException(uri.toString());
+        }
+        if (fileSystem == null) {
+            throw new FileSystemNotFoundException(uri.toString());
+        }
+        return fileSystem;
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        final String spec = uri.getRawSchemeSpecificPart();
+        final int separator = spec.indexOf(SEPARATOR);
+        final String entry = separator < 0 ? "/" : URI.create(spec.substring(separator + 1)).getPath();
+        return getFileSystem(uri).getPath(entry);
+    }
+
+    private Path toArchivePath(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("URI scheme is not '" + SCHEME + "'");
+        }
+        final String spec = uri.getRawSchemeSpecificPart();
+        final int separator = spec.indexOf(SEPARATOR);
+        return Paths.get(URI.create(separator < 0 ? spec : spec.substring(0, separator)));
+    }
+
+    private static ArchivePath toArchivePath(Path path) {
+        if (path == null) {
+            throw new NullPointerException();
+        }
+        if (!(path instanceof ArchivePath)) {
+            throw new ProviderMismatchException();
+        }
+        return (ArchivePath) path;
+    }
+
+    private static ArchiveFileSystem.Node getNode(Path path) throws IOException {
+        return toArchivePath(path).getFileSystem().getNode(path);
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+                                              FileAttribute<?>... attrs) throws IOException {
+        for (OpenOption option : options) {
+            if (option != StandardOpenOption.READ && option != LinkOption.NOFOLLOW_LINKS) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+        final ArchiveFileSystem.Node node = getNode(path);
+        if (node.isDirectory()) {
+            throw new FileSystemException(path.toString(), null, "Is a directory");
+        }
+        return new ArchiveFileSystem.EntryChannel(toArchivePath(path).getFileSystem(), node);
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(final Path dir, final DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        final ArchiveFileSystem.Node node = getNode(dir);
+        if (!node.isDirectory()) {
+            throw new NotDirectoryException(dir.toString());
+        }
+        final List<String> children = node.getChildren();
+        return new DirectoryStream<Path>() {
+
+            private boolean iterated;
+
+            @Override
+            public Iterator<Path> iterator() {
+                if (iterated) {
+                    throw new IllegalStateException("Iterator already obtained");
+                }
+                iterated = true;
+                final List<Path> entries = new ArrayList<>();
+                for (String child : children) {
+                    final Path entry = dir.resolve(child);
+                    try {
+                        if (filter == null || filter.accept(entry)) {
+                            entries.add(entry);
+                        }
+                    } catch (IOException e) {
+                        throw new DirectoryIteratorException(e);
+                    }
+                }
+                return entries.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        if (path.equals(path2)) {
+            return true;
+        }
+        if (!(path2 instanceof ArchivePath) || path.getFileSystem() != path2.getFileSystem()) {
+            return false;
+        }
+        return toArchivePath(path).toAbsolutePath().normalize().equals(toArchivePath(path2).toAbsolutePath().normalize());
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        getNode(path);
+        for (AccessMode mode : modes) {
+            if (mode != AccessMode.READ) {
+                throw new AccessDeniedException(path.toString());
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(final Path path, Class<V> type, LinkOption... options) {
+        if (type != BasicFileAttributeView.class) {
+            return null;
+        }
+        return (V) new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return getNode(path);
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        };
+    }
+
+    @Override
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (type != BasicFileAttributes.class) {
+            throw new UnsupportedOperationException("Attributes of type " + type.getName() + " not supported");
+        }
+        return type.cast(getNode(path));
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        String names = attributes;
+        final int colon = attributes.indexOf(':');
+        if (colon >= 0) {
+            if (!attributes.substring(0, colon).equals("basic")) {
+                throw new UnsupportedOperationException("View '" + attributes.substring(0, colon) + "' not supported");
+            }
+            names = attributes.substring(colon + 1);
+        }
+
+        final BasicFileAttributes node = getNode(path);
+        final Map<String, Object> all = new LinkedHashMap<>();
+        all.put("lastModifiedTime", node.lastModifiedTime());
+        all.put("lastAccessTime", node.lastAccessTime());
+        all.put("creationTime", node.creationTime());
+        all.put("size", node.size());
+        all.put("isRegularFile", node.isRegularFile());
+        all.put("isDirectory", node.isDirectory());
+        all.put("isSymbolicLink", node.isSymbolicLink());
+        all.put("isOther", node.isOther());
+        all.put("fileKey", node.fileKey());
+        if (names.equals("*")) {
+            return all;
+        }
+
+        final Map<String, Object> selected = new LinkedHashMap<>();
+        for (String name : names.split(",")) {
+            if (name.equals("*")) {
+                selected.putAll(all);
+            } else if (all.containsKey(name)) {
+                selected.put(name, all.get(name));
+            } else {
+                throw new IllegalArgumentException("'" + name + "' not recognized");
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+}
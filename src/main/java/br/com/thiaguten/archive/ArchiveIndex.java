@@ -0,0 +1,739 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.tar.TarUtils;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.deflate64.Deflate64CompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact index of the entries of an archive, built from the zip central
+ * directory or from a scan of the tar headers. The entry names are kept in
+ * one off-heap arena and the entry values in primitive arrays, so listing
+ * and looking up the entries of archives with millions of entries creates no
+ * object per entry. Entries are addressed by their position in the archive.
+ * <p>
+ * The index of a compressed tar archive is built from its decompressed
+ * stream, its data offsets are positions in that stream and its entries are
+ * not readable through {@link #getInputStream(int)}. The index can be shared
+ * by threads reading different entries at the same time.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public final class ArchiveIndex implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+    static final int DEFLATE64 = 9;
+    static final int BZIP2 = 12;
+
+    // null for the index of a compressed tar stream
+    private final FileChannel channel;
+
+    private final boolean zip;
+
+    private ByteBuffer names;
+
+    private int count;
+
+    private int[] nameOffsets;
+
+    private int[] nameLengths;
+
+    // zip: local file header offset, tar: data offset, resolved to the data offset on first read
+    private long[] offsets;
+
+    private long[] sizes;
+
+    private long[] compressedSizes;
+
+    private long[] lastModified;
+
+    private int[] crcs;
+
+    private short[] methods;
+
+    private boolean[] directories;
+
+    private boolean[] resolved;
+
+    private int[] table;
+
+    private byte[] dictionary;
+
+    ArchiveIndex(FileChannel channel, boolean zip, int capacity) {
+        this.channel = channel;
+        this.zip = zip;
+        capacity = Math.max(capacity, 16);
+        this.names = ByteBuffer.allocateDirect(capacity * 32);
+        this.nameOffsets = new int[capacity];
+        this.nameLengths = new int[capacity];
+        this.offsets = new long[capacity];
+        this.sizes = new long[capacity];
+        this.compressedSizes = new long[capacity];
+        this.lastModified = new long[capacity];
+        this.crcs = new int[capacity];
+        this.methods = new short[capacity];
+        this.directories = new boolean[capacity];
+        this.resolved = new boolean[capacity];
+    }
+
+    /**
+     * Indexes the zip central directory, reading the records sequentially.
+     */
+    static ArchiveIndex ofZip(FileChannel channel) throws IOException {
+        final ZipCentralDirectory centralDirectory = ZipCentralDirectory.locate(channel, 0, channel.size());
+        if (centralDirectory.entries > Integer.MAX_VALUE - 8) {
+            throw new IOException("Too many entries: " + centralDirectory.entries);
+        }
+        final ArchiveIndex index = new ArchiveIndex(channel, true, (int) centralDirectory.entries);
+        final InputStream records = new BufferedInputStream(new ChannelInputStream(channel,
+                centralDirectory.offset, centralDirectory.size, false), 64 * 1024);
+
+        final byte[] header = new byte[ZipCentralDirectory.CFH_LENGTH];
+        final byte[] name = new byte[0xFFFF];
+        final byte[] extra = new byte[0xFFFF];
+        final ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer extraBuffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (long i = 0; i < centralDirectory.entries; i++) {
+            readFully(records, header, header.length);
+            if (headerBuffer.getInt(0) != ZipCentralDirectory.CFH_SIG) {
+                throw new IOException("Corrupted central directory record " + i);
+            }
+            final int method = headerBuffer.getShort(10) & 0xFFFF;
+            final long time = ZipUtil.dosToJavaTime(headerBuffer.getInt(12) & 0xFFFFFFFFL);
+            final int crc = headerBuffer.getInt(16);
+            long compressedSize = headerBuffer.getInt(20) & ZipCentralDirectory.ZIP64_MAGIC;
+            long size = headerBuffer.getInt(24) & ZipCentralDirectory.ZIP64_MAGIC;
+            final int nameLength = headerBuffer.getShort(28) & 0xFFFF;
+            final int extraLength = headerBuffer.getShort(30) & 0xFFFF;
+            final int commentLength = headerBuffer.getShort(32) & 0xFFFF;
+            long offset = headerBuffer.getInt(42) & ZipCentralDirectory.ZIP64_MAGIC;
+
+            readFully(records, name, nameLength);
+            readFully(records, extra, extraLength);
+            if (records.skip(commentLength) != commentLength) {
+                throw new IOException("Unexpected end of central directory");
+            }
+
+            // the zip64 extra field holds, in order, only the values whose fixed field is the magic
+            for (int j = 0; j + 4 <= extraLength; j += 4 + (extraBuffer.getShort(j + 2) & 0xFFFF)) {
+                if ((extraBuffer.getShort(j) & 0xFFFF) == ZipCentralDirectory.ZIP64_EXTRA_ID) {
+                    int k = j + 4;
+                    if (size == ZipCentralDirectory.ZIP64_MAGIC) {
+                        size = extraBuffer.getLong(k);
+                        k += 8;
+                    }
+                    if (compressedSize == ZipCentralDirectory.ZIP64_MAGIC) {
+                        compressedSize = extraBuffer.getLong(k);
+                        k += 8;
+                    }
+                    if (offset == ZipCentralDirectory.ZIP64_MAGIC) {
+                        offset = extraBuffer.getLong(k);
+                    }
+                    break;
+                }
+            }
+
+            final boolean directory = nameLength > 0 && name[nameLength - 1] == '/';
+            index.add(name, nameLength, offset, size, compressedSize, time, crc, method, directory);
+        }
+        return index.seal();
+    }
+
+    /**
+     * Indexes the tar entries, walking the headers and skipping the entries
+     * data. GNU long names and PAX path, size and mtime records are supported.
+     */
+    static ArchiveIndex ofTar(FileChannel channel) throws IOException {
+        return scanTar(new ArchiveIndex(channel, false, 1024),
+                new ChannelInputStream(channel, 0, channel.size(), false), false);
+    }
+
+    /**
+     * Indexes the entries of a decompressed tar stream, made of one or more
+     * tar archives written one after the other as produced by appending to a
+     * compressed tar file. The stream is read to its end.
+     */
+    static ArchiveIndex ofTar(InputStream tarStream) throws IOException {
+        return scanTar(new ArchiveIndex(null, false, 1024), tarStream, true);
+    }
+
+    private static ArchiveIndex scanTar(ArchiveIndex index, InputStream inputStream, boolean concatenated)
+            throws IOException {
+        final byte[] header = new byte[TarConstants.DEFAULT_RCDSIZE];
+
+        byte[] name = new byte[TarConstants.PREFIXLEN + 1 + TarConstants.NAMELEN];
+        byte[] data = new byte[TarConstants.DEFAULT_RCDSIZE];
+        int longNameLength = -1;
+        long paxSize = -1;
+        long paxTime = Long.MIN_VALUE;
+
+        long position = 0;
+        while (readBlock(inputStream, header)) {
+            if (isZeroBlock(header)) {
+                if (!concatenated) {
+                    break;
+                }
+                // end-of-archive blocks, the next archive may follow
+                position += header.length;
+                continue;
+            }
+            if (!TarUtils.verifyCheckSum(header)) {
+                throw new IOException("Corrupted tar header at offset " + position);
+            }
+
+            final long headerSize = TarUtils.parseOctalOrBinary(header, SIZE_OFFSET, TarConstants.SIZELEN);
+            final byte type = header[TYPE_OFFSET];
+            final long dataOffset = position + header.length;
+
+            if (type == TarConstants.LF_GNUTYPE_LONGNAME || type == TarConstants.LF_PAX_EXTENDED_HEADER_LC) {
+                if (headerSize > Integer.MAX_VALUE - 8) {
+                    throw new IOException("Corrupted tar extended header at offset " + position);
+                }
+                if (data.length < headerSize) {
+                    data = new byte[(int) headerSize];
+                }
+                readFully(inputStream, data, (int) headerSize);
+                skip(inputStream, blocks(headerSize, header.length) - headerSize);
+                if (type == TarConstants.LF_GNUTYPE_LONGNAME) {
+                    longNameLength = 0;
+                    while (longNameLength < headerSize && data[longNameLength] != 0) {
+                        longNameLength++;
+                    }
+                    name = copy(data, longNameLength, name);
+                } else {
+                    // records "<length> <key>=<value>\n"
+                    int i = 0;
+                    while (i < headerSize) {
+                        int length = 0;
+                        int j = i;
+                        while (j < headerSize && data[j] != ' ') {
+                            length = length * 10 + data[j++] - '0';
+                        }
+                        if (length <= 0 || i + length > headerSize) {
+                            throw new IOException("Corrupted PAX header at offset " + position);
+                        }
+                        final int key = j + 1;
+                        int value = key;
+                        while (value < i + length && data[value] != '=') {
+                            value++;
+                        }
+                        value++;
+                        final int valueLength = i + length - 1 - value;
+                        if (matches(data, key, value - 1, "path")) {
+                            longNameLength = valueLength;
+                            name = copy(data, value, valueLength, name);
+                        } else if (matches(data, key, value - 1, "size")) {
+                            paxSize = Long.parseLong(new String(data, value, valueLength, UTF_8));
+                        } else if (matches(data, key, value - 1, "mtime")) {
+                            paxTime = (long) (Double.parseDouble(new String(data, value, valueLength, UTF_8)) * 1000);
+                        }
+                        i += length;
+                    }
+                }
+                position = dataOffset + blocks(headerSize, header.length);
+                continue;
+            }
+            if (type == TarConstants.LF_PAX_GLOBAL_EXTENDED_HEADER || type == TarConstants.LF_GNUTYPE_LONGLINK) {
+                skip(inputStream, blocks(headerSize, header.length));
+                position = dataOffset + blocks(headerSize, header.length);
+                continue;
+            }
+
+            int nameLength = longNameLength;
+            if (nameLength < 0) {
+                nameLength = 0;
+                if (isUstar(header)) {
+                    nameLength = field(header, PREFIX_OFFSET, TarConstants.PREFIXLEN, name, 0);
+                    if (nameLength > 0) {
+                        name[nameLength++] = '/';
+                    }
+                }
+                nameLength += field(header, 0, TarConstants.NAMELEN, name, nameLength);
+            }
+
+            final long size = paxSize >= 0 ? paxSize : headerSize;
+            final long time = paxTime != Long.MIN_VALUE ? paxTime
+                    : TarUtils.parseOctalOrBinary(header, MODTIME_OFFSET, TarConstants.MODTIMELEN) * 1000;
+            final boolean directory = type == TarConstants.LF_DIR || (nameLength > 0 && name[nameLength - 1] == '/');
+            index.add(name, nameLength, dataOffset, size, size, time, 0, STORED, directory);
+
+            longNameLength = -1;
+            paxSize = -1;
+            paxTime = Long.MIN_VALUE;
+            skip(inputStream, blocks(size, header.length));
+            position = dataOffset + blocks(size, header.length);
+        }
+        return index.seal();
+    }
+
+    /**
+     * Number of entries.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Position of the entry with the given name, or -1 when there is none.
+     * When the name is found more than once, e.g. in an appended archive,
+     * the last entry wins, as on extraction.
+     */
+    public int find(String name) {
+        final byte[] bytes = name.getBytes(UTF_8);
+        final int mask = table.length - 1;
+        for (int slot = hash(bytes, 0, bytes.length) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = table[slot] - 1;
+            if (nameEquals(index, bytes)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Entry name, a new string for each call. Use {@link #copyName(int, byte[], int)}
+     * to read the name without allocating.
+     */
+    public String getName(int index) {
+        final byte[] name = new byte[nameLengths[index]];
+        copyName(index, name, 0);
+        return new String(name, UTF_8);
+    }
+
+    /**
+     * Length of the UTF-8 encoded entry name.
+     */
+    public int getNameLength(int index) {
+        return nameLengths[index];
+    }
+
+    /**
+     * Copies the UTF-8 encoded entry name to the given array.
+     */
+    public void copyName(int index, byte[] target, int offset) {
+        final ByteBuffer arena = names.duplicate();
+        arena.position(nameOffsets[index]);
+        arena.get(target, offset, nameLengths[index]);
+    }
+
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    public long getCompressedSize(int index) {
+        return compressedSizes[index];
+    }
+
+    /**
+     * Modification time of the entry in milliseconds, the local time of the
+     * DOS date of the zip entries.
+     */
+    public long getLastModified(int index) {
+        return lastModified[index];
+    }
+
+    /**
+     * CRC32 of the entry data, always zero for the tar entries.
+     */
+    public int getCrc(int index) {
+        return crcs[index];
+    }
+
+    /**
+     * Zip compression method, always stored for the tar entries.
+     */
+    public int getMethod(int index) {
+        return methods[index];
+    }
+
+    public boolean isDirectory(int index) {
+        return directories[index];
+    }
+
+    /**
+     * Reads the data of the entry. The stored, deflated, deflate64, bzip2 and
+     * preset dictionary ({@link ZipArchive#setDictionaryCompression(boolean)})
+     * zip entries can be read, the entries of a compressed tar archive cannot.
+     */
+    public InputStream getInputStream(int index) throws IOException {
+        if (channel == null) {
+            throw new IOException("The entries of a compressed tar archive are only readable from its stream");
+        }
+        final int method = methods[index];
+        final long offset = getDataOffset(index);
+        final InputStream inputStream = new ChannelInputStream(channel, offset, compressedSizes[index],
+                method == DEFLATED || method == ZipArchive.DICTIONARY_METHOD);
+        switch (method) {
+            case STORED:
+                return inputStream;
+            case DEFLATE64:
+                return new Deflate64CompressorInputStream(inputStream);
+            case BZIP2:
+                return new BZip2CompressorInputStream(inputStream);
+            case ZipArchive.DICTIONARY_METHOD:
+            case DEFLATED:
+                final Inflater inflater = new Inflater(true);
+                if (method == ZipArchive.DICTIONARY_METHOD) {
+                    inflater.setDictionary(dictionary(index));
+                }
+                return new InflaterInputStream(inputStream, inflater) {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (!closed) {
+                            closed = true;
+                            inflater.end();
+                            super.close();
+                        }
+                    }
+                };
+            default:
+                throw new IOException("Unsupported compression method " + methods[index]
+                        + " of entry " + getName(index));
+        }
+    }
+
+    /**
+     * Closes the archive file, the direct buffer of the names is released by
+     * the garbage collector.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    void add(byte[] name, int nameLength, long offset, long size, long compressedSize, long time,
+             int crc, int method, boolean directory) {
+        if (count == offsets.length) {
+            grow();
+        }
+        if (names.remaining() < nameLength) {
+            final long capacity = Math.max(2L * names.capacity(), (long) names.position() + nameLength);
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("entry names do not fit in the index");
+            }
+            final ByteBuffer arena = ByteBuffer.allocateDirect((int) capacity);
+            names.flip();
+            arena.put(names);
+            names = arena;
+        }
+        nameOffsets[count] = names.position();
+        nameLengths[count] = nameLength;
+        names.put(name, 0, nameLength);
+        offsets[count] = offset;
+        sizes[count] = size;
+        compressedSizes[count] = compressedSize;
+        lastModified[count] = time;
+        crcs[count] = crc;
+        methods[count] = (short) method;
+        directories[count] = directory;
+        resolved[count] = !zip;
+        count++;
+    }
+
+    /**
+     * Builds the name lookup table, called once all the entries are added. A
+     * later entry of the same name takes the slot of the earlier one.
+     */
+    ArchiveIndex seal() {
+        int capacity = Integer.highestOneBit(Math.max(count, 8) * 2 - 1) << 1;
+        table = new int[capacity];
+        final int mask = capacity - 1;
+        final byte[] name = new byte[maxNameLength()];
+        for (int index = 0; index < count; index++) {
+            copyName(index, name, 0);
+            final int length = nameLengths[index];
+            int slot = hash(name, 0, length) & mask;
+            while (table[slot] != 0 && !nameEquals(table[slot] - 1, name, length)) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+        return this;
+    }
+
+    /**
+     * Offset of the entry data, in the archive file or in the decompressed
+     * stream of a compressed tar archive. The zip offsets are resolved on
+     * first use from the local file header, serialized as the lookups may
+     * come from several threads.
+     */
+    synchronized long getDataOffset(int index) throws IOException {
+        if (!resolved[index]) {
+            // the local header has its own name and extra lengths
+            final ByteBuffer header = ZipCentralDirectory.read(channel, offsets[index], 30);
+            if (header.getInt(0) != 0x04034b50) {
+                throw new IOException("Corrupted local file header of entry " + getName(index));
+            }
+            offsets[index] += 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+            resolved[index] = true;
+        }
+        return offsets[index];
+    }
+
+    /**
+     * Preset dictionary of the archive, read on first use.
+     */
+    private synchronized byte[] dictionary(int index) throws IOException {
+        if (dictionary == null) {
+            final int entry = find(ZipArchive.DICTIONARY_ENTRY);
+            if (entry < 0) {
+                throw new IOException("Missing preset dictionary of entry " + getName(index));
+            }
+            try (InputStream inputStream = getInputStream(entry)) {
+                dictionary = IOUtils.toByteArray(inputStream);
+            }
+        }
+        return dictionary;
+    }
+
+    private boolean nameEquals(int index, byte[] name) {
+        return nameEquals(index, name, name.length);
+    }
+
+    private boolean nameEquals(int index, byte[] name, int length) {
+        if (nameLengths[index] != length) {
+            return false;
+        }
+        final int offset = nameOffsets[index];
+        for (int i = 0; i < length; i++) {
+            if (names.get(offset + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int maxNameLength() {
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, nameLengths[i]);
+        }
+        return max;
+    }
+
+    private void grow() {
+        final int capacity = offsets.length * 2;
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        compressedSizes = Arrays.copyOf(compressedSizes, capacity);
+        lastModified = Arrays.copyOf(lastModified, capacity);
+        crcs = Arrays.copyOf(crcs, capacity);
+        methods = Arrays.copyOf(methods, capacity);
+        directories = Arrays.copyOf(directories, capacity);
+        resolved = Arrays.copyOf(resolved, capacity);
+    }
+
+    private static final int SIZE_OFFSET = TarConstants.NAMELEN + TarConstants.MODELEN
+            + TarConstants.UIDLEN + TarConstants.GIDLEN;
+
+    private static final int MODTIME_OFFSET = SIZE_OFFSET + TarConstants.SIZELEN;
+
+    private static final int TYPE_OFFSET = MODTIME_OFFSET + TarConstants.MODTIMELEN + TarConstants.CHKSUMLEN;
+
+    private static final int MAGIC_OFFSET = TYPE_OFFSET + 1 + TarConstants.NAMELEN;
+
+    private static final int PREFIX_OFFSET = MAGIC_OFFSET + TarConstants.MAGICLEN + TarConstants.VERSIONLEN
+            + TarConstants.UNAMELEN + TarConstants.GNAMELEN + 2 * TarConstants.DEVLEN;
+
+    private static long blocks(long size, int blockSize) {
+        return (size + blockSize - 1) / blockSize * blockSize;
+    }
+
+    // POSIX ustar, the GNU format uses the prefix field for other values
+    private static boolean isUstar(byte[] header) {
+        return matches(header, MAGIC_OFFSET, MAGIC_OFFSET + TarConstants.MAGICLEN, "ustar\0");
+    }
+
+    private static boolean matches(byte[] bytes, int from, int to, String ascii) {
+        if (to - from != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (bytes[from + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the NUL terminated header field and returns its length.
+     */
+    private static int field(byte[] header, int offset, int length, byte[] target, int targetOffset) {
+        int n = 0;
+        while (n < length && header[offset + n] != 0) {
+            target[targetOffset + n] = header[offset + n];
+            n++;
+        }
+        return n;
+    }
+
+    private static byte[] copy(byte[] source, int length, byte[] target) {
+        return copy(source, 0, length, target);
+    }
+
+    private static byte[] copy(byte[] source, int offset, int length, byte[] target) {
+        if (target.length < length) {
+            target = new byte[length];
+        }
+        System.arraycopy(source, offset, target, 0, length);
+        return target;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readFully(InputStream inputStream, byte[] b, int length) throws IOException {
+        int count = 0;
+        while (count < length) {
+            final int n = inputStream.read(b, count, length - count);
+            if (n < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+            count += n;
+        }
+    }
+
+    /**
+     * Reads a whole tar record, returning false at the end of the stream.
+     */
+    private static boolean readBlock(InputStream inputStream, byte[] block) throws IOException {
+        return IOUtils.readFully(inputStream, block) == block.length;
+    }
+
+    /**
+     * Skips the bytes, reading them when the stream cannot skip, and stops at
+     * the end of the stream.
+     */
+    private static void skip(InputStream inputStream, long n) throws IOException {
+        while (n > 0) {
+            long skipped = inputStream.skip(n);
+            if (skipped <= 0) {
+                if (inputStream.read() < 0) {
+                    return;
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    // FNV-1a
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Reads a region of the archive file with positional reads, so many
+     * entries can be read from the same channel.
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+
+        private long position;
+
+        private long remaining;
+
+        // the raw inflater needs one extra byte after the deflate data
+        private boolean padded;
+
+        ChannelInputStream(FileChannel channel, long position, long length, boolean pad) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+            this.padded = !pad;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                if (padded) {
+                    return -1;
+                }
+                padded = true;
+                b[off] = 0;
+                return 1;
+            }
+            final int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of archive at offset " + position);
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            final long skipped = Math.max(0, Math.min(n, remaining));
+            position += skipped;
+            remaining -= skipped;
+            return skipped;
+        }
+
+    }
+
+}
@@ -0,0 +1,353 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Path of an entry in an {@link ArchiveFileSystem}, always with '/' as the
+ * name separator whatever the platform the archive was written on.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class ArchivePath implements Path {
+
+    private final ArchiveFileSystem fileSystem;
+
+    private final String path;
+
+    private String[] names;
+
+    ArchivePath(ArchiveFileSystem fileSystem, String path) {
+        this.fileSystem = fileSystem;
+        this.path = normalizeSeparators(path);
+    }
+
+    private static String normalizeSeparators(String path) {
+        final StringBuilder builder = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (c == '\u0000') {
+                throw new InvalidPathException(path, "Nul character not allowed");
+            }
+            if (c != '/' || builder.length() == 0 || builder.charAt(builder.length() - 1) != '/') {
+                builder.append(c);
+            }
+        }
+        if (builder.length() > 1 && builder.charAt(builder.length() - 1) == '/') {
+            builder.setLength(builder.length() - 1);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the name elements, none for the root and for the empty path
+     */
+    private String[] names() {
+        if (names == null) {
+            final String relative = isAbsolute() ? path.substring(1) : path;
+            names = relative.isEmpty() ? new String[0] : relative.split("/");
+        }
+        return names;
+    }
+
+    private ArchivePath of(String[] names, int begin, int end, boolean absolute) {
+        final StringBuilder builder = new StringBuilder(absolute ? "/" : "");
+        for (int i = begin; i < end; i++) {
+            if (i > begin) {
+                builder.append('/');
+            }
+            builder.append(names[i]);
+        }
+        return new ArchivePath(fileSystem, builder.toString());
+    }
+
+    private ArchivePath check(Path other) {
+        if (other == null) {
+            throw new NullPointerException();
+        }
+        if (!(other instanceof ArchivePath)) {
+            throw new ProviderMismatchException();
+        }
+        return (ArchivePath) other;
+    }
+
+    @Override
+    public ArchiveFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return path.startsWith("/");
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? new ArchivePath(fileSystem, "/") : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        if (path.isEmpty()) {
+            return this;
+        }
+        final String[] names = names();
+        return names.length == 0 ? null : new ArchivePath(fileSystem, names[names.length - 1]);
+    }
+
+    @Override
+    public Path getParent() {
+        final String[] names = names();
+        if (names.length == 0) {
+            return null;
+        }
+        if (names.length == 1) {
+            return getRoot();
+        }
+        return new ArchivePath(fileSystem, path.substring(0, path.lastIndexOf('/')));
+    }
+
+    @Override
+    public int getNameCount() {
+        return path.isEmpty() ? 1 : names().length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        return subpath(index, index + 1);
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        if (beginIndex < 0 || endIndex > getNameCount() || beginIndex >= endIndex) {
+            throw new IllegalArgumentException();
+        }
+        if (path.isEmpty()) {
+            return this;
+        }
+        return of(names(), beginIndex, endIndex, false);
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        final ArchivePath that = check(other);
+        if (that.isAbsolute() != isAbsolute() || that.path.isEmpty() != path.isEmpty()) {
+            return false;
+        }
+        final String[] names = names();
+        final String[] prefix = that.names();
+        if (prefix.length > names.length) {
+            return false;
+        }
+        return Arrays.equals(prefix, Arrays.copyOf(names, prefix.length));
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        final ArchivePath that = check(other);
+        if (that.isAbsolute()) {
+            return that.path.equals(path);
+        }
+        if (that.path.isEmpty()) {
+            return path.isEmpty();
+        }
+        final String[] names = names();
+        final String[] suffix = that.names();
+        if (suffix.length > names.length) {
+            return false;
+        }
+        return Arrays.equals(suffix, Arrays.copyOfRange(names, names.length - suffix.length, names.length));
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public ArchivePath normalize() {
+        final List<String> normalized = new ArrayList<>();
+        for (String name : names()) {
+            if (name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..")) {
+                final int last = normalized.size() - 1;
+                if (last >= 0 && !normalized.get(last).equals("..")) {
+                    normalized.remove(last);
+                    continue;
+                }
+                if (isAbsolute()) {
+                    // there is nothing above the root
+                    continue;
+                }
+            }
+            normalized.add(name);
+        }
+        return of(normalized.toArray(new String[normalized.size()]), 0, normalized.size(), isAbsolute());
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        final ArchivePath that = check(other);
+        if (that.isAbsolute()) {
+            return that;
+        }
+        if (that.path.isEmpty()) {
+            return this;
+        }
+        if (path.isEmpty()) {
+            return that;
+        }
+        return new ArchivePath(fileSystem, path + "/" + that.path);
+    }
+
+    @Override
+    public Path resolve(String other) {
+        return resolve(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        check(other);
+        final Path parent = getParent();
+        return parent == null ? other : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        final ArchivePath that = check(other);
+        if (that.isAbsolute() != isAbsolute()) {
+            throw new IllegalArgumentException("'other' is different type of Path");
+        }
+        final String[] names = names();
+        final String[] target = that.names();
+        int common = 0;
+        while (common < names.length && common < target.length && names[common].equals(target[common])) {
+            common++;
+        }
+        final List<String> relative = new ArrayList<>();
+        for (int i = common; i < names.length; i++) {
+            relative.add("..");
+        }
+        relative.addAll(Arrays.asList(target).subList(common, target.length));
+        return of(relative.toArray(new String[relative.size()]), 0, relative.size(), false);
+    }
+
+    @Override
+    public URI toUri() {
+        try {
+            final String entry = new URI(null, null, toAbsolutePath().path, null).getRawPath();
+            return URI.create(ArchiveFileSystemProvider.SCHEME + ":" + fileSystem.getArchive().toUri() + "!" + entry);
+        } catch (URISyntaxException e) {
+            throw new IOError(e);
+        }
+    }
+
+    @Override
+    public ArchivePath toAbsolutePath() {
+        return isAbsolute() ? this : new ArchivePath(fileSystem, "/" + path);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        final ArchivePath realPath = toAbsolutePath().normalize();
+        fileSystem.provider().checkAccess(realPath);
+        return realPath;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        final List<Path> elements = new ArrayList<>();
+        for (int i = 0; i < getNameCount(); i++) {
+            elements.add(getName(i));
+        }
+        return elements.iterator();
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return path.compareTo(check(other).path);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ArchivePath)) {
+            return false;
+        }
+        final ArchivePath that = (ArchivePath) obj;
+        return fileSystem == that.fileSystem && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+}
@@ -0,0 +1,327 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reactive streams publisher of the entries of an archive. The archive is
+ * read on the given executor only as far as the downstream demand goes: an
+ * entry is read when one is requested and the entry data is read one chunk
+ * per requested chunk, so a slow subscriber throttles the reading. A single
+ * subscriber is supported.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class ArchivePublisher implements Publisher<StreamEntry>, Subscription, Runnable {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    // body states
+    private static final int NOT_SUBSCRIBED = 0;
+    private static final int SUBSCRIBED = 1;
+    private static final int FINISHED = 2;
+
+    /**
+     * Opens the archive input stream, called on the executor.
+     */
+    interface Source {
+
+        ArchiveInputStream open() throws IOException;
+
+    }
+
+    private final Source source;
+
+    private final Executor executor;
+
+    private final Throttle throttle;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicLong demand = new AtomicLong();
+
+    private volatile Subscriber<? super StreamEntry> subscriber;
+
+    private volatile boolean cancelled;
+
+    private volatile Throwable requestError;
+
+    // accessed only by the drain loop
+    private ArchiveInputStream archiveInputStream;
+
+    private EntryBody current;
+
+    private boolean done;
+
+    ArchivePublisher(Source source, Executor executor, Throttle throttle) {
+        this.source = source;
+        this.executor = executor;
+        this.throttle = throttle;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super StreamEntry> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(EMPTY);
+            subscriber.onError(new IllegalStateException("the archive publisher supports a single subscriber"));
+            return;
+        }
+        this.subscriber = subscriber;
+        subscriber.onSubscribe(this);
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            requestError = new IllegalArgumentException("requested " + n + " entries, must be positive");
+        } else {
+            add(demand, n);
+        }
+        schedule();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        schedule();
+    }
+
+    private void schedule() {
+        if (wip.getAndIncrement() == 0) {
+            executor.execute(this);
+        }
+    }
+
+    /**
+     * Drain loop, the signals are serialized by the work in progress counter.
+     */
+    @Override
+    public void run() {
+        int missed = 1;
+        do {
+            drain();
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drain() {
+        if (done) {
+            return;
+        }
+        if (cancelled) {
+            terminate(null, false);
+            return;
+        }
+        if (requestError != null) {
+            terminate(requestError, true);
+            return;
+        }
+        try {
+            if (archiveInputStream == null) {
+                archiveInputStream = source.open();
+            }
+            while (!done) {
+                if (current != null && !current.drain()) {
+                    // waiting for the body demand
+                    return;
+                }
+                if (demand.get() == 0 || cancelled) {
+                    return;
+                }
+
+                ArchiveEntry entry;
+                do {
+                    entry = archiveInputStream.getNextEntry();
+                } while (entry != null && !archiveInputStream.canReadEntryData(entry));
+
+                if (entry == null) {
+                    current = null;
+                    terminate(null, true);
+                    return;
+                }
+                current = new EntryBody();
+                demand.decrementAndGet();
+                subscriber.onNext(new StreamEntry(entry, current));
+            }
+        } catch (IOException | RuntimeException e) {
+            terminate(e, true);
+        }
+    }
+
+    private void terminate(Throwable error, boolean signal) {
+        done = true;
+        if (current != null) {
+            current.fail(error != null ? error : new IllegalStateException("the archive publisher was cancelled"));
+        }
+        try {
+            if (archiveInputStream != null) {
+                archiveInputStream.close();
+            }
+        } catch (IOException e) {
+            error = error == null ? e : error;
+        }
+        if (signal) {
+            if (error == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(error);
+            }
+        }
+    }
+
+    private static void add(AtomicLong requested, long n) {
+        long current;
+        long next;
+        do {
+            current = requested.get();
+            next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while (!requested.compareAndSet(current, next));
+    }
+
+    /**
+     * Publisher of the data of the current entry.
+     */
+    private class EntryBody implements Publisher<ByteBuffer>, Subscription {
+
+        private final AtomicInteger state = new AtomicInteger(NOT_SUBSCRIBED);
+
+        private final AtomicLong bodyDemand = new AtomicLong();
+
+        private final AtomicReference<Subscriber<? super ByteBuffer>> bodySubscriber = new AtomicReference<>();
+
+        private volatile boolean bodyCancelled;
+
+        private volatile Throwable bodyRequestError;
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+            if (subscriber == null) {
+                throw new NullPointerException("subscriber");
+            }
+            if (!bodySubscriber.compareAndSet(null, subscriber)
+                    || !state.compareAndSet(NOT_SUBSCRIBED, SUBSCRIBED)) {
+                subscriber.onSubscribe(EMPTY);
+                subscriber.onError(new IllegalStateException("the entry data was already read or skipped"));
+                return;
+            }
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                bodyRequestError = new IllegalArgumentException("requested " + n + " chunks, must be positive");
+            } else {
+                add(bodyDemand, n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            bodyCancelled = true;
+            schedule();
+        }
+
+        /**
+         * Emits the requested chunks, returns whether the body is finished.
+         * A body that was not subscribed is skipped once the next entry is
+         * requested, until then it can still be subscribed from any thread.
+         */
+        boolean drain() throws IOException {
+            if (state.get() == NOT_SUBSCRIBED) {
+                return demand.get() > 0 && state.compareAndSet(NOT_SUBSCRIBED, FINISHED)
+                        || state.get() == FINISHED;
+            }
+            if (state.get() == FINISHED) {
+                return true;
+            }
+            final Subscriber<? super ByteBuffer> subscriber = bodySubscriber.get();
+            if (bodyCancelled) {
+                state.set(FINISHED);
+                return true;
+            }
+            if (bodyRequestError != null) {
+                state.set(FINISHED);
+                subscriber.onError(bodyRequestError);
+                return true;
+            }
+            while (bodyDemand.get() > 0 && !bodyCancelled) {
+                final byte[] chunk = new byte[CHUNK_SIZE];
+                int count = 0;
+                int n = 0;
+                while (count < chunk.length && (n = archiveInputStream.read(chunk, count, chunk.length - count)) != -1) {
+                    count += n;
+                }
+                if (count > 0) {
+                    throttle.cpu();
+                    bodyDemand.decrementAndGet();
+                    subscriber.onNext(ByteBuffer.wrap(chunk, 0, count));
+                }
+                if (n == -1) {
+                    state.set(FINISHED);
+                    subscriber.onComplete();
+                    return true;
+                }
+            }
+            if (bodyCancelled) {
+                state.set(FINISHED);
+                return true;
+            }
+            return false;
+        }
+
+        void fail(Throwable error) {
+            if (state.getAndSet(FINISHED) == SUBSCRIBED) {
+                bodySubscriber.get().onError(error);
+            }
+        }
+
+    }
+
+    private static final Subscription EMPTY = new Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+}
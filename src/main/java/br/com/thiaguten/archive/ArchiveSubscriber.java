@@ -0,0 +1,329 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.Files.size;
+
+/**
+ * Reactive streams subscriber writing the received entries to an archive.
+ * One entry is requested at a time, and one chunk of its data at a time, so
+ * the memory used does not depend on the publisher. The data of an entry of
+ * unknown size is spooled to a temporary file first when the format needs
+ * the size in the entry header. The archive path is claimed like the one of
+ * a compress, so an existing file is never replaced, and the archive is
+ * deleted when the stream fails or is cancelled.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class ArchiveSubscriber implements Subscriber<StreamEntry>, Future<Path> {
+
+    private final AbstractArchive archive;
+
+    private final Path path;
+
+    // the claimed archive path, moved to a new name when the path is taken
+    private volatile Path target;
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private volatile Subscription subscription;
+
+    private volatile Subscription bodySubscription;
+
+    private ArchiveOutputStream archiveOutputStream;
+
+    private volatile Path spool;
+
+    private volatile OutputStream spoolOutputStream;
+
+    private volatile Throwable error;
+
+    private volatile boolean cancelled;
+
+    ArchiveSubscriber(AbstractArchive archive, Path path) {
+        this.archive = archive;
+        this.path = path;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (this.subscription != null || latch.getCount() == 0) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        try {
+            target = archive.createFile(AbstractArchive.ArchiveAction.COMPRESS, path.toAbsolutePath().getParent(), path);
+            archiveOutputStream = archive.createArchiveOutputStream(target);
+        } catch (IOException | RuntimeException e) {
+            subscription.cancel();
+            fail(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(StreamEntry streamEntry) {
+        if (latch.getCount() == 0) {
+            return;
+        }
+        try {
+            if (streamEntry.isDirectory() || streamEntry.getBody() == null) {
+                putArchiveEntry(streamEntry, 0);
+                archiveOutputStream.closeArchiveEntry();
+                subscription.request(1);
+            } else if (streamEntry.getSize() < 0 && archive.isEntrySizeRequired()) {
+                streamEntry.getBody().subscribe(new BodySubscriber(streamEntry));
+            } else {
+                putArchiveEntry(streamEntry, streamEntry.getSize());
+                streamEntry.getBody().subscribe(new BodySubscriber(null));
+            }
+        } catch (IOException | RuntimeException e) {
+            subscription.cancel();
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (latch.getCount() == 0) {
+            return;
+        }
+        try {
+            archiveOutputStream.finish();
+            archiveOutputStream.close();
+            latch.countDown();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (latch.getCount() == 0) {
+            return false;
+        }
+        cancelled = true;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        if (bodySubscription != null) {
+            bodySubscription.cancel();
+        }
+        fail(new CancellationException());
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    @Override
+    public Path get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return result();
+    }
+
+    @Override
+    public Path get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private Path result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return target;
+    }
+
+    private synchronized void fail(Throwable throwable) {
+        if (latch.getCount() == 0) {
+            return;
+        }
+        error = throwable;
+        try {
+            deleteSpool();
+            if (archiveOutputStream != null) {
+                archiveOutputStream.close();
+            }
+            if (target != null) {
+                deleteIfExists(target);
+            }
+        } catch (IOException e) {
+            archive.logger.warn("could not delete the incomplete archive " + target + ": " + e.getMessage());
+        }
+        latch.countDown();
+    }
+
+    private void putArchiveEntry(StreamEntry streamEntry, long size) throws IOException {
+        final ArchiveEntry entry = archive.createArchiveEntry(streamEntry.isDirectory()
+                ? directoryName(streamEntry.getName()) : streamEntry.getName(), size, null);
+        if (streamEntry.getLastModifiedDate() != null) {
+            AbstractArchive.setLastModifiedDate(entry, streamEntry.getLastModifiedDate());
+        }
+        archive.normalizeEntry(entry);
+        archiveOutputStream.putArchiveEntry(entry);
+    }
+
+    private void deleteSpool() throws IOException {
+        final OutputStream outputStream = spoolOutputStream;
+        final Path file = spool;
+        spoolOutputStream = null;
+        spool = null;
+        try {
+            if (outputStream != null) {
+                outputStream.close();
+            }
+        } finally {
+            if (file != null) {
+                deleteIfExists(file);
+            }
+        }
+    }
+
+    private static String directoryName(String name) {
+        return name.endsWith("/") ? name : name + "/";
+    }
+
+    /**
+     * Writes the data chunks of the current entry, or spools them when the
+     * entry is written only once its size is known.
+     */
+    private class BodySubscriber implements Subscriber<ByteBuffer> {
+
+        private final StreamEntry spooled;
+
+        /**
+         * @param spooled the entry to write once its data is spooled, or null
+         *                when the entry was already put
+         */
+        BodySubscriber(StreamEntry spooled) {
+            this.spooled = spooled;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            bodySubscription = subscription;
+            if (spooled != null) {
+                try {
+                    spool = createTempFile("entry", ".spool");
+                    spoolOutputStream = new BufferedOutputStream(newOutputStream(spool));
+                } catch (IOException | RuntimeException e) {
+                    subscription.cancel();
+                    ArchiveSubscriber.this.subscription.cancel();
+                    fail(e);
+                    return;
+                }
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(ByteBuffer chunk) {
+            if (latch.getCount() == 0) {
+                return;
+            }
+            try {
+                final OutputStream outputStream = spooled != null ? spoolOutputStream : archiveOutputStream;
+                archive.getThrottle().acquireWrite(chunk.remaining());
+                if (chunk.hasArray()) {
+                    outputStream.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                } else {
+                    final byte[] bytes = new byte[chunk.remaining()];
+                    chunk.duplicate().get(bytes);
+                    outputStream.write(bytes);
+                }
+                bodySubscription.request(1);
+            } catch (IOException | RuntimeException e) {
+                bodySubscription.cancel();
+                subscription.cancel();
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            subscription.cancel();
+            fail(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (latch.getCount() == 0) {
+                return;
+            }
+            try {
+                if (spooled != null) {
+                    spoolOutputStream.close();
+                    putArchiveEntry(spooled, size(spool));
+                    copy(spool, archiveOutputStream);
+                    deleteSpool();
+                }
+                archiveOutputStream.closeArchiveEntry();
+                bodySubscription = null;
+                subscription.request(1);
+            } catch (IOException | RuntimeException e) {
+                subscription.cancel();
+                fail(e);
+            }
+        }
+
+    }
+
+}
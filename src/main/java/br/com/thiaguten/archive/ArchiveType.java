@@ -50,6 +50,18 @@ public enum ArchiveType {
         public Archive getStrategy() {
             return HOLDER.get(GZIP);
         }
+    },
+    ZSTD {
+        @Override
+        public Archive getStrategy() {
+            return HOLDER.get(ZSTD);
+        }
+    },
+    XZ {
+        @Override
+        public Archive getStrategy() {
+            return HOLDER.get(XZ);
+        }
     };
 
     private static final Map<ArchiveType, Archive> HOLDER = new HashMap<>();
@@ -58,6 +70,8 @@ public enum ArchiveType {
         HOLDER.put(TAR, new TarArchive());
         HOLDER.put(ZIP, new ZipArchive());
         HOLDER.put(GZIP, new GzipArchive());
+        HOLDER.put(ZSTD, new ZstdArchive());
+        HOLDER.put(XZ, new XzArchive());
     }
 
     // convenient
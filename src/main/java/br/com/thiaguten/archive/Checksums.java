@@ -0,0 +1,261 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * CRC32 and CRC32C checksums. The CRC32C of the JDK (9 and later), compiled
+ * to the CPU crc32 instructions, is used when available, otherwise a table
+ * driven implementation. The checksums of consecutive blocks are combined
+ * into the checksum of the whole data, so the blocks of a file can be
+ * checksummed in parallel.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+final class Checksums {
+
+    static final String CRC32 = "CRC32";
+
+    static final String CRC32C = "CRC32C";
+
+    private static final int CRC32_POLYNOMIAL = 0xEDB88320;
+
+    private static final int CRC32C_POLYNOMIAL = 0x82F63B78;
+
+    private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private static final Constructor<? extends Checksum> JDK_CRC32C = jdkCrc32c();
+
+    private Checksums() {
+    }
+
+    static boolean isSupported(String algorithm) {
+        return CRC32.equalsIgnoreCase(algorithm) || CRC32C.equalsIgnoreCase(algorithm);
+    }
+
+    static Checksum newChecksum(String algorithm) {
+        if (CRC32.equalsIgnoreCase(algorithm)) {
+            return new CRC32();
+        }
+        if (CRC32C.equalsIgnoreCase(algorithm)) {
+            if (JDK_CRC32C != null) {
+                try {
+                    return JDK_CRC32C.newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Cannot create the JDK CRC32C", e);
+                }
+            }
+            return new Crc32c();
+        }
+        throw new IllegalArgumentException("Checksum algorithm (" + algorithm + ") not supported");
+    }
+
+    /**
+     * Returns the checksum of two consecutive blocks, given the checksum of
+     * each one and the length of the second.
+     */
+    static long combine(String algorithm, long checksum1, long checksum2, long length2) {
+        final int polynomial = CRC32C.equalsIgnoreCase(algorithm) ? CRC32C_POLYNOMIAL : CRC32_POLYNOMIAL;
+        if (length2 <= 0) {
+            return checksum1;
+        }
+
+        // operators appending one, two and four zero bits, then squared for each bit of the length, as done by zlib
+        final long[] even = new long[32];
+        final long[] odd = new long[32];
+        odd[0] = polynomial & 0xFFFFFFFFL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd);
+        square(odd, even);
+
+        long length = length2;
+        do {
+            square(even, odd);
+            if ((length & 1) != 0) {
+                checksum1 = times(even, checksum1);
+            }
+            length >>= 1;
+            if (length == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length & 1) != 0) {
+                checksum1 = times(odd, checksum1);
+            }
+            length >>= 1;
+        } while (length != 0);
+
+        return checksum1 ^ checksum2;
+    }
+
+    /**
+     * Checksums the blocks of the file in parallel and combines them.
+     */
+    static long checksum(Path file, final String algorithm, int threads) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, READ)) {
+            final long size = channel.size();
+            final int blocks = (int) Math.max(1, (size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            if (threads <= 1 || blocks == 1) {
+                return checksum(channel, algorithm, 0, size);
+            }
+
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, blocks));
+            try {
+                final List<Future<Long>> results = new ArrayList<>(blocks);
+                for (int i = 0; i < blocks; i++) {
+                    final long position = (long) i * BLOCK_SIZE;
+                    final long length = Math.min(BLOCK_SIZE, size - position);
+                    results.add(executor.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws IOException {
+                            return checksum(channel, algorithm, position, length);
+                        }
+                    }));
+                }
+
+                long checksum = results.get(0).get();
+                for (int i = 1; i < blocks; i++) {
+                    final long length = Math.min(BLOCK_SIZE, size - (long) i * BLOCK_SIZE);
+                    checksum = combine(algorithm, checksum, results.get(i).get(), length);
+                }
+                return checksum;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("checksum of " + file + " interrupted");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("checksum of " + file + " failed", e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static long checksum(FileChannel channel, String algorithm, long position, long length) throws IOException {
+        final Checksum checksum = newChecksum(algorithm);
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(64 * 1024, Math.max(length, 1)));
+        final long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            final int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file at offset " + position);
+            }
+            checksum.update(buffer.array(), 0, n);
+            position += n;
+        }
+        return checksum.getValue();
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<? extends Checksum> jdkCrc32c() {
+        try {
+            return (Constructor<? extends Checksum>) Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Table driven CRC32C, used on the JDKs without one.
+     */
+    static class Crc32c implements Checksum {
+
+        private static final int[] TABLE = new int[256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int crc = i;
+                for (int k = 0; k < 8; k++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ CRC32C_POLYNOMIAL : crc >>> 1;
+                }
+                TABLE[i] = crc;
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        @Override
+        public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int value = crc;
+            for (int i = off; i < off + len; i++) {
+                value = (value >>> 8) ^ TABLE[(value ^ b[i]) & 0xFF];
+            }
+            crc = value;
+        }
+
+        @Override
+        public long getValue() {
+            return ~crc & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+
+    }
+
+}
@@ -0,0 +1,309 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.newInputStream;
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.Files.size;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Local store of unique chunks, identified by their SHA-256. The chunks are
+ * deflated on their own and appended to a pack file, and an index file keeps
+ * the id, pack offset and sizes of each one, loaded in memory on open.
+ * <p>
+ * A chunk is appended to the pack before its index record, so a store
+ * interrupted mid-write only loses the chunks not indexed yet, and a torn
+ * index record is dropped on the next open.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class ChunkStore implements Closeable {
+
+    static final String PACK_FILE = "chunks.pack";
+
+    static final String INDEX_FILE = "chunks.idx";
+
+    static final int ID_LENGTH = 32;
+
+    // id, pack offset, stored length and chunk length
+    private static final int RECORD_LENGTH = ID_LENGTH + 8 + 4 + 4;
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkStore.class);
+
+    private final Path directory;
+
+    private final int level;
+
+    private final Map<ByteBuffer, Location> locations = new HashMap<>();
+
+    private final MessageDigest digest;
+
+    private final FileChannel pack;
+
+    private final DataOutputStream index;
+
+    private long packSize;
+
+    private long duplicates;
+
+    /**
+     * Opens the store in the given directory, created when missing, with the
+     * deflate level of the new chunks.
+     */
+    public ChunkStore(Path directory, int level) throws IOException {
+        this.directory = directory;
+        this.level = level;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        createDirectories(directory);
+        this.pack = FileChannel.open(directory.resolve(PACK_FILE), CREATE, READ, WRITE);
+        try {
+            this.packSize = pack.size();
+            final Path indexFile = directory.resolve(INDEX_FILE);
+            load(indexFile);
+            this.index = new DataOutputStream(new BufferedOutputStream(newOutputStream(indexFile, CREATE, APPEND)));
+        } catch (IOException | RuntimeException e) {
+            pack.close();
+            throw e;
+        }
+        logger.debug("opened the chunk store " + directory + " with " + locations.size() + " chunks");
+    }
+
+    private void load(Path indexFile) throws IOException {
+        if (!exists(indexFile)) {
+            return;
+        }
+        final long records = size(indexFile) / RECORD_LENGTH;
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(newInputStream(indexFile)))) {
+            for (long i = 0; i < records; i++) {
+                final byte[] id = new byte[ID_LENGTH];
+                inputStream.readFully(id);
+                final Location location = new Location(inputStream.readLong(), inputStream.readInt(), inputStream.readInt());
+                if (location.offset + location.storedLength <= packSize) {
+                    locations.put(ByteBuffer.wrap(id), location);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated chunk store index " + indexFile, e);
+        }
+        if (size(indexFile) != records * RECORD_LENGTH) {
+            // drops the torn record, the next records must be aligned
+            try (FileChannel channel = FileChannel.open(indexFile, WRITE)) {
+                channel.truncate(records * RECORD_LENGTH);
+            }
+        }
+    }
+
+    /**
+     * Stores the chunk unless already there, and returns its id.
+     */
+    public synchronized byte[] put(byte[] b, int off, int len) throws IOException {
+        digest.update(b, off, len);
+        final byte[] id = digest.digest();
+        final ByteBuffer key = ByteBuffer.wrap(id);
+        if (locations.containsKey(key)) {
+            duplicates++;
+            return id;
+        }
+
+        // kept as is when deflating does not make it smaller
+        final byte[] deflated = deflate(b, off, len);
+        final ByteBuffer buffer = deflated.length < len ? ByteBuffer.wrap(deflated) : ByteBuffer.wrap(b, off, len);
+        final Location location = new Location(packSize, buffer.remaining(), len);
+        while (buffer.hasRemaining()) {
+            packSize += pack.write(buffer, packSize);
+        }
+
+        index.write(id);
+        index.writeLong(location.offset);
+        index.writeInt(location.storedLength);
+        index.writeInt(location.length);
+        locations.put(key, location);
+        return id;
+    }
+
+    private byte[] deflate(byte[] b, int off, int len) {
+        final Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(b, off, len);
+            deflater.finish();
+            // not worth more than the chunk itself
+            final byte[] output = new byte[len];
+            int n = 0;
+            while (!deflater.finished() && n < output.length) {
+                n += deflater.deflate(output, n, output.length - n);
+            }
+            return deflater.finished() ? Arrays.copyOf(output, n) : output;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the data of the chunk with the given id, checked against it.
+     */
+    public synchronized byte[] get(byte[] id) throws IOException {
+        final Location location = location(id);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(location.storedLength);
+        while (buffer.hasRemaining()) {
+            if (pack.read(buffer, location.offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the chunk store pack " + directory);
+            }
+        }
+        final byte[] chunk = location.storedLength == location.length ? buffer.array() : inflate(buffer.array(), location);
+
+        // the stored chunks are not deflated, so only the id catches their bit flips
+        if (!MessageDigest.isEqual(id, digest.digest(chunk))) {
+            throw new IOException("Corrupted chunk " + hex(id) + " at offset " + location.offset + " of the chunk store " + directory);
+        }
+        return chunk;
+    }
+
+    private byte[] inflate(byte[] input, Location location) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            final byte[] chunk = new byte[location.length];
+            int n = 0;
+            while (n < chunk.length && !inflater.finished()) {
+                final int inflated = inflater.inflate(chunk, n, chunk.length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != chunk.length) {
+                throw new IOException("Corrupted chunk at offset " + location.offset + " of the chunk store " + directory);
+            }
+            return chunk;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted chunk at offset " + location.offset + " of the chunk store " + directory, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the size in bytes of the chunk with the given id in the pack
+     */
+    public synchronized int getStoredLength(byte[] id) throws IOException {
+        return location(id).storedLength;
+    }
+
+    private Location location(byte[] id) throws IOException {
+        final Location location = locations.get(ByteBuffer.wrap(id));
+        if (location == null) {
+            throw new IOException("Chunk " + hex(id) + " missing from the chunk store " + directory);
+        }
+        return location;
+    }
+
+    private static String hex(byte[] id) {
+        return String.format("%064x", new BigInteger(1, id));
+    }
+
+    /**
+     * @return the number of unique chunks in the store
+     */
+    public synchronized int getChunkCount() {
+        return locations.size();
+    }
+
+    /**
+     * @return the number of chunks found already stored since the store was opened
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * @return the size in bytes of the stored chunks
+     */
+    public synchronized long getPackSize() {
+        return packSize;
+    }
+
+    /**
+     * Writes the buffered index records.
+     */
+    public synchronized void flush() throws IOException {
+        index.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            index.close();
+        } finally {
+            pack.close();
+        }
+    }
+
+    private static class Location {
+
+        final long offset;
+
+        final int storedLength;
+
+        final int length;
+
+        Location(long offset, int storedLength, int length) {
+            this.offset = offset;
+            this.storedLength = storedLength;
+            this.length = length;
+        }
+
+    }
+
+}
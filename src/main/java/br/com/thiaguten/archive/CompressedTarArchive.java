@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.StandardOpenOption.APPEND;
+
+/**
+ * Solid compressed tar archive. The whole tar stream is compressed at once,
+ * split in blocks compressed in parallel by {@link #getThreads()} threads
+ * when more than one thread is configured. Each block is an independent
+ * compressed stream, so the archive stays readable by the standard tools.
+ * The reproducible mode always splits the blocks, so the archive bytes do
+ * not depend on the number of threads.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public abstract class CompressedTarArchive extends AbstractArchive implements Archive {
+
+    private int blockSize = -1;
+
+    /**
+     * Creates the compressor stream with the given level, -1 means the codec default.
+     */
+    protected abstract OutputStream createCompressorOutputStream(OutputStream outputStream, int level) throws IOException;
+
+    /**
+     * Creates the decompressor stream, which must read concatenated compressed streams.
+     */
+    protected abstract InputStream createCompressorInputStream(InputStream inputStream) throws IOException;
+
+    /**
+     * Default block size of the parallel compression for the given level.
+     */
+    protected abstract int getDefaultBlockSize(int level);
+
+    public int getBlockSize() {
+        return blockSize == -1 ? getDefaultBlockSize(getCompressionLevel()) : blockSize;
+    }
+
+    /**
+     * Size of the blocks compressed in parallel, -1 means the codec default.
+     * Larger blocks compress better, smaller blocks use less memory, about
+     * twice the block size per thread.
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1 && blockSize != -1) {
+            throw new IllegalArgumentException("block size must be greater than zero");
+        }
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    protected void appendFingerprintSettings(StringBuilder fingerprint) {
+        fingerprint.append(getBlockSize()).append('\n');
+    }
+
+    @Override
+    protected ArchiveEntry createArchiveEntry(String path, long size, byte[] content) {
+        TarArchiveEntry tarEntry = new TarArchiveEntry(path);
+        tarEntry.setSize(size);
+        return tarEntry;
+    }
+
+    @Override
+    protected ArchiveOutputStream createArchiveOutputStream(OutputStream outputStream) throws IOException {
+        final int level = getCompressionLevel();
+        // the checkpoints and the reproducible mode need the block boundaries of the parallel compressor
+        if (getThreads() == 1 && getCheckpointInterval() == 0 && !isReproducible()) {
+            return new TarArchive.FlushableTarArchiveOutputStream(createCompressorOutputStream(outputStream, level),
+                    TarArchive.blockSize(getCheckpointInterval()));
+        }
+        return new TarArchive.FlushableTarArchiveOutputStream(new ParallelCompressorOutputStream(outputStream,
+                new ParallelCompressorOutputStream.Compressor() {
+                    @Override
+                    public OutputStream createCompressorOutputStream(OutputStream blockOutputStream) throws IOException {
+                        return CompressedTarArchive.this.createCompressorOutputStream(blockOutputStream, level);
+                    }
+                }, getThreads(), getBlockSize(), getThrottle()), TarArchive.blockSize(getCheckpointInterval()));
+    }
+
+    @Override
+    protected ArchiveInputStream createArchiveInputStream(InputStream inputStream) throws IOException {
+        return new ConcatenatedTarArchiveInputStream(createUncompressedInputStream(inputStream));
+    }
+
+    @Override
+    protected InputStream createUncompressedInputStream(InputStream inputStream) throws IOException {
+        return createCompressorInputStream(inputStream);
+    }
+
+    /**
+     * Appends a new compressed stream at the end of the existing file,
+     * leaving the previous streams untouched.
+     */
+    @Override
+    protected ArchiveOutputStream createAppendArchiveOutputStream(Path path) throws IOException {
+        return createArchiveOutputStream(new BufferedOutputStream(newOutputStream(path, APPEND)));
+    }
+
+}
@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream made of one or more complete tar archives written one after
+ * the other, as produced by appending to a compressed tar file. A new tar
+ * reader is started every time the current one hits its end-of-archive blocks
+ * and there is still data left in the underlying stream. The readers share a
+ * stream supporting mark, so a reader looking for a second end-of-archive
+ * record puts back the header of the next archive when it finds one.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class ConcatenatedTarArchiveInputStream extends ArchiveInputStream {
+
+    private final InputStream inputStream;
+
+    private TarArchiveInputStream current;
+
+    ConcatenatedTarArchiveInputStream(InputStream inputStream) {
+        this.inputStream = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream);
+        this.current = newTarArchiveInputStream();
+    }
+
+    @Override
+    public ArchiveEntry getNextEntry() throws IOException {
+        ArchiveEntry entry;
+        while ((entry = current.getNextEntry()) == null) {
+            inputStream.mark(1);
+            if (inputStream.read() < 0) {
+                return null;
+            }
+            inputStream.reset();
+            // the previous reader is dropped without closing it, the underlying stream is shared
+            current = newTarArchiveInputStream();
+        }
+        return entry;
+    }
+
+    private TarArchiveInputStream newTarArchiveInputStream() {
+        // a block size of one record keeps the reader from skipping into the next archive,
+        // any extra zero padding is consumed as empty archives
+        return new TarArchiveInputStream(inputStream, TarConstants.DEFAULT_RCDSIZE);
+    }
+
+    @Override
+    public boolean canReadEntryData(ArchiveEntry entry) {
+        return current.canReadEntryData(entry);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = current.read(b, off, len);
+        count(read);
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+}
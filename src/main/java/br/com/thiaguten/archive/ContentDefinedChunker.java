@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Splits a stream into chunks at content-defined boundaries, found by a gear
+ * rolling hash over the last bytes, so an insertion or removal only changes
+ * the chunks around it and the following boundaries are found again.
+ * Chunks are between 2KB and 64KB, 8KB on average.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class ContentDefinedChunker {
+
+    /**
+     * Receives the chunks, valid only during the call.
+     */
+    interface Sink {
+
+        void chunk(byte[] b, int off, int len) throws IOException;
+
+    }
+
+    static final int MIN_SIZE = 2 * 1024;
+
+    static final int MAX_SIZE = 64 * 1024;
+
+    // a boundary when the 13 high bits are zero, every 8KB on average past the minimum size
+    private static final int AVERAGE_BITS = 13;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // fixed seed, boundaries must not change between runs of the store
+        final Random random = new Random(0x5EED5EEDL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final byte[] buffer = new byte[MAX_SIZE];
+
+    private int length;
+
+    private long hash;
+
+    void update(byte[] b, int off, int len, Sink sink) throws IOException {
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            final byte value = b[i];
+            buffer[length++] = value;
+            hash = (hash << 1) + GEAR[value & 0xFF];
+            if ((length >= MIN_SIZE && (hash >>> (64 - AVERAGE_BITS)) == 0) || length == MAX_SIZE) {
+                emit(sink);
+            }
+        }
+    }
+
+    /**
+     * Emits the last chunk of the stream, if any.
+     */
+    void finish(Sink sink) throws IOException {
+        if (length > 0) {
+            emit(sink);
+        }
+    }
+
+    private void emit(Sink sink) throws IOException {
+        sink.chunk(buffer, 0, length);
+        length = 0;
+        hash = 0;
+    }
+
+}
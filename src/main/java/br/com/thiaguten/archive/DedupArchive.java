@@ -0,0 +1,372 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.StandardOpenOption.APPEND;
+
+/**
+ * Deduplicating Archive Implementation. The entry data is split into
+ * content-defined chunks, each unique chunk stored once in a shared
+ * {@link ChunkStore}, and the archive itself is a gzipped tar manifest whose
+ * entries hold the ids of their chunks. Consecutive backups of mostly the
+ * same files only add their changed chunks to the store.
+ * <p>
+ * The archive is only readable along with its chunk store.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class DedupArchive extends AbstractArchive implements Archive, Closeable {
+
+    /**
+     * Pax header of the manifest entries with the size of the entry data,
+     * the entry size being the size of its chunk ids.
+     */
+    static final String SIZE_PAX_HEADER = "SIMPLECOMPRESS.size";
+
+    private final Path storeDirectory;
+
+    private ChunkStore chunkStore;
+
+    public DedupArchive(Path storeDirectory) {
+        this.storeDirectory = storeDirectory;
+    }
+
+    @Override
+    public String getName() {
+        return "DedupArchive";
+    }
+
+    @Override
+    public String getMimeType() {
+        return "application/x-dedup-manifest";
+    }
+
+    @Override
+    public String getExtension() {
+        return ".dedup";
+    }
+
+    /**
+     * @return the chunk store, opened on first use with the compression level of the new chunks
+     */
+    public synchronized ChunkStore getChunkStore() throws IOException {
+        if (chunkStore == null) {
+            chunkStore = new ChunkStore(storeDirectory, getCompressionLevel());
+        }
+        return chunkStore;
+    }
+
+    /**
+     * The manifest holds only the chunk ids, the compressed size of an entry
+     * is the size of its chunks in the store.
+     */
+    @Override
+    protected long getCompressedSize(ArchiveEntry entry) {
+        return entry instanceof ManifestEntry ? ((ManifestEntry) entry).storedSize : -1;
+    }
+
+    /**
+     * The manifest entry is written when the entry is closed, with the size
+     * of the chunked data.
+     */
+    @Override
+    protected boolean isEntrySizeRequired() {
+        return false;
+    }
+
+    @Override
+    protected ArchiveEntry createArchiveEntry(String path, long size, byte[] content) {
+        TarArchiveEntry tarEntry = new TarArchiveEntry(path);
+        tarEntry.setSize(size);
+        return tarEntry;
+    }
+
+    @Override
+    protected ArchiveOutputStream createArchiveOutputStream(OutputStream outputStream) throws IOException {
+        final GzipArchive.GzipMembersOutputStream gzipOutputStream = new GzipArchive.GzipMembersOutputStream(outputStream);
+        return new ManifestOutputStream(new TarArchive.FlushableTarArchiveOutputStream(gzipOutputStream,
+                TarArchive.blockSize(getCheckpointInterval())), gzipOutputStream, getChunkStore());
+    }
+
+    @Override
+    protected ArchiveInputStream createArchiveInputStream(InputStream inputStream) throws IOException {
+        // appended manifests are new gzip members, each one holding a whole tar stream
+        return new ManifestInputStream(new ConcatenatedTarArchiveInputStream(
+                new GzipCompressorInputStream(inputStream, true)), getChunkStore());
+    }
+
+    /**
+     * Appends a new gzip member to the manifest, the chunks go to the store.
+     */
+    @Override
+    protected ArchiveOutputStream createAppendArchiveOutputStream(Path path) throws IOException {
+        return createArchiveOutputStream(new BufferedOutputStream(newOutputStream(path, APPEND)));
+    }
+
+    /**
+     * Ends the current gzip member of the manifest, the checkpoint is the
+     * member boundary. The chunks written after it stay unreferenced in the
+     * store.
+     */
+    @Override
+    protected long checkpoint(ArchiveOutputStream archiveOutputStream, Path path) throws IOException {
+        archiveOutputStream.flush();
+        ((ManifestOutputStream) archiveOutputStream).gzipOutputStream.finishMember();
+        return super.checkpoint(archiveOutputStream, path);
+    }
+
+    /**
+     * Closes the chunk store, reopened if the archive is used again.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (chunkStore != null) {
+            chunkStore.close();
+            chunkStore = null;
+        }
+    }
+
+    private static void copyTo(TarArchiveEntry entry, TarArchiveEntry copy) {
+        copy.setModTime(entry.getModTime());
+        copy.setMode(entry.getMode());
+        copy.setUserId(entry.getLongUserId());
+        copy.setGroupId(entry.getLongGroupId());
+        copy.setUserName(entry.getUserName());
+        copy.setGroupName(entry.getGroupName());
+        for (Map.Entry<String, String> header : entry.getExtraPaxHeaders().entrySet()) {
+            copy.addPaxHeader(header.getKey(), header.getValue());
+        }
+    }
+
+    /**
+     * Entry read back from the manifest, keeping the header checksum state
+     * of the manifest entry and the stored size of its chunks.
+     */
+    private static class ManifestEntry extends TarArchiveEntry {
+
+        private final boolean checkSumOK;
+
+        private final long storedSize;
+
+        ManifestEntry(String name, boolean checkSumOK, long storedSize) {
+            super(name);
+            this.checkSumOK = checkSumOK;
+            this.storedSize = storedSize;
+        }
+
+        @Override
+        public boolean isCheckSumOK() {
+            return checkSumOK;
+        }
+
+    }
+
+    /**
+     * Writes the entry data to the chunk store and the chunk ids of each
+     * entry to the manifest.
+     */
+    private static class ManifestOutputStream extends ArchiveOutputStream implements ContentDefinedChunker.Sink {
+
+        private final TarArchive.FlushableTarArchiveOutputStream manifest;
+
+        private final GzipArchive.GzipMembersOutputStream gzipOutputStream;
+
+        private final ChunkStore chunkStore;
+
+        private final ContentDefinedChunker chunker = new ContentDefinedChunker();
+
+        private final ByteArrayOutputStream ids = new ByteArrayOutputStream();
+
+        private TarArchiveEntry entry;
+
+        private long size;
+
+        ManifestOutputStream(TarArchive.FlushableTarArchiveOutputStream manifest,
+                             GzipArchive.GzipMembersOutputStream gzipOutputStream, ChunkStore chunkStore) {
+            this.manifest = manifest;
+            this.gzipOutputStream = gzipOutputStream;
+            this.chunkStore = chunkStore;
+        }
+
+        @Override
+        public void putArchiveEntry(ArchiveEntry archiveEntry) {
+            entry = (TarArchiveEntry) archiveEntry;
+            ids.reset();
+            size = 0;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            chunker.update(b, off, len, this);
+            size += len;
+            count(len);
+        }
+
+        @Override
+        public void chunk(byte[] b, int off, int len) throws IOException {
+            ids.write(chunkStore.put(b, off, len));
+        }
+
+        @Override
+        public void closeArchiveEntry() throws IOException {
+            chunker.finish(this);
+
+            final TarArchiveEntry manifestEntry = new TarArchiveEntry(entry.getName());
+            copyTo(entry, manifestEntry);
+            if (!entry.isDirectory()) {
+                manifestEntry.addPaxHeader(SIZE_PAX_HEADER, String.valueOf(size));
+                manifestEntry.setSize(ids.size());
+            }
+
+            manifest.putArchiveEntry(manifestEntry);
+            ids.writeTo(manifest);
+            manifest.closeArchiveEntry();
+            entry = null;
+        }
+
+        @Override
+        public ArchiveEntry createArchiveEntry(File inputFile, String entryName) {
+            return new TarArchiveEntry(inputFile, entryName);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            chunkStore.flush();
+            manifest.finish();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            chunkStore.flush();
+            manifest.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            manifest.close();
+        }
+
+    }
+
+    /**
+     * Reads the entries of the manifest back with their data assembled from
+     * the chunk store.
+     */
+    private static class ManifestInputStream extends ArchiveInputStream {
+
+        private final ArchiveInputStream manifest;
+
+        private final ChunkStore chunkStore;
+
+        private byte[] ids = new byte[0];
+
+        private int nextId;
+
+        private byte[] chunk = new byte[0];
+
+        private int chunkPosition;
+
+        ManifestInputStream(ArchiveInputStream manifest, ChunkStore chunkStore) {
+            this.manifest = manifest;
+            this.chunkStore = chunkStore;
+        }
+
+        @Override
+        public ArchiveEntry getNextEntry() throws IOException {
+            final TarArchiveEntry entry = (TarArchiveEntry) manifest.getNextEntry();
+            ids = new byte[0];
+            nextId = 0;
+            chunk = new byte[0];
+            chunkPosition = 0;
+            if (entry == null || entry.isDirectory()) {
+                return entry;
+            }
+
+            final String size = entry.getExtraPaxHeader(SIZE_PAX_HEADER);
+            if (size == null) {
+                throw new IOException("Manifest entry " + entry.getName() + " without its data size");
+            }
+            ids = IOUtils.toByteArray(manifest);
+            if (ids.length % ChunkStore.ID_LENGTH != 0) {
+                throw new IOException("Corrupted chunk ids of the manifest entry " + entry.getName());
+            }
+            long storedSize = 0;
+            for (int from = 0; from < ids.length; from += ChunkStore.ID_LENGTH) {
+                storedSize += chunkStore.getStoredLength(Arrays.copyOfRange(ids, from, from + ChunkStore.ID_LENGTH));
+            }
+            // the manifest reader still owns its entry, the size of the data goes to a copy
+            final ManifestEntry copy = new ManifestEntry(entry.getName(), entry.isCheckSumOK(), storedSize);
+            copyTo(entry, copy);
+            copy.setSize(Long.parseLong(size));
+            return copy;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (chunkPosition == chunk.length) {
+                if (nextId * ChunkStore.ID_LENGTH >= ids.length) {
+                    return -1;
+                }
+                final int from = nextId++ * ChunkStore.ID_LENGTH;
+                chunk = chunkStore.get(Arrays.copyOfRange(ids, from, from + ChunkStore.ID_LENGTH));
+                chunkPosition = 0;
+            }
+            final int n = Math.min(len, chunk.length - chunkPosition);
+            System.arraycopy(chunk, chunkPosition, b, off, n);
+            chunkPosition += n;
+            count(n);
+            return n;
+        }
+
+        @Override
+        public boolean canReadEntryData(ArchiveEntry entry) {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            manifest.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Deflate preset dictionary trainer. The samples are split in segments that
+ * are scored by how often their byte grams appear across all the samples;
+ * the best segments are picked greedily (the grams of a picked segment stop
+ * counting for the others) and laid out with the most useful ones at the end,
+ * where the back references of deflate are the cheapest.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+final class DeflateDictionary {
+
+    /**
+     * Deflate window size, bytes beyond it can not be referenced.
+     */
+    static final int MAX_SIZE = 32 * 1024;
+
+    private static final int GRAM = 8;
+
+    private static final int SEGMENT = 64;
+
+    private static final int TABLE_BITS = 20;
+
+    private DeflateDictionary() {
+    }
+
+    static byte[] train(List<byte[]> samples, int size) {
+        final int[] counts = new int[1 << TABLE_BITS];
+        for (byte[] sample : samples) {
+            // a gram counts once per sample, so content shared by many files wins
+            final Set<Integer> seen = new HashSet<>();
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                int hash = hash(sample, i);
+                if (seen.add(hash)) {
+                    counts[hash]++;
+                }
+            }
+        }
+
+        final PriorityQueue<Segment> queue = new PriorityQueue<>();
+        for (byte[] sample : samples) {
+            for (int start = 0; start < sample.length; start += SEGMENT) {
+                Segment segment = new Segment(sample, start, Math.min(sample.length, start + SEGMENT));
+                segment.score = segment.score(counts);
+                if (segment.score > samples.size() / 100) {
+                    queue.add(segment);
+                }
+            }
+        }
+
+        final List<Segment> picked = new ArrayList<>();
+        int length = 0;
+        while (length < size && !queue.isEmpty()) {
+            final Segment segment = queue.poll();
+            final long score = segment.score(counts);
+            if (score <= 0) {
+                continue;
+            }
+            if (!queue.isEmpty() && score < queue.peek().score) {
+                // lazy greedy, the segment lost part of its score to the ones already picked
+                segment.score = score;
+                queue.add(segment);
+                continue;
+            }
+            for (int i = segment.start; i + GRAM <= segment.end; i++) {
+                counts[hash(segment.sample, i)] = 0;
+            }
+            picked.add(segment);
+            length += segment.end - segment.start;
+        }
+
+        final ByteArrayOutputStream dictionary = new ByteArrayOutputStream(length);
+        for (int i = picked.size() - 1; i >= 0; i--) {
+            final Segment segment = picked.get(i);
+            dictionary.write(segment.sample, segment.start, segment.end - segment.start);
+        }
+        final byte[] bytes = dictionary.toByteArray();
+        return bytes.length > size ? Arrays.copyOfRange(bytes, bytes.length - size, bytes.length) : bytes;
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < GRAM; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return (int) ((value * 0x9E3779B97F4A7C15L) >>> (64 - TABLE_BITS));
+    }
+
+    private static final class Segment implements Comparable<Segment> {
+
+        private final byte[] sample;
+
+        private final int start;
+
+        private final int end;
+
+        private long score;
+
+        private Segment(byte[] sample, int start, int end) {
+            this.sample = sample;
+            this.start = start;
+            this.end = end;
+        }
+
+        private long score(int[] counts) {
+            long score = 0;
+            for (int i = start; i + GRAM <= end; i++) {
+                score += counts[hash(sample, i)];
+            }
+            return score;
+        }
+
+        @Override
+        public int compareTo(Segment other) {
+            return Long.compare(other.score, score);
+        }
+
+    }
+
+}
@@ -0,0 +1,162 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ExtraFieldUtils;
+import org.apache.commons.compress.archivers.zip.UnrecognizedExtraField;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipExtraField;
+import org.apache.commons.compress.archivers.zip.ZipShort;
+import org.apache.commons.compress.compressors.lz4.XXHash32;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+/**
+ * Per-entry digest stored in the archive next to the entry: a PAX header for
+ * tar entries and an extra field for zip entries. The stored value has the
+ * form {@code ALGORITHM:hex}, e.g. {@code SHA-256:9f86d0...}.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class EntryDigest {
+
+    static final String XXHASH32 = "XXH32";
+
+    static final String PAX_HEADER = "SIMPLECOMPRESS.digest";
+
+    static final ZipShort ZIP_EXTRA_FIELD_ID = new ZipShort(0x5343);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String algorithm;
+
+    private final MessageDigest messageDigest;
+
+    private final Checksum checksum;
+
+    private EntryDigest(String algorithm, MessageDigest messageDigest, Checksum checksum) {
+        this.algorithm = algorithm;
+        this.messageDigest = messageDigest;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @param algorithm {@value #XXHASH32}, {@value Checksums#CRC32}, {@value Checksums#CRC32C}
+     *                  or any {@link MessageDigest} algorithm
+     */
+    static EntryDigest of(String algorithm) {
+        if (XXHASH32.equalsIgnoreCase(algorithm)) {
+            return new EntryDigest(XXHASH32, null, new XXHash32());
+        }
+        if (Checksums.isSupported(algorithm)) {
+            return new EntryDigest(algorithm.toUpperCase(), null, Checksums.newChecksum(algorithm));
+        }
+        try {
+            return new EntryDigest(algorithm, MessageDigest.getInstance(algorithm), null);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Digest algorithm (" + algorithm + ") not supported", e);
+        }
+    }
+
+    /**
+     * Creates a digest of the same algorithm of the given stored value.
+     */
+    static EntryDigest forValue(String value) {
+        return of(value.substring(0, value.indexOf(':')));
+    }
+
+    void update(byte[] b, int off, int len) {
+        if (checksum != null) {
+            checksum.update(b, off, len);
+        } else {
+            messageDigest.update(b, off, len);
+        }
+    }
+
+    String value() {
+        if (checksum != null) {
+            return value(algorithm, checksum.getValue());
+        }
+        return value(algorithm, messageDigest.digest());
+    }
+
+    /**
+     * Stored value of a 32 bits checksum computed elsewhere.
+     */
+    static String value(String algorithm, long checksum) {
+        return value(algorithm.toUpperCase(), new byte[]{
+                (byte) (checksum >>> 24), (byte) (checksum >>> 16), (byte) (checksum >>> 8), (byte) checksum});
+    }
+
+    private static String value(String algorithm, byte[] digest) {
+        final StringBuilder builder = new StringBuilder(algorithm.length() + 1 + digest.length * 2);
+        builder.append(algorithm).append(':');
+        for (byte b : digest) {
+            builder.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        return builder.toString();
+    }
+
+    static void store(ArchiveEntry entry, String value) {
+        if (entry instanceof TarArchiveEntry) {
+            ((TarArchiveEntry) entry).addPaxHeader(PAX_HEADER, value);
+        } else if (entry instanceof ZipArchiveEntry) {
+            ((ZipArchiveEntry) entry).addExtraField(zipExtraField(value));
+        } else {
+            throw new UnsupportedOperationException("Entry digests are not supported by " + entry.getClass().getName());
+        }
+    }
+
+    /**
+     * @return the zip extra field of the stored value, with its header, as
+     * written in the central directory
+     */
+    static byte[] zipCentralDirectoryData(String value) {
+        return ExtraFieldUtils.mergeCentralDirectoryData(new ZipExtraField[]{zipExtraField(value)});
+    }
+
+    private static ZipExtraField zipExtraField(String value) {
+        final byte[] data = value.getBytes(StandardCharsets.US_ASCII);
+        final UnrecognizedExtraField field = new UnrecognizedExtraField();
+        field.setHeaderId(ZIP_EXTRA_FIELD_ID);
+        field.setLocalFileDataData(data);
+        field.setCentralDirectoryData(data);
+        return field;
+    }
+
+    /**
+     * @return the stored value or null if the entry has no digest
+     */
+    static String load(ArchiveEntry entry) {
+        if (entry instanceof TarArchiveEntry) {
+            return ((TarArchiveEntry) entry).getExtraPaxHeader(PAX_HEADER);
+        } else if (entry instanceof ZipArchiveEntry) {
+            final ZipExtraField field = ((ZipArchiveEntry) entry).getExtraField(ZIP_EXTRA_FIELD_ID);
+            return field == null ? null : new String(field.getCentralDirectoryData(), StandardCharsets.US_ASCII);
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,59 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.IOException;
+
+/**
+ * Signals that a decompress operation was aborted because the archive
+ * crossed one of its {@link ExtractionLimits}.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class ExtractionLimitException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The limits an extraction can cross.
+     */
+    public enum Limit {
+        TOTAL_BYTES, ENTRIES, ENTRY_RATIO, PATH_DEPTH, PATH_TRAVERSAL
+    }
+
+    private final Limit limit;
+
+    private final String entryName;
+
+    public ExtractionLimitException(Limit limit, String entryName, String message) {
+        super(message);
+        this.limit = limit;
+        this.entryName = entryName;
+    }
+
+    public Limit getLimit() {
+        return limit;
+    }
+
+    public String getEntryName() {
+        return entryName;
+    }
+
+}
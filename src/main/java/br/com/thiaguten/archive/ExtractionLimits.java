@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+/**
+ * Resource limits checked while the decompress operation extracts the
+ * entries, so a hostile archive (a zip bomb, millions of tiny entries, deeply
+ * nested or escaping paths) fails fast instead of filling the disk. The
+ * limits are checked on every data chunk, and the extraction stops at the
+ * first one crossed with an {@link ExtractionLimitException}. Zero means
+ * unlimited.
+ * <p>
+ * Entry names escaping the destination directory, absolute or through "..",
+ * are always rejected.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class ExtractionLimits {
+
+    /**
+     * Bytes an entry may write before its compression ratio is checked, so
+     * small and well compressed entries are not rejected.
+     */
+    static final long RATIO_GRACE_BYTES = 1024 * 1024;
+
+    private volatile long maxTotalBytes;
+
+    private volatile long maxEntries;
+
+    private volatile double maxEntryRatio;
+
+    private volatile int maxPathDepth;
+
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    /**
+     * Maximum bytes written by one decompress operation, zero for unlimited.
+     */
+    public void setMaxTotalBytes(long maxTotalBytes) {
+        if (maxTotalBytes < 0) {
+            throw new IllegalArgumentException("max total bytes must not be negative");
+        }
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Maximum files and directories created by one decompress operation,
+     * zero for unlimited.
+     */
+    public void setMaxEntries(long maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("max entries must not be negative");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    public double getMaxEntryRatio() {
+        return maxEntryRatio;
+    }
+
+    /**
+     * Maximum ratio between the uncompressed and the compressed bytes of an
+     * entry, zero for unlimited. It is checked once the entry wrote more than
+     * a megabyte. For stream archives the compressed bytes are measured on
+     * the archive file, so they include the read-ahead of the decoder.
+     */
+    public void setMaxEntryRatio(double maxEntryRatio) {
+        if (maxEntryRatio < 0 || Double.isNaN(maxEntryRatio)) {
+            throw new IllegalArgumentException("max entry ratio must not be negative");
+        }
+        this.maxEntryRatio = maxEntryRatio;
+    }
+
+    public int getMaxPathDepth() {
+        return maxPathDepth;
+    }
+
+    /**
+     * Maximum number of name elements of an entry path, zero for unlimited.
+     */
+    public void setMaxPathDepth(int maxPathDepth) {
+        if (maxPathDepth < 0) {
+            throw new IllegalArgumentException("max path depth must not be negative");
+        }
+        this.maxPathDepth = maxPathDepth;
+    }
+
+}
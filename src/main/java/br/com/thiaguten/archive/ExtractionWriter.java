@@ -0,0 +1,282 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes the extracted entries below a destination directory. The created
+ * directories are remembered, so each one is checked and created only once,
+ * and the files are written through a file channel with a single write call
+ * when the entry fits in the buffer. The extraction limits are checked
+ * before each entry and on each written chunk.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class ExtractionWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int SYNC_BATCH_SIZE = 256;
+
+    private final Path root;
+
+    private final AbstractArchive.FsyncMode fsyncMode;
+
+    private final Throttle throttle;
+
+    private final ExtractionLimits limits;
+
+    private final CountingInputStream compressedInput;
+
+    private long totalBytes;
+
+    private long entries;
+
+    private final Set<Path> directories = new HashSet<>();
+
+    private final List<FileChannel> unsynced = new ArrayList<>();
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * @param compressedInput counts the archive bytes read, used to measure
+     *                        the compressed size of the entries when it is
+     *                        not known upfront, or null
+     */
+    ExtractionWriter(Path root, AbstractArchive.FsyncMode fsyncMode, Throttle throttle, ExtractionLimits limits,
+                     CountingInputStream compressedInput) throws IOException {
+        this.root = root.normalize();
+        this.fsyncMode = fsyncMode;
+        this.throttle = throttle;
+        this.limits = limits;
+        this.compressedInput = compressedInput;
+        createDirectories(root);
+        directories.add(root);
+    }
+
+    /**
+     * Creates the directory of a directory entry.
+     */
+    Path createDirectory(String entryName) throws IOException {
+        final Path target = resolve(entryName);
+        createDirectory(target);
+        return target;
+    }
+
+    /**
+     * Writes the data of a file entry, creating its parent directories. The
+     * entry digest, if any, is checked on the written chunks.
+     *
+     * @param size           the entry size, or -1 when unknown
+     * @param compressedSize the entry compressed size, or -1 to measure it
+     *                       on the archive bytes read
+     * @param digest         the stored entry digest, or null when it has none
+     */
+    Path write(String entryName, long size, long compressedSize, InputStream inputStream, String digest)
+            throws IOException {
+        final Path target = resolve(entryName);
+        final long maxTotalBytes = limits.getMaxTotalBytes();
+        if (maxTotalBytes > 0 && size > maxTotalBytes - totalBytes) {
+            throw new ExtractionLimitException(ExtractionLimitException.Limit.TOTAL_BYTES, entryName,
+                    "entry " + entryName + " of " + size + " bytes exceeds the extraction limit of "
+                            + maxTotalBytes + " bytes");
+        }
+        final Path parent = target.getParent();
+        if (parent != null) {
+            createDirectory(parent);
+        }
+
+        throttle.acquireFile();
+        try {
+            final FileChannel channel = FileChannel.open(target, CREATE, WRITE, TRUNCATE_EXISTING);
+            final EntryDigest entryDigest = digest == null ? null : EntryDigest.forValue(digest);
+            final long compressedStart = compressedInput != null ? compressedInput.getCount() : 0;
+            try {
+                int n;
+                while ((n = fill(inputStream)) > 0) {
+                    final long written = channel.position() + n;
+                    if (size > 0 && written > size) {
+                        throw new IOException("entry " + entryName + " size mismatch, expected " + size
+                                + " but has more data");
+                    }
+                    checkTotalBytes(entryName, n);
+                    checkRatio(entryName, written, compressedSize >= 0 ? compressedSize
+                            : compressedInput != null ? compressedInput.getCount() - compressedStart : -1);
+                    throttle.acquireWrite(n);
+                    if (entryDigest != null) {
+                        entryDigest.update(buffer, 0, n);
+                    }
+                    final ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                    throttle.cpu();
+                }
+                if (size > 0 && channel.position() != size) {
+                    throw new IOException("entry " + entryName + " size mismatch, expected " + size
+                            + " but was " + channel.position());
+                }
+                if (entryDigest != null) {
+                    final String actual = entryDigest.value();
+                    if (!digest.equalsIgnoreCase(actual)) {
+                        throw new IOException("entry " + entryName + " digest mismatch, expected " + digest
+                                + " but was " + actual);
+                    }
+                }
+            } catch (IOException e) {
+                channel.close();
+                if (e instanceof ExtractionLimitException) {
+                    // a partially written bomb is not left behind
+                    deleteIfExists(target);
+                }
+                throw e;
+            }
+
+            switch (fsyncMode) {
+                case EACH:
+                    try {
+                        channel.force(true);
+                    } finally {
+                        channel.close();
+                    }
+                    break;
+                case BATCH:
+                    unsynced.add(channel);
+                    if (unsynced.size() == SYNC_BATCH_SIZE) {
+                        sync();
+                    }
+                    break;
+                default:
+                    channel.close();
+            }
+        } finally {
+            throttle.releaseFile();
+        }
+        return target;
+    }
+
+    /**
+     * Forces the files of the pending batch to the storage device.
+     */
+    @Override
+    public void close() throws IOException {
+        sync();
+    }
+
+    /**
+     * Resolves the entry below the root, checking the path and entries
+     * limits.
+     */
+    private Path resolve(String entryName) throws ExtractionLimitException {
+        final Path target = root.resolve(entryName).normalize();
+        if (!target.startsWith(root)) {
+            throw new ExtractionLimitException(ExtractionLimitException.Limit.PATH_TRAVERSAL, entryName,
+                    "entry " + entryName + " is outside of the destination directory");
+        }
+        final int maxPathDepth = limits.getMaxPathDepth();
+        if (maxPathDepth > 0 && root.relativize(target).getNameCount() > maxPathDepth) {
+            throw new ExtractionLimitException(ExtractionLimitException.Limit.PATH_DEPTH, entryName,
+                    "entry " + entryName + " exceeds the path depth limit of " + maxPathDepth);
+        }
+        final long maxEntries = limits.getMaxEntries();
+        if (maxEntries > 0 && entries >= maxEntries) {
+            throw new ExtractionLimitException(ExtractionLimitException.Limit.ENTRIES, entryName,
+                    "entry " + entryName + " exceeds the extraction limit of " + maxEntries + " entries");
+        }
+        entries++;
+        return target;
+    }
+
+    private void checkTotalBytes(String entryName, int n) throws ExtractionLimitException {
+        final long maxTotalBytes = limits.getMaxTotalBytes();
+        totalBytes += n;
+        if (maxTotalBytes > 0 && totalBytes > maxTotalBytes) {
+            throw new ExtractionLimitException(ExtractionLimitException.Limit.TOTAL_BYTES, entryName,
+                    "entry " + entryName + " exceeds the extraction limit of " + maxTotalBytes + " bytes");
+        }
+    }
+
+    private void checkRatio(String entryName, long written, long compressed) throws ExtractionLimitException {
+        final double maxEntryRatio = limits.getMaxEntryRatio();
+        if (maxEntryRatio > 0 && compressed >= 0 && written > ExtractionLimits.RATIO_GRACE_BYTES
+                && written > maxEntryRatio * Math.max(compressed, 1)) {
+            throw new ExtractionLimitException(ExtractionLimitException.Limit.ENTRY_RATIO, entryName,
+                    "entry " + entryName + " exceeds the compression ratio limit of " + maxEntryRatio);
+        }
+    }
+
+    private void createDirectory(Path dir) throws IOException {
+        if (directories.add(dir)) {
+            createDirectories(dir);
+            // the ancestors exist as well, stop at the first one already known
+            Path parent = dir.getParent();
+            while (parent != null && directories.add(parent)) {
+                parent = parent.getParent();
+            }
+        }
+    }
+
+    private int fill(InputStream inputStream) throws IOException {
+        int count = 0;
+        int n;
+        while (count < buffer.length && (n = inputStream.read(buffer, count, buffer.length - count)) != -1) {
+            count += n;
+        }
+        return count;
+    }
+
+    private void sync() throws IOException {
+        IOException failure = null;
+        for (FileChannel channel : unsynced) {
+            try {
+                channel.force(true);
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            } finally {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+        }
+        unsynced.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
@@ -23,14 +23,17 @@ import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
-import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.StandardOpenOption.APPEND;
 
 /**
  * Gzip Archive Implementation.
@@ -63,12 +66,154 @@ public class GzipArchive extends AbstractArchive implements Archive {
 
     @Override
     protected ArchiveOutputStream createArchiveOutputStream(OutputStream outputStream) throws IOException {
-        return new TarArchiveOutputStream(new GzipCompressorOutputStream(outputStream));
+        final GzipMembersOutputStream gzipOutputStream = new GzipMembersOutputStream(outputStream);
+        if (getCompressionLevel() != -1) {
+            gzipOutputStream.setLevel(getCompressionLevel());
+        }
+        return new GzipTarArchiveOutputStream(gzipOutputStream, TarArchive.blockSize(getCheckpointInterval()));
+    }
+
+    @Override
+    protected boolean isAdaptiveCompressionSupported() {
+        return true;
+    }
+
+    /**
+     * The deflate level of the gzip stream is changed between entries, the
+     * data written so far is compressed with the previous level.
+     */
+    @Override
+    protected void setEntryCompression(ArchiveEntry entry, AdaptiveCompression.Level level,
+                                       ArchiveOutputStream archiveOutputStream) {
+        ((GzipTarArchiveOutputStream) archiveOutputStream).gzipOutputStream.setLevel(level.getDeflateLevel());
     }
 
     @Override
     protected ArchiveInputStream createArchiveInputStream(InputStream inputStream) throws IOException {
-        return new TarArchiveInputStream(new GzipCompressorInputStream(inputStream));
+        // appended archives are written as new gzip members, each one holding a whole tar stream
+        return new ConcatenatedTarArchiveInputStream(createUncompressedInputStream(inputStream));
+    }
+
+    @Override
+    protected InputStream createUncompressedInputStream(InputStream inputStream) throws IOException {
+        return new GzipCompressorInputStream(inputStream, true);
+    }
+
+    /**
+     * Appends a new gzip member at the end of the existing file, leaving the
+     * previous members untouched.
+     */
+    @Override
+    protected ArchiveOutputStream createAppendArchiveOutputStream(Path path) throws IOException {
+        return createArchiveOutputStream(new BufferedOutputStream(newOutputStream(path, APPEND)));
+    }
+
+    /**
+     * Ends the current gzip member, the checkpoint is the member boundary.
+     */
+    @Override
+    protected long checkpoint(ArchiveOutputStream archiveOutputStream, Path path) throws IOException {
+        archiveOutputStream.flush();
+        ((GzipTarArchiveOutputStream) archiveOutputStream).gzipOutputStream.finishMember();
+        return super.checkpoint(archiveOutputStream, path);
+    }
+
+    /**
+     * Gzip compressor with a deflate level that can be changed while writing,
+     * which the commons compress gzip stream does not allow. The header
+     * modification time is always zero, keeping the output reproducible.
+     */
+    private static class GzipLevelOutputStream extends GZIPOutputStream {
+
+        GzipLevelOutputStream(OutputStream outputStream) throws IOException {
+            super(outputStream, 8192);
+        }
+
+        void setLevel(int level) {
+            def.setLevel(level);
+        }
+
+    }
+
+    /**
+     * Writes the data as a sequence of gzip members, a new member is started
+     * by the first write after the current one is finished.
+     */
+    static class GzipMembersOutputStream extends OutputStream {
+
+        private final OutputStream outputStream;
+
+        private GzipLevelOutputStream member;
+
+        private int level = -1;
+
+        GzipMembersOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        void setLevel(int level) {
+            this.level = level;
+            if (member != null) {
+                member.setLevel(level);
+            }
+        }
+
+        void finishMember() throws IOException {
+            if (member != null) {
+                member.finish();
+                member = null;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            member().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            member().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (member != null) {
+                member.flush();
+            } else {
+                outputStream.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finishMember();
+            } finally {
+                outputStream.close();
+            }
+        }
+
+        private GzipLevelOutputStream member() throws IOException {
+            if (member == null) {
+                member = new GzipLevelOutputStream(outputStream);
+                if (level != -1) {
+                    member.setLevel(level);
+                }
+            }
+            return member;
+        }
+
+    }
+
+    private static class GzipTarArchiveOutputStream extends TarArchive.FlushableTarArchiveOutputStream {
+
+        private final GzipMembersOutputStream gzipOutputStream;
+
+        GzipTarArchiveOutputStream(GzipMembersOutputStream gzipOutputStream, int blockSize) {
+            super(gzipOutputStream, blockSize);
+            this.gzipOutputStream = gzipOutputStream;
+        }
+
     }
 
 }
@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Block parallel compressor. The data is split in fixed size blocks, each one
+ * compressed by a worker thread as an independent compressed stream, and the
+ * results are written in order. Formats whose decoders read concatenated
+ * streams (zstd frames, xz streams, gzip members) stay readable by any tool.
+ * At most one block per thread is in flight, which bounds the memory used.
+ * The CPU budget of the throttle applies to the worker threads, which are
+ * started with the first block and stopped as soon as the stream is closed
+ * or a block fails.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class ParallelCompressorOutputStream extends OutputStream {
+
+    /**
+     * Creates the compressor of a single block.
+     */
+    interface Compressor {
+
+        OutputStream createCompressorOutputStream(OutputStream outputStream) throws IOException;
+
+    }
+
+    private static final AtomicInteger POOL = new AtomicInteger(1);
+
+    private final OutputStream outputStream;
+
+    private final Compressor compressor;
+
+    private final Throttle throttle;
+
+    private ExecutorService executor;
+
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private final int threads;
+
+    private final int blockSize;
+
+    private byte[] block;
+
+    private int count;
+
+    private boolean closed;
+
+    ParallelCompressorOutputStream(OutputStream outputStream, Compressor compressor, int threads, int blockSize,
+                                   Throttle throttle) {
+        this.outputStream = outputStream;
+        this.compressor = compressor;
+        this.throttle = throttle;
+        this.threads = threads;
+        this.blockSize = blockSize;
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Compresses the current partial block and writes every pending block.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            submitBlock();
+        }
+        while (!pending.isEmpty()) {
+            writeNextBlock();
+        }
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            shutdown();
+            outputStream.close();
+        }
+    }
+
+    private ExecutorService executor() throws IOException {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final int pool = POOL.getAndIncrement();
+                private final AtomicInteger thread = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread worker = new Thread(runnable, "compressor-" + pool + "-" + thread.getAndIncrement());
+                    worker.setDaemon(true);
+                    return worker;
+                }
+            });
+        } else if (executor.isShutdown()) {
+            throw new IOException("stream closed after a failure");
+        }
+        return executor;
+    }
+
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        pending.clear();
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] data = block;
+        final int length = count;
+        pending.add(executor().submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2);
+                try (OutputStream compressorOutputStream = compressor.createCompressorOutputStream(compressed)) {
+                    compressorOutputStream.write(data, 0, length);
+                }
+                throttle.cpu();
+                return compressed.toByteArray();
+            }
+        }));
+        block = new byte[blockSize];
+        count = 0;
+
+        while (pending.size() > threads) {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        boolean written = false;
+        try {
+            outputStream.write(pending.poll().get());
+            written = true;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("block compression interrupted");
+        } finally {
+            // the stream is not usable after a failed block, its workers are not left running
+            if (!written) {
+                shutdown();
+            }
+        }
+    }
+
+}
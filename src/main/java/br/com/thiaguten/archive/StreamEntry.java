@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.reactivestreams.Publisher;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * Archive entry of the reactive streams API, the entry metadata plus a
+ * publisher of the entry data in chunks.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class StreamEntry {
+
+    private final String name;
+
+    private final long size;
+
+    private final boolean directory;
+
+    private final Date lastModifiedDate;
+
+    private final ArchiveEntry entry;
+
+    private final Publisher<ByteBuffer> body;
+
+    /**
+     * Creates an entry to be compressed. The size must be known for the tar
+     * based formats.
+     *
+     * @param body the entry data, or null for a directory entry
+     */
+    public StreamEntry(String name, long size, Publisher<ByteBuffer> body) {
+        this(name, size, null, body);
+    }
+
+    /**
+     * Creates an entry to be compressed with its last modified date, the
+     * compress time when null.
+     */
+    public StreamEntry(String name, long size, Date lastModifiedDate, Publisher<ByteBuffer> body) {
+        this.name = name;
+        this.size = size;
+        this.directory = body == null;
+        this.lastModifiedDate = lastModifiedDate;
+        this.entry = null;
+        this.body = body;
+    }
+
+    StreamEntry(ArchiveEntry entry, Publisher<ByteBuffer> body) {
+        this.name = entry.getName();
+        this.size = entry.getSize();
+        this.directory = entry.isDirectory();
+        this.lastModifiedDate = entry.getLastModifiedDate();
+        this.entry = entry;
+        this.body = body;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Entry data size, or -1 when unknown.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public Date getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    /**
+     * The archive entry read from the archive, or null for the entries to be compressed.
+     */
+    public ArchiveEntry getEntry() {
+        return entry;
+    }
+
+    /**
+     * Publisher of the entry data. The data of a published entry can only be
+     * read while it is the current entry, so the body must be subscribed
+     * before the next entry is requested, otherwise it is skipped.
+     */
+    public Publisher<ByteBuffer> getBody() {
+        return body;
+    }
+
+}
@@ -25,10 +25,21 @@ import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.tar.TarUtils;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * Tar Archive Implementation.
@@ -61,7 +72,7 @@ public class TarArchive extends AbstractArchive implements Archive {
 
     @Override
     protected ArchiveOutputStream createArchiveOutputStream(OutputStream outputStream) throws IOException {
-        return new TarArchiveOutputStream(outputStream);
+        return new FlushableTarArchiveOutputStream(outputStream, blockSize(getCheckpointInterval()));
     }
 
     @Override
@@ -69,4 +80,112 @@ public class TarArchive extends AbstractArchive implements Archive {
         return new TarArchiveInputStream(inputStream);
     }
 
+    /**
+     * Overwrites the end-of-archive blocks of the existing tar file, so the
+     * new entries are written right after the last one.
+     */
+    @Override
+    protected ArchiveOutputStream createAppendArchiveOutputStream(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, READ, WRITE);
+        try {
+            long end = findEndOfArchive(channel);
+            channel.truncate(end);
+            channel.position(end);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return createArchiveOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * Builds a compact index of the archive entries from its headers,
+     * which must be closed to release the archive file.
+     */
+    public ArchiveIndex index(Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, READ);
+        try {
+            return ArchiveIndex.ofTar(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Walks the tar headers, skipping the entries data, and returns the
+     * offset of the first end-of-archive block.
+     */
+    static long findEndOfArchive(SeekableByteChannel channel) throws IOException {
+        final byte[] header = new byte[TarConstants.DEFAULT_RCDSIZE];
+        final ByteBuffer buffer = ByteBuffer.wrap(header);
+        final long size = channel.size();
+
+        long position = 0;
+        while (position + header.length <= size) {
+            buffer.clear();
+            channel.position(position);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of tar archive at offset " + position);
+                }
+            }
+
+            if (isZeroBlock(header)) {
+                return position;
+            }
+            if (!TarUtils.verifyCheckSum(header)) {
+                throw new IOException("Corrupted tar header at offset " + position);
+            }
+
+            long entrySize = TarUtils.parseOctalOrBinary(header, TarConstants.NAMELEN + TarConstants.MODELEN
+                    + TarConstants.UIDLEN + TarConstants.GIDLEN, TarConstants.SIZELEN);
+            long blocks = (entrySize + header.length - 1) / header.length;
+            position += header.length + blocks * header.length;
+        }
+        return Math.min(position, size);
+    }
+
+    /**
+     * Tar block size of the archive output streams. A checkpoint flushes the
+     * stream between entries, so the blocks are single records when enabled,
+     * otherwise the last partial block would not be written.
+     */
+    static int blockSize(long checkpointInterval) {
+        return checkpointInterval > 0 ? TarConstants.DEFAULT_RCDSIZE : TarConstants.DEFAULT_BLKSIZE;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tar archive output stream whose flush reaches the underlying stream,
+     * the block buffer of the tar output stream does not forward it, and
+     * without the name length and entry size limits of the ustar headers.
+     */
+    static class FlushableTarArchiveOutputStream extends TarArchiveOutputStream {
+
+        private final OutputStream outputStream;
+
+        FlushableTarArchiveOutputStream(OutputStream outputStream, int blockSize) {
+            super(outputStream, blockSize);
+            this.outputStream = outputStream;
+            setLongFileMode(LONGFILE_POSIX);
+            setBigNumberMode(BIGNUMBER_STAR);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            super.flush();
+            outputStream.flush();
+        }
+
+    }
+
 }
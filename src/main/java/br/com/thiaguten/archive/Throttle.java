@@ -0,0 +1,247 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Limits the resources used by the archive operations, so they can run next
+ * to latency sensitive workloads. The same throttle can be shared by several
+ * archives and jobs, making the limits global, and every limit can be changed
+ * while the jobs run.
+ * <p>
+ * The read rate applies to the bytes read from the files: the input files on
+ * compress and the archive file on decompress, before any decompression. The
+ * write rate applies to the entry data: the uncompressed data given to the
+ * compressor on compress and the extracted files on decompress. Zero means
+ * unlimited.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class Throttle {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final TokenBucket read = new TokenBucket(System.nanoTime());
+
+    private final TokenBucket write = new TokenBucket(System.nanoTime());
+
+    private final Object filesLock = new Object();
+
+    private int maxConcurrentFiles;
+
+    private int openFiles;
+
+    private volatile double cpuBudget;
+
+    private volatile long cpuBudgetSince;
+
+    private final ThreadLocal<long[]> cpuMarks = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[]{THREADS.getCurrentThreadCpuTime(), System.nanoTime()};
+        }
+    };
+
+    public long getReadBytesPerSecond() {
+        return read.rate;
+    }
+
+    /**
+     * Maximum file bytes read per second, zero for unlimited. On decompress
+     * these are the archive file bytes, not the decompressed data.
+     */
+    public void setReadBytesPerSecond(long readBytesPerSecond) {
+        read.setRate(readBytesPerSecond, System.nanoTime());
+    }
+
+    public long getWriteBytesPerSecond() {
+        return write.rate;
+    }
+
+    /**
+     * Maximum entry data bytes written per second, zero for unlimited. On
+     * compress these are the uncompressed bytes, not the archive file bytes.
+     */
+    public void setWriteBytesPerSecond(long writeBytesPerSecond) {
+        write.setRate(writeBytesPerSecond, System.nanoTime());
+    }
+
+    public int getMaxConcurrentFiles() {
+        synchronized (filesLock) {
+            return maxConcurrentFiles;
+        }
+    }
+
+    /**
+     * Maximum number of files read or written at the same time, zero for
+     * unlimited. Lowering it does not interrupt the files already open.
+     */
+    public void setMaxConcurrentFiles(int maxConcurrentFiles) {
+        if (maxConcurrentFiles < 0) {
+            throw new IllegalArgumentException("max concurrent files must not be negative");
+        }
+        synchronized (filesLock) {
+            this.maxConcurrentFiles = maxConcurrentFiles;
+            filesLock.notifyAll();
+        }
+    }
+
+    public double getCpuBudget() {
+        return cpuBudget;
+    }
+
+    /**
+     * Fraction of a CPU each compressing thread may use, between 0 and 1,
+     * zero for unlimited. A thread over its budget sleeps until its CPU time
+     * is back under the budget. Requires thread CPU time measurement.
+     */
+    public void setCpuBudget(double cpuBudget) {
+        if (cpuBudget < 0 || cpuBudget > 1) {
+            throw new IllegalArgumentException("cpu budget must be between 0 and 1");
+        }
+        if (cpuBudget > 0 && !THREADS.isCurrentThreadCpuTimeSupported()) {
+            throw new UnsupportedOperationException("thread cpu time is not supported by this JVM");
+        }
+        this.cpuBudgetSince = System.nanoTime();
+        this.cpuBudget = cpuBudget;
+    }
+
+    void acquireRead(long bytes) throws InterruptedIOException {
+        read.acquire(bytes);
+    }
+
+    void acquireWrite(long bytes) throws InterruptedIOException {
+        write.acquire(bytes);
+    }
+
+    void acquireFile() throws InterruptedIOException {
+        synchronized (filesLock) {
+            while (maxConcurrentFiles > 0 && openFiles >= maxConcurrentFiles) {
+                try {
+                    filesLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for a file slot");
+                }
+            }
+            openFiles++;
+        }
+    }
+
+    void releaseFile() {
+        synchronized (filesLock) {
+            openFiles--;
+            filesLock.notifyAll();
+        }
+    }
+
+    /**
+     * Sleeps the current thread when the CPU time it used since the last call
+     * goes over the budget.
+     */
+    void cpu() throws InterruptedIOException {
+        final double budget = cpuBudget;
+        if (budget == 0) {
+            return;
+        }
+        final long[] marks = cpuMarks.get();
+        // the CPU used before the budget was set is not accounted
+        if (marks[1] - cpuBudgetSince >= 0) {
+            final long used = THREADS.getCurrentThreadCpuTime() - marks[0];
+            final long elapsed = System.nanoTime() - marks[1];
+            final long required = (long) (used / budget);
+            if (required > elapsed) {
+                sleep(required - elapsed);
+            }
+        }
+        marks[0] = THREADS.getCurrentThreadCpuTime();
+        marks[1] = System.nanoTime();
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while throttled");
+        }
+    }
+
+    /**
+     * Token bucket holding up to one second of tokens. The tokens are taken
+     * before waiting, so the waiting threads are served in order.
+     */
+    static class TokenBucket {
+
+        private volatile long rate;
+
+        private double tokens;
+
+        private long last;
+
+        TokenBucket(long now) {
+            this.last = now;
+        }
+
+        synchronized void setRate(long rate, long now) {
+            if (rate < 0) {
+                throw new IllegalArgumentException("rate must not be negative");
+            }
+            refill(now);
+            this.rate = rate;
+            tokens = Math.min(tokens, rate);
+        }
+
+        void acquire(long bytes) throws InterruptedIOException {
+            if (rate == 0) {
+                return;
+            }
+            final long wait = reserve(bytes, System.nanoTime());
+            if (wait > 0) {
+                sleep(wait);
+            }
+        }
+
+        /**
+         * Takes the tokens of the given bytes at the given time, in
+         * nanoseconds, and returns how long to wait for the missing ones.
+         */
+        synchronized long reserve(long bytes, long now) {
+            if (rate == 0) {
+                return 0;
+            }
+            refill(now);
+            tokens -= bytes;
+            return tokens < 0 ? (long) (-tokens * 1e9 / rate) : 0;
+        }
+
+        private void refill(long now) {
+            if (rate > 0) {
+                tokens = Math.min(rate, tokens + (now - last) * rate / 1e9);
+            }
+            last = now;
+        }
+
+    }
+
+}
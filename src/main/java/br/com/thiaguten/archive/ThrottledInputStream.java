@@ -0,0 +1,77 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Applies the read rate of the throttle to the bytes read from a file, before
+ * any decompression, and the write rate of the target throttle to the bytes
+ * copied raw to another archive.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+    private final Throttle throttle;
+
+    private final Throttle writeThrottle;
+
+    ThrottledInputStream(InputStream inputStream, Throttle throttle) {
+        this(inputStream, throttle, null);
+    }
+
+    /**
+     * The bytes read are written as is with the write throttle, if not null.
+     */
+    ThrottledInputStream(InputStream inputStream, Throttle throttle, Throttle writeThrottle) {
+        super(inputStream);
+        this.throttle = throttle;
+        this.writeThrottle = writeThrottle;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b >= 0) {
+            acquire(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int n = super.read(b, off, len);
+        if (n > 0) {
+            acquire(n);
+        }
+        return n;
+    }
+
+    private void acquire(int n) throws IOException {
+        throttle.acquireRead(n);
+        if (writeThrottle != null) {
+            writeThrottle.acquireWrite(n);
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.newInputStream;
+
+/**
+ * Reads the volumes written by {@link VolumeOutputStream} one after the
+ * other, as a single archive stream. Each volume is opened when the previous
+ * one is exhausted.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class VolumeInputStream extends InputStream {
+
+    private final Path archive;
+
+    private InputStream current;
+
+    private int volume;
+
+    VolumeInputStream(Path archive) throws IOException {
+        this.archive = archive;
+        this.current = next();
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (current != null) {
+            final int b = current.read();
+            if (b >= 0) {
+                return b;
+            }
+            current.close();
+            current = next();
+        }
+        return -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current != null) {
+            final int n = current.read(b, off, len);
+            if (n > 0) {
+                return n;
+            }
+            if (n < 0) {
+                current.close();
+                current = next();
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    private InputStream next() throws IOException {
+        final Path path = VolumeOutputStream.volumePath(archive, ++volume);
+        if (volume > 1 && !exists(path)) {
+            return null;
+        }
+        return newInputStream(path);
+    }
+
+}
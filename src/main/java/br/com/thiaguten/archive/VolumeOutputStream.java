@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import static java.nio.file.Files.newOutputStream;
+
+/**
+ * Splits the written bytes into volumes of at most the given size, named
+ * after the archive with a three digits suffix, e.g. archive.tar.001. The
+ * volumes are only byte ranges of the archive, concatenated in order they
+ * give back the archive.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class VolumeOutputStream extends OutputStream {
+
+    private final Path archive;
+
+    private final long volumeSize;
+
+    private final VolumeListener listener;
+
+    private OutputStream current;
+
+    private Path currentPath;
+
+    private long currentSize;
+
+    private int volumes;
+
+    VolumeOutputStream(Path archive, long volumeSize, VolumeListener listener) {
+        this.archive = archive;
+        this.volumeSize = volumeSize;
+        this.listener = listener;
+    }
+
+    static Path volumePath(Path archive, int volume) {
+        return archive.resolveSibling(archive.getFileName() + String.format(".%03d", volume));
+    }
+
+    /**
+     * Returns the archive of the given first volume, or null when the path is
+     * not a first volume.
+     */
+    static Path archivePath(Path firstVolume) {
+        final String name = firstVolume.getFileName().toString();
+        if (!name.endsWith(".001") || name.length() <= 4) {
+            return null;
+        }
+        return firstVolume.resolveSibling(name.substring(0, name.length() - 4));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        volume().write(b);
+        currentSize++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final OutputStream volume = volume();
+            final int n = (int) Math.min(len, volumeSize - currentSize);
+            volume.write(b, off, n);
+            currentSize += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            closeVolume();
+        } else if (volumes == 0) {
+            // an empty archive still has its first volume
+            volume();
+            closeVolume();
+        }
+    }
+
+    /**
+     * Returns the volume with room left, closing the full one first.
+     */
+    private OutputStream volume() throws IOException {
+        if (current != null && currentSize >= volumeSize) {
+            closeVolume();
+        }
+        if (current == null) {
+            currentPath = volumePath(archive, ++volumes);
+            current = newOutputStream(currentPath);
+            currentSize = 0;
+        }
+        return current;
+    }
+
+    private void closeVolume() throws IOException {
+        current.close();
+        current = null;
+        if (listener != null) {
+            listener.volumeClosed(currentPath);
+        }
+    }
+
+}
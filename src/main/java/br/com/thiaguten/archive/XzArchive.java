@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * XZ Archive Implementation, requires the xz library.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class XzArchive extends CompressedTarArchive {
+
+    private static final int DEFAULT_PRESET = 6;
+
+    // dictionary size of the xz presets 0 to 9, in KB
+    private static final int[] DICTIONARY_SIZES = {256, 1024, 2048, 4096, 4096, 8192, 8192, 16384, 32768, 65536};
+
+    @Override
+    public String getName() {
+        return "XzArchive";
+    }
+
+    @Override
+    public String getMimeType() {
+        return "application/x-xz";
+    }
+
+    @Override
+    public String getExtension() {
+        return ".tar.xz";
+    }
+
+    /**
+     * The xz preset, from 0 to 9, -1 means the default preset 6.
+     */
+    @Override
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < -1 || compressionLevel >= DICTIONARY_SIZES.length) {
+            throw new IllegalArgumentException("xz compression level must be between 0 and 9, or -1");
+        }
+        super.setCompressionLevel(compressionLevel);
+    }
+
+    @Override
+    protected OutputStream createCompressorOutputStream(OutputStream outputStream, int level) throws IOException {
+        return new XZCompressorOutputStream(outputStream, level == -1 ? DEFAULT_PRESET : level);
+    }
+
+    @Override
+    protected InputStream createCompressorInputStream(InputStream inputStream) throws IOException {
+        return new XZCompressorInputStream(inputStream, true);
+    }
+
+    /**
+     * Three times the preset dictionary size, as xz does for its own blocks.
+     */
+    @Override
+    protected int getDefaultBlockSize(int level) {
+        return 3 * DICTIONARY_SIZES[level == -1 ? DEFAULT_PRESET : level] * 1024;
+    }
+
+}
@@ -0,0 +1,150 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Channel view of an existing zip file that starts where its central
+ * directory begins. A zip output stream writing to it sees an empty file, so
+ * the new entries are written after the last existing one. When the channel
+ * is closed, the old central directory records are merged with the new ones
+ * (relocated to their real offsets) and the end records are rewritten.
+ * If the merge fails, the original central directory is restored.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+class ZipAppendChannel implements SeekableByteChannel {
+
+    private final FileChannel channel;
+
+    private final ZipCentralDirectory centralDirectory;
+
+    private final ByteBuffer originalTail;
+
+    private final long base;
+
+    ZipAppendChannel(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.centralDirectory = ZipCentralDirectory.locate(channel, 0, channel.size());
+        this.base = centralDirectory.offset;
+        this.originalTail = ZipCentralDirectory.read(channel, base, bufferSize(channel.size() - base));
+        channel.truncate(base);
+        channel.position(base);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return channel.write(src);
+    }
+
+    @Override
+    public long position() throws IOException {
+        return channel.position() - base;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        channel.position(base + newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size() - base;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        channel.truncate(base + size);
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            merge();
+        } catch (IOException | RuntimeException e) {
+            restore();
+            throw e;
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void merge() throws IOException {
+        final ZipCentralDirectory appended = ZipCentralDirectory.locate(channel, base, channel.size());
+        // the original records were overwritten by the new entries, use the copy taken before
+        final ByteBuffer oldRecords = originalTail.duplicate();
+        oldRecords.position(0).limit((int) centralDirectory.size);
+        final byte[] newRecords = ZipCentralDirectory.relocate(
+                ZipCentralDirectory.read(channel, appended.offset, bufferSize(appended.size)), base);
+
+        final long offset = appended.offset;
+        final long size = centralDirectory.size + newRecords.length;
+        final long entries = centralDirectory.entries + appended.entries;
+
+        channel.position(offset);
+        writeFully(oldRecords);
+        writeFully(ByteBuffer.wrap(newRecords));
+        writeFully(ByteBuffer.wrap(ZipCentralDirectory.endRecords(offset, size, entries, centralDirectory.comment)));
+        channel.truncate(channel.position());
+    }
+
+    private void restore() throws IOException {
+        originalTail.rewind();
+        channel.truncate(base);
+        channel.position(base);
+        writeFully(originalTail);
+    }
+
+    /**
+     * The central directory records are merged in memory, a single buffer.
+     */
+    private static int bufferSize(long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Zip central directory of " + size + " bytes too large to append to");
+        }
+        return (int) size;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
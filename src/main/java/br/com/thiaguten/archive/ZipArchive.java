@@ -26,17 +26,45 @@ import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.archivers.zip.ZipSplitReadOnlySeekableByteChannel;
 import org.apache.commons.compress.utils.IOUtils;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static java.nio.file.Files.*;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * Zip Archive Implementation.
@@ -45,6 +73,64 @@ import static java.nio.file.Files.*;
  */
 public class ZipArchive extends AbstractArchive implements Archive {
 
+    /**
+     * Entry holding the preset dictionary shared by the dictionary compressed entries.
+     */
+    static final String DICTIONARY_ENTRY = ".deflate-dictionary";
+
+    /**
+     * Private compression method of the entries deflated with the preset
+     * dictionary, the deflate method has no way to flag a preset dictionary.
+     */
+    static final int DICTIONARY_METHOD = 0x4449;
+
+    private static final int DICTIONARY_MAX_ENTRY_SIZE = 64 * 1024;
+
+    private static final int DICTIONARY_MAX_SAMPLE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Segment size limits of the zip split archives.
+     */
+    static final long MIN_VOLUME_SIZE = 64 * 1024;
+
+    static final long MAX_VOLUME_SIZE = 0xFFFFFFFFL;
+
+    private static final String DIGEST_PROPERTY = "digest.";
+
+    private boolean dictionaryCompression;
+
+    public boolean isDictionaryCompression() {
+        return dictionaryCompression;
+    }
+
+    /**
+     * Enables a deflate preset dictionary trained from a sample of the small
+     * files being compressed. The dictionary is stored once in the archive and
+     * shared by every small entry, which improves the ratio of many small and
+     * similar files. Those entries use a private compression method, so only
+     * this class can extract them. Appended entries do not use the dictionary.
+     */
+    public void setDictionaryCompression(boolean dictionaryCompression) {
+        this.dictionaryCompression = dictionaryCompression;
+    }
+
+    @Override
+    protected void appendFingerprintSettings(StringBuilder fingerprint) {
+        fingerprint.append(dictionaryCompression).append('\n');
+    }
+
+    /**
+     * The zip split archives hold between 64KB and 4GB per segment.
+     */
+    @Override
+    public void setVolumeSize(long volumeSize) {
+        if (volumeSize != 0 && (volumeSize < MIN_VOLUME_SIZE || volumeSize > MAX_VOLUME_SIZE)) {
+            throw new IllegalArgumentException("zip volume size must be between " + MIN_VOLUME_SIZE + " and "
+                    + MAX_VOLUME_SIZE + " bytes, or 0");
+        }
+        super.setVolumeSize(volumeSize);
+    }
+
     @Override
     public String getName() {
         return "ZipArchive";
@@ -63,74 +149,242 @@ public class ZipArchive extends AbstractArchive implements Archive {
     @Override
     protected ArchiveEntry createArchiveEntry(String path, long size, byte[] content) {
         ZipArchiveEntry zipEntry = new ZipArchiveEntry(path);
-        zipEntry.setSize(size);
+        if (size >= 0) {
+            zipEntry.setSize(size);
+        }
         return zipEntry;
     }
 
     @Override
     protected ArchiveOutputStream createArchiveOutputStream(OutputStream outputStream) {
-        return new ZipArchiveOutputStream(outputStream);
+        return withCompressionLevel(new DictionaryZipArchiveOutputStream(outputStream));
     }
 
+    @Override
     protected ArchiveOutputStream createArchiveOutputStream(Path path) throws IOException {
         // for some internal optimizations should use
         // the constructor that accepts a File argument
-        return new ZipArchiveOutputStream(path.toFile());
+        if (getVolumeSize() > 0) {
+            return withCompressionLevel(new DictionaryZipArchiveOutputStream(path.toFile(), getVolumeSize(),
+                    getVolumeListener()));
+        }
+        return withCompressionLevel(new DictionaryZipArchiveOutputStream(path.toFile()));
     }
 
+    /**
+     * Segment of a split zip archive, the last one being the archive itself.
+     */
+    static Path splitSegment(Path path, int segment) {
+        final String name = path.getFileName().toString();
+        final String baseName = name.endsWith(".zip") ? name.substring(0, name.length() - 4) : name;
+        return path.resolveSibling(baseName + (segment < 10 ? ".z0" : ".z") + segment);
+    }
+
+    private ZipArchiveOutputStream withCompressionLevel(ZipArchiveOutputStream zipArchiveOutputStream) {
+        if (getCompressionLevel() != -1) {
+            zipArchiveOutputStream.setLevel(getCompressionLevel());
+        }
+        return zipArchiveOutputStream;
+    }
+
+    /**
+     * Trains the preset dictionary and writes it as the first entry.
+     */
     @Override
-    protected ArchiveInputStream createArchiveInputStream(InputStream inputStream) throws IOException {
-        return new ZipArchiveInputStream(inputStream);
+    protected void compressStarted(ArchiveOutputStream archiveOutputStream, Path... paths) throws IOException {
+        super.compressStarted(archiveOutputStream, paths);
+
+        if (!dictionaryCompression || !(archiveOutputStream instanceof DictionaryZipArchiveOutputStream)) {
+            return;
+        }
+        final DictionaryZipArchiveOutputStream zipArchiveOutputStream = (DictionaryZipArchiveOutputStream) archiveOutputStream;
+        if (zipArchiveOutputStream.isAppend()) {
+            return;
+        }
+
+        final List<Path> candidates = new ArrayList<>();
+        long candidatesSize = 0;
+        for (Path file : listFiles(paths)) {
+            final long size = size(file);
+            if (size <= DICTIONARY_MAX_ENTRY_SIZE) {
+                candidates.add(file);
+                candidatesSize += size;
+            }
+        }
+
+        // evenly spread sample of the small files
+        final List<byte[]> samples = new ArrayList<>();
+        final long step = Math.max(1, candidatesSize / DICTIONARY_MAX_SAMPLE_SIZE);
+        for (int i = 0; i < candidates.size(); i += step) {
+            samples.add(readAllBytes(candidates.get(i)));
+        }
+
+        final byte[] dictionary = DeflateDictionary.train(samples, DeflateDictionary.MAX_SIZE);
+        if (dictionary.length == 0) {
+            return;
+        }
+
+        logger.debug("writting the " + dictionary.length + " bytes dictionary trained from " + samples.size() + " samples");
+
+        final CRC32 crc = new CRC32();
+        crc.update(dictionary);
+        final ZipArchiveEntry entry = new ZipArchiveEntry(DICTIONARY_ENTRY);
+        normalizeEntry(entry);
+        entry.setMethod(ZipArchiveEntry.STORED);
+        entry.setSize(dictionary.length);
+        entry.setCompressedSize(dictionary.length);
+        entry.setCrc(crc.getValue());
+        zipArchiveOutputStream.addRawArchiveEntry(entry, new ByteArrayInputStream(dictionary));
+        zipArchiveOutputStream.setDictionary(dictionary, getCompressionLevel());
     }
 
     /**
-     * Override to make use of the ZipArchive#createArchiveOutputStream(Path path) method
-     * instead of the method ZipArchive#createArchiveOutputStream(BufferedOutputStream bufferedOutputStream).
+     * Override to deflate the small files with the preset dictionary, when there is one.
      */
     @Override
-    public Path compress(Path... paths) throws IOException {
-        Path compress = null;
-        ArchiveOutputStream archiveOutputStream = null;
+    protected void compressFile(Path root, Path file, ArchiveOutputStream archiveOutputStream) throws IOException {
+        final long size = size(file);
+        final Deflater deflater = archiveOutputStream instanceof DictionaryZipArchiveOutputStream
+                ? ((DictionaryZipArchiveOutputStream) archiveOutputStream).getDeflater() : null;
+        if (deflater == null || size > DICTIONARY_MAX_ENTRY_SIZE) {
+            super.compressFile(root, file, archiveOutputStream);
+            return;
+        }
 
-        for (Path path : paths) {
-            // get path infos
-            final Path parent = path.getParent();
-            final String name = path.getFileName().toString();
-            final boolean isDirectory = isDirectory(path);
+        final Throttle throttle = getThrottle();
+        final byte[] content;
+        throttle.acquireFile();
+        try {
+            content = readAllBytes(file);
+        } finally {
+            throttle.releaseFile();
+        }
+        throttle.acquireRead(content.length);
+        final String relativePath = root.relativize(file).toString();
 
-            if (compress == null) {
-                // create compress file
-                String compressName = (paths.length == 1 ? name : getName());
-                compress = Paths.get(parent.toString(), compressName + getExtension());
+        logger.debug("writting " + relativePath + " path in the archive output stream with the dictionary");
 
-                // creates a new compress file to not override if already exists
-                // if you do not want this behavior, just comment this line
-                compress = createFile(ArchiveAction.COMPRESS, parent, compress);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 64);
+        final byte[] buffer = new byte[8192];
+        deflater.setInput(content);
+        deflater.finish();
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        ((DictionaryZipArchiveOutputStream) archiveOutputStream).resetDeflater();
+
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+        final ZipArchiveEntry entry = (ZipArchiveEntry) createArchiveEntry(relativePath, size, content);
+        normalizeEntry(entry);
+        entry.setMethod(DICTIONARY_METHOD);
+        entry.setCompressedSize(compressed.size());
+        entry.setCrc(crc.getValue());
+        if (getDigestAlgorithm() != null) {
+            final EntryDigest digest = EntryDigest.of(getDigestAlgorithm());
+            digest.update(content, 0, content.length);
+            EntryDigest.store(entry, digest.value());
+        }
+        throttle.acquireWrite(compressed.size());
+        ((ZipArchiveOutputStream) archiveOutputStream).addRawArchiveEntry(entry, new ByteArrayInputStream(compressed.toByteArray()));
+        throttle.cpu();
+    }
 
-                // open compress file stream
-                archiveOutputStream = createArchiveOutputStream(compress);
+    /**
+     * The digest extra field is written with the central directory, after
+     * the entries data.
+     */
+    @Override
+    protected boolean isDigestStoredAfterData() {
+        return true;
+    }
 
-                logger.debug("creating the archive file " + compressName);
-            }
+    /**
+     * The sizes of an entry of unknown size go to the data descriptor.
+     */
+    @Override
+    protected boolean isEntrySizeRequired() {
+        return false;
+    }
 
-            logger.debug("reading path " + path);
+    @Override
+    protected boolean isAdaptiveCompressionSupported() {
+        return true;
+    }
 
-            if (isDirectory) {
-                compressDirectory(parent, path, archiveOutputStream);
-            } else {
-                compressFile(parent, path, archiveOutputStream);
-            }
+    /**
+     * Stored entries need a seekable output to have their sizes and CRC
+     * written after the data, otherwise the entry is deflated with no compression.
+     */
+    @Override
+    protected void setEntryCompression(ArchiveEntry entry, AdaptiveCompression.Level level,
+                                       ArchiveOutputStream archiveOutputStream) {
+        final ZipArchiveEntry zipEntry = (ZipArchiveEntry) entry;
+        final ZipArchiveOutputStream zipArchiveOutputStream = (ZipArchiveOutputStream) archiveOutputStream;
+        if (level == AdaptiveCompression.Level.STORE && zipArchiveOutputStream.isSeekable()) {
+            zipEntry.setMethod(ZipArchiveEntry.STORED);
+        } else {
+            zipEntry.setMethod(ZipArchiveEntry.DEFLATED);
+            zipArchiveOutputStream.setLevel(level.getDeflateLevel());
         }
+    }
 
-        // closing streams
-        if (archiveOutputStream != null) {
-            archiveOutputStream.finish();
-            archiveOutputStream.close();
+    /**
+     * Writes the new entries over the old central directory, which is merged
+     * back with the new records when the stream is closed.
+     */
+    @Override
+    protected ArchiveOutputStream createAppendArchiveOutputStream(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, READ, WRITE);
+        try {
+            return withCompressionLevel(new DictionaryZipArchiveOutputStream(new ZipAppendChannel(channel)));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
         }
+    }
 
-        logger.debug("finishing the archive file " + compress);
+    /**
+     * The digest extra fields written after the data are only in the central
+     * directory, cut with the archive, so they are recorded by entry name.
+     */
+    @Override
+    protected void storeCheckpoint(ArchiveOutputStream archiveOutputStream, Properties checkpoint) {
+        final Map<String, String> digests = ((DictionaryZipArchiveOutputStream) archiveOutputStream).getDigests();
+        for (Map.Entry<String, String> digest : digests.entrySet()) {
+            checkpoint.setProperty(DIGEST_PROPERTY + digest.getKey(), digest.getValue());
+        }
+    }
 
-        return compress;
+    /**
+     * The archive cut at a checkpoint has no central directory, so it is
+     * rebuilt from the local headers and the digests of the checkpoint
+     * before appending.
+     */
+    @Override
+    protected ArchiveOutputStream createResumeArchiveOutputStream(Path path, Properties checkpoint) throws IOException {
+        final Map<String, String> digests = new LinkedHashMap<>();
+        final Map<String, byte[]> digestFields = new HashMap<>();
+        for (String key : checkpoint.stringPropertyNames()) {
+            if (key.startsWith(DIGEST_PROPERTY)) {
+                final String name = key.substring(DIGEST_PROPERTY.length());
+                digests.put(name, checkpoint.getProperty(key));
+                digestFields.put(name, EntryDigest.zipCentralDirectoryData(checkpoint.getProperty(key)));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+            ZipCentralDirectory.rebuild(channel, channel.size(), digestFields);
+        }
+        final DictionaryZipArchiveOutputStream archiveOutputStream =
+                (DictionaryZipArchiveOutputStream) createAppendArchiveOutputStream(path);
+        // recorded again by the next checkpoints
+        archiveOutputStream.resumedDigests = digests;
+        return archiveOutputStream;
+    }
+
+    @Override
+    protected ArchiveInputStream createArchiveInputStream(InputStream inputStream) throws IOException {
+        return new ZipArchiveInputStream(inputStream);
     }
 
     /**
@@ -139,44 +393,42 @@ public class ZipArchive extends AbstractArchive implements Archive {
      */
     @Override
     public Path decompress(Path path) throws IOException {
-        Path decompressDir = removeExtension(path);
+        Path decompressDir = removeExtension(path, getExtension());
 
         logger.debug("reading archive file " + path);
 
-        try (ZipFile zipFile = new ZipFile(path.toString())) {
+        try (ZipFile zipFile = openZipFile(path)) {
 
             // creates a new decompress folder to not override if already exists
             // if you do not want this behavior, just comment this line
             decompressDir = createFile(ArchiveAction.DECOMPRESS, decompressDir.getParent(), decompressDir);
 
-            createDirectories(decompressDir);
-
             logger.debug("creating the decompress destination directory " + decompressDir);
 
-            Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
-            while (entries.hasMoreElements()) {
-                final ZipArchiveEntry zipArchiveEntry = entries.nextElement();
-
-                if (zipFile.canReadEntryData(zipArchiveEntry)) {
-                    final String entryName = zipArchiveEntry.getName();
-                    final InputStream archiveInputStream = zipFile.getInputStream(zipArchiveEntry);
-                    final Path target = Paths.get(decompressDir.toString(), entryName);
-                    final Path parent = target.getParent();
+            final byte[] dictionary = readDictionary(zipFile);
 
-                    if (parent != null && !exists(parent)) {
-                        createDirectories(parent);
-                    }
+            try (ExtractionWriter writer = new ExtractionWriter(decompressDir, getFsyncMode(), getThrottle(),
+                    getExtractionLimits(), null)) {
+                Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+                while (entries.hasMoreElements()) {
+                    final ZipArchiveEntry zipArchiveEntry = entries.nextElement();
 
-                    logger.debug("reading compressed path " + entryName);
+                    if (canReadEntryData(zipFile, zipArchiveEntry, dictionary)
+                            && !DICTIONARY_ENTRY.equals(zipArchiveEntry.getName())) {
+                        final String entryName = zipArchiveEntry.getName();
 
-                    if (!zipArchiveEntry.isDirectory()) {
-                        try (OutputStream outputStream = new BufferedOutputStream(newOutputStream(target))) {
+                        logger.debug("reading compressed path " + entryName);
 
+                        if (zipArchiveEntry.isDirectory()) {
+                            writer.createDirectory(entryName);
+                        } else {
                             logger.debug("writting compressed " + entryName + " file in the decompress directory");
 
-//                            byte[] content = new byte[(int) zipArchiveEntry.getSize()];
-//                            outputStream.write(content);
-                            IOUtils.copy(archiveInputStream, outputStream);
+                            try (InputStream archiveInputStream = getInputStream(zipFile, zipArchiveEntry, dictionary,
+                                    getThrottle())) {
+                                writer.write(entryName, zipArchiveEntry.getSize(), zipArchiveEntry.getCompressedSize(),
+                                        archiveInputStream, EntryDigest.load(zipArchiveEntry));
+                            }
                         }
                     }
                 }
@@ -188,4 +440,421 @@ public class ZipArchive extends AbstractArchive implements Archive {
 
         return decompressDir;
     }
+
+    /**
+     * Override to read the entries through the ZipFile class. When the target
+     * is a zip too, the entries are copied raw, without being recompressed.
+     */
+    @Override
+    protected void transcodeEntries(Path path, AbstractArchive target, ArchiveOutputStream archiveOutputStream,
+                                    ArchiveEntryFilter filter) throws IOException {
+        try (ZipFile zipFile = openZipFile(path)) {
+            if (archiveOutputStream instanceof ZipArchiveOutputStream) {
+                copyRawEntries(zipFile, target, (ZipArchiveOutputStream) archiveOutputStream, filter,
+                        new HashSet<String>(), null);
+                return;
+            }
+            final byte[] dictionary = readDictionary(zipFile);
+            for (ZipArchiveEntry zipArchiveEntry : Collections.list(zipFile.getEntries())) {
+                if (!DICTIONARY_ENTRY.equals(zipArchiveEntry.getName())
+                        && canReadEntryData(zipFile, zipArchiveEntry, dictionary)
+                        && (filter == null || filter.accept(zipArchiveEntry))) {
+                    try (InputStream inputStream = getInputStream(zipFile, zipArchiveEntry, dictionary, getThrottle())) {
+                        target.transcodeEntry(zipArchiveEntry, inputStream, archiveOutputStream);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a new zip archive with the entries of the given zip archives
+     * accepted by the filter, all when it is null. The entries are copied
+     * raw, keeping their compressed data, CRC and sizes, and when a name is
+     * found in more than one archive the first entry wins.
+     */
+    public Path merge(Path target, ArchiveEntryFilter filter, Path... sources) throws IOException {
+        final Path merge = createFile(ArchiveAction.COMPRESS, target.getParent(), target);
+
+        logger.debug("merging " + sources.length + " archive files to " + merge);
+
+        try (ZipArchiveOutputStream zipArchiveOutputStream = (ZipArchiveOutputStream) createArchiveOutputStream(merge)) {
+            final Set<String> names = new HashSet<>();
+            byte[] dictionary = null;
+            for (Path source : sources) {
+                try (ZipFile zipFile = openZipFile(source)) {
+                    dictionary = copyRawEntries(zipFile, this, zipArchiveOutputStream, filter, names, dictionary);
+                }
+            }
+            zipArchiveOutputStream.finish();
+        } catch (IOException | RuntimeException e) {
+            deleteIfExists(merge);
+            throw e;
+        }
+
+        logger.debug("finishing the archive file: " + merge);
+
+        return merge;
+    }
+
+    /**
+     * Writes a new zip archive with only the entries accepted by the filter,
+     * copied raw.
+     */
+    public Path filter(Path path, ArchiveEntryFilter filter) throws IOException {
+        return transcode(path, this, filter);
+    }
+
+    /**
+     * Copies the accepted entries of the zip file raw, skipping the names
+     * already written. The written archive holds a single preset dictionary,
+     * the first one found, so the entries compressed with another dictionary
+     * are inflated and deflated again.
+     *
+     * @return the preset dictionary of the written archive or null if it has none
+     */
+    private byte[] copyRawEntries(ZipFile zipFile, AbstractArchive target, ZipArchiveOutputStream zipArchiveOutputStream,
+                                  ArchiveEntryFilter filter, Set<String> names, byte[] targetDictionary) throws IOException {
+        final byte[] dictionary = readDictionary(zipFile);
+        if (dictionary != null && targetDictionary == null) {
+            copyRawEntry(zipFile, zipFile.getEntry(DICTIONARY_ENTRY), target, zipArchiveOutputStream);
+            names.add(DICTIONARY_ENTRY);
+            targetDictionary = dictionary;
+        }
+
+        for (ZipArchiveEntry zipArchiveEntry : Collections.list(zipFile.getEntries())) {
+            final String entryName = zipArchiveEntry.getName();
+            if (DICTIONARY_ENTRY.equals(entryName) || (filter != null && !filter.accept(zipArchiveEntry))) {
+                continue;
+            }
+            if (!names.add(entryName)) {
+                logger.debug("skipping duplicated entry " + entryName);
+                continue;
+            }
+
+            if (zipArchiveEntry.getMethod() == DICTIONARY_METHOD && !Arrays.equals(dictionary, targetDictionary)) {
+                if (canReadEntryData(zipFile, zipArchiveEntry, dictionary)) {
+                    try (InputStream inputStream = getInputStream(zipFile, zipArchiveEntry, dictionary, getThrottle())) {
+                        target.transcodeEntry(zipArchiveEntry, inputStream, zipArchiveOutputStream);
+                    }
+                }
+            } else {
+                copyRawEntry(zipFile, zipArchiveEntry, target, zipArchiveOutputStream);
+            }
+        }
+        return targetDictionary;
+    }
+
+    private void copyRawEntry(ZipFile zipFile, ZipArchiveEntry zipArchiveEntry, AbstractArchive target,
+                              ZipArchiveOutputStream zipArchiveOutputStream) throws IOException {
+        logger.debug("copying raw " + zipArchiveEntry.getName() + " path in the archive output stream");
+
+        final ZipArchiveEntry entry = new ZipArchiveEntry(zipArchiveEntry);
+        target.normalizeEntry(entry);
+        try (InputStream rawInputStream = new ThrottledInputStream(zipFile.getRawInputStream(zipArchiveEntry),
+                getThrottle(), target.getThrottle())) {
+            zipArchiveOutputStream.addRawArchiveEntry(entry, rawInputStream);
+        }
+    }
+
+    /**
+     * Override to check the entries in parallel through the ZipFile class,
+     * comparing the CRC32 of each entry data with the one stored in the
+     * central directory.
+     */
+    @Override
+    public boolean verify(Path path) throws IOException {
+        logger.debug("verifying archive file " + path);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(getThreads());
+        // the segments of a split zip archive are read as one channel
+        try (SeekableByteChannel channel = exists(splitSegment(path, 1))
+                ? ZipSplitReadOnlySeekableByteChannel.buildFromLastSplitSegment(path.toFile())
+                : FileChannel.open(path, READ)) {
+            try (final ZipFile zipFile = new ZipFile(channel)) {
+                final byte[] dictionary = readDictionary(zipFile);
+                final List<Future<Boolean>> results = new ArrayList<>();
+                for (final ZipArchiveEntry zipArchiveEntry : Collections.list(zipFile.getEntries())) {
+                    if (zipArchiveEntry.isDirectory()) {
+                        continue;
+                    }
+                    results.add(executor.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws IOException {
+                            return verifyEntry(zipFile, zipArchiveEntry, dictionary);
+                        }
+                    }));
+                }
+
+                for (Future<Boolean> result : results) {
+                    if (!result.get()) {
+                        return false;
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("archive file " + path + " is corrupted: " + e.getMessage());
+                return false;
+            } catch (ExecutionException e) {
+                logger.warn("archive file " + path + " is corrupted: " + e.getCause().getMessage());
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("verify of " + path + " interrupted");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        logger.debug("archive file " + path + " verified");
+
+        return true;
+    }
+
+    private boolean verifyEntry(ZipFile zipFile, ZipArchiveEntry zipArchiveEntry, byte[] dictionary) throws IOException {
+        final String entryName = zipArchiveEntry.getName();
+        if (!canReadEntryData(zipFile, zipArchiveEntry, dictionary)) {
+            logger.warn("entry " + entryName + " cannot be read, unsupported zip feature");
+            return false;
+        }
+
+        try (CheckedInputStream inputStream = new CheckedInputStream(getInputStream(zipFile, zipArchiveEntry, dictionary), new CRC32())) {
+            if (!verifyEntry(zipArchiveEntry, inputStream)) {
+                return false;
+            }
+
+            final long crc = inputStream.getChecksum().getValue();
+            if (zipArchiveEntry.getCrc() != -1 && zipArchiveEntry.getCrc() != crc) {
+                logger.warn("entry " + entryName + " CRC32 mismatch, expected " + Long.toHexString(zipArchiveEntry.getCrc())
+                        + " but was " + Long.toHexString(crc));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the preset dictionary of the archive or null if it has none
+     */
+    static byte[] readDictionary(ZipFile zipFile) throws IOException {
+        final ZipArchiveEntry entry = zipFile.getEntry(DICTIONARY_ENTRY);
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+    static boolean canReadEntryData(ZipFile zipFile, ZipArchiveEntry entry, byte[] dictionary) {
+        if (entry.getMethod() == DICTIONARY_METHOD) {
+            return dictionary != null;
+        }
+        return zipFile.canReadEntryData(entry);
+    }
+
+    static InputStream getInputStream(ZipFile zipFile, ZipArchiveEntry entry, byte[] dictionary) throws IOException {
+        return getInputStream(zipFile, entry, dictionary, null);
+    }
+
+    /**
+     * Opens the entry data, applying the read rate of the throttle, if not
+     * null, to the compressed bytes as they are read. The entries of other
+     * methods than stored and deflated are decompressed by the ZipFile, with
+     * their whole compressed size acquired up front.
+     */
+    static InputStream getInputStream(ZipFile zipFile, ZipArchiveEntry entry, byte[] dictionary,
+                                      Throttle throttle) throws IOException {
+        final int method = entry.getMethod();
+        if (method != DICTIONARY_METHOD && (throttle == null
+                || method != ZipArchiveEntry.STORED && method != ZipArchiveEntry.DEFLATED)) {
+            if (throttle != null) {
+                throttle.acquireRead(entry.getCompressedSize());
+            }
+            return zipFile.getInputStream(entry);
+        }
+
+        InputStream rawInputStream = zipFile.getRawInputStream(entry);
+        if (throttle != null) {
+            rawInputStream = new ThrottledInputStream(rawInputStream, throttle);
+        }
+        if (method == ZipArchiveEntry.STORED) {
+            return rawInputStream;
+        }
+
+        final Inflater inflater = new Inflater(true);
+        if (method == DICTIONARY_METHOD) {
+            inflater.setDictionary(dictionary);
+        }
+        // raw inflate may need an extra dummy byte after the data, as done by java.util.zip.ZipFile
+        return new InflaterInputStream(new SequenceInputStream(rawInputStream, new ByteArrayInputStream(new byte[1])), inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Builds a compact index of the archive entries from its central directory,
+     * which must be closed to release the archive file.
+     */
+    public ArchiveIndex index(Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, READ);
+        try {
+            return ArchiveIndex.ofZip(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the zip file, reading the segments of a split zip archive
+     * together with its last segment.
+     */
+    static ZipFile openZipFile(Path path) throws IOException {
+        if (exists(splitSegment(path, 1))) {
+            return new ZipFile(ZipSplitReadOnlySeekableByteChannel.buildFromLastSplitSegment(path.toFile()));
+        }
+        return new ZipFile(path.toString());
+    }
+
+    /**
+     * Zip output stream keeping the preset dictionary deflater of the archive being written.
+     */
+    private static class DictionaryZipArchiveOutputStream extends ZipArchiveOutputStream {
+
+        private final boolean append;
+
+        private Deflater deflater;
+
+        private byte[] dictionary;
+
+        private Path splitPath;
+
+        private VolumeListener volumeListener;
+
+        private int closedSegments;
+
+        // entries whose digest is not in their local header
+        private final List<ZipArchiveEntry> digestedAfterData = new ArrayList<>();
+
+        private Map<String, String> resumedDigests = Collections.emptyMap();
+
+        DictionaryZipArchiveOutputStream(OutputStream outputStream) {
+            super(outputStream);
+            this.append = false;
+        }
+
+        DictionaryZipArchiveOutputStream(File file) throws IOException {
+            super(file);
+            this.append = false;
+        }
+
+        DictionaryZipArchiveOutputStream(File file, long splitSize, VolumeListener volumeListener) throws IOException {
+            super(file, splitSize);
+            this.append = false;
+            this.splitPath = file.toPath();
+            this.volumeListener = volumeListener;
+        }
+
+        DictionaryZipArchiveOutputStream(ZipAppendChannel channel) {
+            super(channel);
+            this.append = true;
+        }
+
+        boolean isAppend() {
+            return append;
+        }
+
+        Deflater getDeflater() {
+            return deflater;
+        }
+
+        void setDictionary(byte[] dictionary, int level) {
+            this.dictionary = dictionary;
+            this.deflater = new Deflater(level, true);
+            this.deflater.setDictionary(dictionary);
+        }
+
+        void resetDeflater() {
+            deflater.reset();
+            deflater.setDictionary(dictionary);
+        }
+
+        /**
+         * @return the digests, by entry name, written after the data of the
+         * entries, including the ones of the resumed checkpoint
+         */
+        Map<String, String> getDigests() {
+            final Map<String, String> digests = new LinkedHashMap<>(resumedDigests);
+            for (ZipArchiveEntry entry : digestedAfterData) {
+                final String digest = EntryDigest.load(entry);
+                if (digest != null) {
+                    digests.put(entry.getName(), digest);
+                }
+            }
+            return digests;
+        }
+
+        @Override
+        public void putArchiveEntry(ZipArchiveEntry entry) throws IOException {
+            super.putArchiveEntry(entry);
+            if (EntryDigest.load(entry) == null) {
+                digestedAfterData.add(entry);
+            }
+        }
+
+        @Override
+        public void closeArchiveEntry() throws IOException {
+            super.closeArchiveEntry();
+            segmentsClosed(false);
+        }
+
+        @Override
+        public void addRawArchiveEntry(ZipArchiveEntry entry, InputStream rawStream) throws IOException {
+            super.addRawArchiveEntry(entry, rawStream);
+            if (EntryDigest.load(entry) == null) {
+                digestedAfterData.add(entry);
+            }
+            segmentsClosed(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+            segmentsClosed(true);
+        }
+
+        /**
+         * Hands the closed split segments to the volume listener. A segment
+         * is closed once the next one exists, the last one is renamed to the
+         * archive name when the stream is closed.
+         */
+        private void segmentsClosed(boolean finished) throws IOException {
+            if (splitPath == null || volumeListener == null) {
+                return;
+            }
+            while (exists(splitSegment(splitPath, closedSegments + 2))
+                    || finished && exists(splitSegment(splitPath, closedSegments + 1))) {
+                volumeListener.volumeClosed(splitSegment(splitPath, ++closedSegments));
+            }
+            if (finished) {
+                volumeListener.volumeClosed(splitPath);
+                splitPath = null;
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,381 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Zip central directory location and records, as described by the zip
+ * APPNOTE. Only single disk archives are supported.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+final class ZipCentralDirectory {
+
+    static final int LFH_SIG = 0x04034b50;
+    static final int CFH_SIG = 0x02014b50;
+    static final int EOCD_SIG = 0x06054b50;
+    static final int ZIP64_EOCD_SIG = 0x06064b50;
+    static final int ZIP64_EOCD_LOCATOR_SIG = 0x07064b50;
+
+    static final int LFH_LENGTH = 30;
+    static final int CFH_LENGTH = 46;
+    static final int EOCD_LENGTH = 22;
+    static final int ZIP64_EOCD_LENGTH = 56;
+    static final int ZIP64_EOCD_LOCATOR_LENGTH = 20;
+
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    /**
+     * Absolute offset of the first central directory record.
+     */
+    final long offset;
+
+    final long size;
+
+    final long entries;
+
+    final byte[] comment;
+
+    private ZipCentralDirectory(long offset, long size, long entries, byte[] comment) {
+        this.offset = offset;
+        this.size = size;
+        this.entries = entries;
+        this.comment = comment;
+    }
+
+    /**
+     * Locates the central directory of the zip data stored between base and
+     * end. Offsets recorded in the zip are relative to base.
+     */
+    static ZipCentralDirectory locate(SeekableByteChannel channel, long base, long end) throws IOException {
+        final long min = Math.max(base, end - EOCD_LENGTH - MAX_COMMENT_LENGTH);
+        final ByteBuffer tail = read(channel, min, (int) (end - min));
+
+        for (int i = tail.limit() - EOCD_LENGTH; i >= 0; i--) {
+            if (tail.getInt(i) != EOCD_SIG) {
+                continue;
+            }
+            final int commentLength = tail.getShort(i + 20) & 0xFFFF;
+            if (i + EOCD_LENGTH + commentLength != tail.limit()) {
+                continue;
+            }
+
+            long entries = tail.getShort(i + 10) & 0xFFFF;
+            long size = tail.getInt(i + 12) & ZIP64_MAGIC;
+            long offset = tail.getInt(i + 16) & ZIP64_MAGIC;
+            final byte[] comment = new byte[commentLength];
+            tail.position(i + EOCD_LENGTH);
+            tail.get(comment);
+
+            final long eocd = min + i;
+            if (eocd - ZIP64_EOCD_LOCATOR_LENGTH >= base) {
+                ByteBuffer locator = read(channel, eocd - ZIP64_EOCD_LOCATOR_LENGTH, ZIP64_EOCD_LOCATOR_LENGTH);
+                if (locator.getInt(0) == ZIP64_EOCD_LOCATOR_SIG) {
+                    ByteBuffer zip64 = read(channel, base + locator.getLong(8), ZIP64_EOCD_LENGTH);
+                    if (zip64.getInt(0) != ZIP64_EOCD_SIG) {
+                        throw new IOException("Corrupted zip64 end of central directory record");
+                    }
+                    entries = zip64.getLong(32);
+                    size = zip64.getLong(40);
+                    offset = zip64.getLong(48);
+                }
+            }
+            return new ZipCentralDirectory(base + offset, size, entries, comment);
+        }
+        throw new IOException("End of central directory record not found");
+    }
+
+    /**
+     * Writes the end of central directory records, using the zip64 variant
+     * only when the values do not fit in the classic record.
+     */
+    static byte[] endRecords(long offset, long size, long entries, byte[] comment) {
+        final boolean zip64 = entries >= ZIP64_MAGIC_SHORT || size >= ZIP64_MAGIC || offset >= ZIP64_MAGIC;
+        final ByteBuffer buffer = allocate((zip64 ? ZIP64_EOCD_LENGTH + ZIP64_EOCD_LOCATOR_LENGTH : 0)
+                + EOCD_LENGTH + comment.length);
+
+        if (zip64) {
+            final long zip64Offset = offset + size;
+            buffer.putInt(ZIP64_EOCD_SIG)
+                    .putLong(ZIP64_EOCD_LENGTH - 12)
+                    .putShort((short) 45)
+                    .putShort((short) 45)
+                    .putInt(0)
+                    .putInt(0)
+                    .putLong(entries)
+                    .putLong(entries)
+                    .putLong(size)
+                    .putLong(offset);
+            buffer.putInt(ZIP64_EOCD_LOCATOR_SIG)
+                    .putInt(0)
+                    .putLong(zip64Offset)
+                    .putInt(1);
+        }
+
+        final short eocdEntries = (short) Math.min(entries, ZIP64_MAGIC_SHORT);
+        buffer.putInt(EOCD_SIG)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort(eocdEntries)
+                .putShort(eocdEntries)
+                .putInt((int) Math.min(size, ZIP64_MAGIC))
+                .putInt((int) Math.min(offset, ZIP64_MAGIC))
+                .putShort((short) comment.length)
+                .put(comment);
+
+        return buffer.array();
+    }
+
+    /**
+     * Returns the given central directory records with their local header
+     * offsets moved by delta bytes, switching a record to its zip64 form when
+     * the new offset does not fit in 32 bits.
+     */
+    static byte[] relocate(ByteBuffer records, long delta) throws IOException {
+        final ByteArrayOutputStream relocated = new ByteArrayOutputStream(records.remaining());
+        while (records.hasRemaining()) {
+            final int start = records.position();
+            if (records.remaining() < CFH_LENGTH || records.getInt(start) != CFH_SIG) {
+                throw new IOException("Corrupted central directory record");
+            }
+            final int nameLength = records.getShort(start + 28) & 0xFFFF;
+            final int extraLength = records.getShort(start + 30) & 0xFFFF;
+            final int commentLength = records.getShort(start + 32) & 0xFFFF;
+            final int length = CFH_LENGTH + nameLength + extraLength + commentLength;
+
+            final byte[] record = new byte[length];
+            records.get(record);
+            relocated.write(relocate(record, nameLength, extraLength, delta));
+        }
+        return relocated.toByteArray();
+    }
+
+    private static byte[] relocate(byte[] record, int nameLength, int extraLength, long delta) {
+        final ByteBuffer buffer = wrap(record);
+        final long compressedSize = buffer.getInt(20) & ZIP64_MAGIC;
+        final long size = buffer.getInt(24) & ZIP64_MAGIC;
+        final int diskStart = buffer.getShort(34) & 0xFFFF;
+        final long offset = buffer.getInt(42) & ZIP64_MAGIC;
+
+        if (offset != ZIP64_MAGIC && offset + delta < ZIP64_MAGIC) {
+            buffer.putInt(42, (int) (offset + delta));
+            return record;
+        }
+
+        // the zip64 extra field holds, in order, only the values whose fixed field is the magic
+        final int extraStart = CFH_LENGTH + nameLength;
+        final ByteBuffer extra = allocate(extraLength + 32);
+        long zip64Size = size, zip64CompressedSize = compressedSize, zip64Offset = offset, zip64DiskStart = diskStart;
+
+        int i = extraStart;
+        while (i + 4 <= extraStart + extraLength) {
+            final int id = buffer.getShort(i) & 0xFFFF;
+            final int length = buffer.getShort(i + 2) & 0xFFFF;
+            if (id == ZIP64_EXTRA_ID) {
+                int j = i + 4;
+                if (size == ZIP64_MAGIC) {
+                    zip64Size = buffer.getLong(j);
+                    j += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC) {
+                    zip64CompressedSize = buffer.getLong(j);
+                    j += 8;
+                }
+                if (offset == ZIP64_MAGIC) {
+                    zip64Offset = buffer.getLong(j);
+                    j += 8;
+                }
+                if (diskStart == ZIP64_MAGIC_SHORT) {
+                    zip64DiskStart = buffer.getInt(j);
+                }
+            } else {
+                extra.put(record, i, Math.min(4 + length, extraStart + extraLength - i));
+            }
+            i += 4 + length;
+        }
+
+        final int zip64Length = (size == ZIP64_MAGIC ? 8 : 0) + (compressedSize == ZIP64_MAGIC ? 8 : 0) + 8
+                + (diskStart == ZIP64_MAGIC_SHORT ? 4 : 0);
+        extra.putShort((short) ZIP64_EXTRA_ID).putShort((short) zip64Length);
+        if (size == ZIP64_MAGIC) {
+            extra.putLong(zip64Size);
+        }
+        if (compressedSize == ZIP64_MAGIC) {
+            extra.putLong(zip64CompressedSize);
+        }
+        extra.putLong(zip64Offset + delta);
+        if (diskStart == ZIP64_MAGIC_SHORT) {
+            extra.putInt((int) zip64DiskStart);
+        }
+
+        final int commentLength = record.length - extraStart - extraLength;
+        final ByteBuffer result = allocate(extraStart + extra.position() + commentLength);
+        result.put(record, 0, extraStart)
+                .put(extra.array(), 0, extra.position())
+                .put(record, extraStart + extraLength, commentLength);
+        result.putShort(6, (short) Math.max(result.getShort(6) & 0xFFFF, 45));
+        result.putShort(30, (short) extra.position());
+        result.putInt(42, (int) ZIP64_MAGIC);
+        return result.array();
+    }
+
+    /**
+     * Rebuilds the central directory of a zip whose end was cut, from the
+     * local headers of the entries stored before the end offset, and writes
+     * it with the end records at that offset. The local headers must hold
+     * the entries sizes, so entries followed by a data descriptor are not
+     * supported. The central extra fields by entry name, missing from the
+     * local headers, are appended to the records of these entries.
+     */
+    static void rebuild(SeekableByteChannel channel, long end, Map<String, byte[]> centralExtraFields) throws IOException {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        long entries = 0;
+        long position = 0;
+        while (position + LFH_LENGTH <= end) {
+            final ByteBuffer header = read(channel, position, LFH_LENGTH);
+            if (header.getInt(0) != LFH_SIG) {
+                break;
+            }
+            final int flags = header.getShort(6) & 0xFFFF;
+            if ((flags & 8) != 0) {
+                throw new IOException("Zip entry at offset " + position + " has its sizes in a data descriptor");
+            }
+            final int nameLength = header.getShort(26) & 0xFFFF;
+            final int extraLength = header.getShort(28) & 0xFFFF;
+            final ByteBuffer variable = read(channel, position + LFH_LENGTH, nameLength + extraLength);
+
+            long compressedSize = header.getInt(18) & ZIP64_MAGIC;
+            long size = header.getInt(22) & ZIP64_MAGIC;
+            final byte[] centralExtraField = centralExtraFields.get(
+                    new String(variable.array(), 0, nameLength, StandardCharsets.UTF_8));
+            // the zip64 extra field of a local header holds both sizes
+            final ByteBuffer extra = allocate(extraLength + 32 + (centralExtraField == null ? 0 : centralExtraField.length));
+            int i = nameLength;
+            while (i + 4 <= nameLength + extraLength) {
+                final int id = variable.getShort(i) & 0xFFFF;
+                final int length = variable.getShort(i + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA_ID && length >= 16) {
+                    if (size == ZIP64_MAGIC) {
+                        size = variable.getLong(i + 4);
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = variable.getLong(i + 12);
+                    }
+                } else if (id != ZIP64_EXTRA_ID) {
+                    extra.put(variable.array(), i, Math.min(4 + length, nameLength + extraLength - i));
+                }
+                i += 4 + length;
+            }
+
+            final long next = position + LFH_LENGTH + nameLength + extraLength + compressedSize;
+            if (next > end) {
+                break;
+            }
+
+            final boolean zip64 = size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC || position >= ZIP64_MAGIC;
+            if (zip64) {
+                final int zip64Length = (size >= ZIP64_MAGIC ? 8 : 0) + (compressedSize >= ZIP64_MAGIC ? 8 : 0)
+                        + (position >= ZIP64_MAGIC ? 8 : 0);
+                extra.putShort((short) ZIP64_EXTRA_ID).putShort((short) zip64Length);
+                if (size >= ZIP64_MAGIC) {
+                    extra.putLong(size);
+                }
+                if (compressedSize >= ZIP64_MAGIC) {
+                    extra.putLong(compressedSize);
+                }
+                if (position >= ZIP64_MAGIC) {
+                    extra.putLong(position);
+                }
+            }
+            if (centralExtraField != null) {
+                extra.put(centralExtraField);
+            }
+
+            final boolean directory = nameLength > 0 && variable.get(nameLength - 1) == '/';
+            final ByteBuffer record = allocate(CFH_LENGTH + nameLength + extra.position());
+            record.putInt(CFH_SIG)
+                    .putShort((short) (zip64 ? 45 : 20))
+                    .putShort((short) (zip64 ? 45 : header.getShort(4) & 0xFFFF))
+                    .putShort((short) flags)
+                    .putShort(header.getShort(8))
+                    .putInt(header.getInt(10))
+                    .putInt(header.getInt(14))
+                    .putInt((int) Math.min(compressedSize, ZIP64_MAGIC))
+                    .putInt((int) Math.min(size, ZIP64_MAGIC))
+                    .putShort((short) nameLength)
+                    .putShort((short) extra.position())
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putInt(directory ? 0x10 : 0)
+                    .putInt((int) Math.min(position, ZIP64_MAGIC))
+                    .put(variable.array(), 0, nameLength)
+                    .put(extra.array(), 0, extra.position());
+            records.write(record.array());
+
+            entries++;
+            position = next;
+        }
+
+        final byte[] centralDirectory = records.toByteArray();
+        channel.truncate(position);
+        channel.position(position);
+        write(channel, ByteBuffer.wrap(centralDirectory));
+        write(channel, ByteBuffer.wrap(endRecords(position, centralDirectory.length, entries, new byte[0])));
+    }
+
+    private static void write(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static ByteBuffer read(SeekableByteChannel channel, long position, int length) throws IOException {
+        final ByteBuffer buffer = allocate(length);
+        channel.position(position);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of zip archive at offset " + channel.position());
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer allocate(int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer wrap(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
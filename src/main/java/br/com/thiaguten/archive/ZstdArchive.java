@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Zstandard Archive Implementation, requires the zstd-jni library.
+ *
+ * @author Thiago Gutenberg Carvalho da Costa
+ */
+public class ZstdArchive extends CompressedTarArchive {
+
+    private static final int DEFAULT_LEVEL = 3;
+
+    private static final int MAX_LEVEL = 22;
+
+    @Override
+    public String getName() {
+        return "ZstdArchive";
+    }
+
+    @Override
+    public String getMimeType() {
+        return "application/zstd";
+    }
+
+    @Override
+    public String getExtension() {
+        return ".tar.zst";
+    }
+
+    /**
+     * The zstd level, from 1 to 22, -1 means the default level 3. The
+     * negative fast levels are not supported.
+     */
+    @Override
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel != -1 && (compressionLevel < 1 || compressionLevel > MAX_LEVEL)) {
+            throw new IllegalArgumentException("zstd compression level must be between 1 and " + MAX_LEVEL + ", or -1");
+        }
+        super.setCompressionLevel(compressionLevel);
+    }
+
+    @Override
+    protected OutputStream createCompressorOutputStream(OutputStream outputStream, int level) throws IOException {
+        // the frame checksum lets verify detect corrupted data
+        return new ZstdCompressorOutputStream(outputStream, level == -1 ? DEFAULT_LEVEL : level, false, true);
+    }
+
+    @Override
+    protected InputStream createCompressorInputStream(InputStream inputStream) throws IOException {
+        return new ZstdCompressorInputStream(inputStream);
+    }
+
+    /**
+     * 8MB, the zstd window size of the highest levels.
+     */
+    @Override
+    protected int getDefaultBlockSize(int level) {
+        return 8 * 1024 * 1024;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static br.com.thiaguten.archive.TestFiles.deleteNotEmptyDirectory;
+import static java.nio.file.Files.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdaptiveCompressionTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = createTempDirectory("adaptive");
+        Path data = createDirectory(dir.resolve("data"));
+
+        byte[] random = new byte[256 * 1024];
+        new Random(42).nextBytes(random);
+        write(data.resolve("random.bin"), random);
+
+        char[] text = new char[256 * 1024];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = "lorem ipsum dolor sit amet ".charAt(i % 27);
+        }
+        write(data.resolve("text.txt"), new String(text).getBytes("UTF-8"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        deleteNotEmptyDirectory(dir);
+    }
+
+    @Test
+    public void zipStoresIncompressibleEntries() throws IOException {
+        ZipArchive archive = new ZipArchive();
+        archive.setAdaptiveCompression(AdaptiveCompression.throughput(0.001));
+        Path compress = archive.compress(dir.resolve("data"));
+
+        try (ZipFile zipFile = new ZipFile(compress.toFile())) {
+            assertEquals(ZipArchiveEntry.STORED, zipFile.getEntry("data/random.bin").getMethod());
+            assertEquals(ZipArchiveEntry.DEFLATED, zipFile.getEntry("data/text.txt").getMethod());
+        }
+        assertTrue(archive.verify(compress));
+        assertRoundTrip(archive, compress);
+    }
+
+    @Test
+    public void gzipChangesLevelBetweenEntries() throws IOException {
+        GzipArchive archive = new GzipArchive();
+        archive.setAdaptiveCompression(AdaptiveCompression.deadline(1, TimeUnit.HOURS));
+        Path compress = archive.compress(dir.resolve("data"));
+
+        assertTrue(size(compress) < 256 * 1024 + 8 * 1024);
+        assertRoundTrip(archive, compress);
+    }
+
+    @Test
+    public void expiredDeadlineStoresEntries() throws IOException {
+        AdaptiveCompression adaptiveCompression = AdaptiveCompression.deadline(1, TimeUnit.NANOSECONDS);
+        adaptiveCompression.start(1);
+        assertEquals(AdaptiveCompression.Level.STORE,
+                adaptiveCompression.choose(dir.resolve("data/text.txt"), size(dir.resolve("data/text.txt"))));
+    }
+
+    @Test
+    public void compressibleSampleWithLowTargetIsStronglyCompressed() throws IOException {
+        AdaptiveCompression adaptiveCompression = AdaptiveCompression.throughput(0.001);
+        adaptiveCompression.setSampleSize(4096);
+        assertEquals(AdaptiveCompression.Level.STRONG,
+                adaptiveCompression.choose(dir.resolve("data/text.txt"), size(dir.resolve("data/text.txt"))));
+    }
+
+    @Test
+    public void smallFilesReuseTheLastSampleThroughput() throws IOException {
+        AdaptiveCompression adaptiveCompression = AdaptiveCompression.throughput(0.001);
+        adaptiveCompression.setSampleSize(4096);
+        assertEquals(AdaptiveCompression.Level.STRONG,
+                adaptiveCompression.choose(dir.resolve("data/text.txt"), size(dir.resolve("data/text.txt"))));
+        // not read, smaller than a sample
+        assertEquals(AdaptiveCompression.Level.STRONG, adaptiveCompression.choose(dir.resolve("missing.txt"), 100));
+    }
+
+    @Test
+    public void formatsWithOneCompressorRejectAdaptiveCompression() {
+        for (AbstractArchive archive : new AbstractArchive[]{new TarArchive(), new ZstdArchive(), new XzArchive()}) {
+            try {
+                archive.setAdaptiveCompression(AdaptiveCompression.throughput(1));
+                fail(archive.getName() + " should reject adaptive compression");
+            } catch (UnsupportedOperationException expectedException) {
+                assertNull(archive.getAdaptiveCompression());
+            }
+            archive.setAdaptiveCompression(null);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidThroughput() {
+        AdaptiveCompression.throughput(0);
+    }
+
+    private void assertRoundTrip(Archive archive, Path compress) throws IOException {
+        Path decompress = archive.decompress(compress);
+        for (String name : Arrays.asList("random.bin", "text.txt")) {
+            assertArrayEquals(readAllBytes(dir.resolve("data").resolve(name)),
+                    readAllBytes(decompress.resolve("data").resolve(name)));
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static br.com.thiaguten.archive.TestFiles.deleteNotEmptyDirectory;
+import static java.nio.file.Files.*;
+import static org.junit.Assert.*;
+
+public class ArchiveCacheTest {
+
+    @Test
+    public void repeatedReadsHitTheCache() throws IOException {
+        for (AbstractArchive archive : new AbstractArchive[]{new ZipArchive(), new GzipArchive()}) {
+            Path compress = archive.compress(Paths.get("src/test/resources/data"));
+            byte[] expected = readAllBytes(Paths.get("src/test/resources/data/dir2/test2.txt"));
+            try (ArchiveCache cache = new ArchiveCache(1024 * 1024, archive instanceof GzipArchive, 2)) {
+                assertArrayEquals(expected, bytes(cache.read(compress, "data/dir2/test2.txt")));
+                assertArrayEquals(expected, bytes(cache.read(compress, "data/dir2/test2.txt")));
+                ArchiveCache.Stats stats = cache.getStats();
+                assertEquals(1, stats.getHits());
+                assertEquals(1, stats.getMisses());
+                assertEquals(1, stats.getEntries());
+                assertEquals(expected.length, stats.getSize());
+
+                try {
+                    cache.read(compress, "data/missing.txt");
+                    fail();
+                } catch (NoSuchFileException expectedException) {
+                    // not an entry of the archive
+                }
+
+                // a rewritten archive is read again
+                setLastModifiedTime(compress, FileTime.fromMillis(getLastModifiedTime(compress).toMillis() - 10000));
+                assertArrayEquals(expected, bytes(cache.read(compress, "data/dir2/test2.txt")));
+                assertEquals(3, cache.getStats().getMisses());
+            }
+            deleteIfExists(compress);
+        }
+    }
+
+    @Test
+    public void concurrentReadsOfEvictedArchives() throws Exception {
+        final Path dir = createTempDirectory("cache");
+        final byte[] expected = new byte[2 * 1024 * 1024];
+        new Random(42).nextBytes(expected);
+        write(createDirectories(dir.resolve("data")).resolve("large.bin"), expected);
+        final Path[] archives = {
+                new ZipArchive().compress(dir.resolve("data")),
+                new GzipArchive().compress(dir.resolve("data"))};
+
+        // a single open index and no cached entries, every read loads while the other archive evicts its index
+        final ArchiveCache cache = new ArchiveCache(0, false, 1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int first = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for (int i = 0; i < 20; i++) {
+                            assertArrayEquals(expected, bytes(cache.read(archives[(first + i) % 2], "data/large.bin")));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            cache.close();
+            deleteNotEmptyDirectory(dir);
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+        Path compress = new ZipArchive().compress(Paths.get("src/test/resources/data"));
+        // room for test.txt and test2.txt, not for a third entry
+        long size = size(Paths.get("src/test/resources/data/dir/test.txt")) + size(Paths.get("src/test/resources/data/dir2/test2.txt"));
+        try (ArchiveCache cache = new ArchiveCache(size + 1)) {
+            cache.read(compress, "data/dir/test.txt");
+            cache.read(compress, "data/dir2/test2.txt");
+            cache.read(compress, "data/dir/test.txt");
+            cache.read(compress, "data/dir2/subdir2/test3.txt");
+            ArchiveCache.Stats stats = cache.getStats();
+            assertEquals(1, stats.getEvictions());
+            assertEquals(2, stats.getEntries());
+
+            // test.txt was used last, test2.txt was evicted
+            cache.read(compress, "data/dir/test.txt");
+            assertEquals(2, cache.getStats().getHits());
+            cache.read(compress, "data/dir2/test2.txt");
+            assertEquals(4, cache.getStats().getMisses());
+        }
+        deleteIfExists(compress);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static br.com.thiaguten.archive.TestFiles.deleteNotEmptyDirectory;
+import static java.nio.file.Files.*;
+import static org.junit.Assert.*;
+
+public class ArchiveCliTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Test
+    public void compressListVerifyAndExtract() throws IOException {
+        assertEquals(0, run("compress", "--format", "tgz", "--level", "9", "--threads", "2", "src/test/resources/data"));
+        Path compress = Paths.get("src/test/resources/data.tgz");
+        assertTrue(exists(compress));
+        assertTrue(output().matches("(?s)compress .*data\\.tgz: 3 entries, 60 bytes, .* MB/s, .* entries/s, ratio .*"));
+
+        assertEquals(0, run("list", compress.toString()));
+        assertTrue(output().contains("data/dir2/subdir2/test3.txt"));
+
+        assertEquals(0, run("verify", compress.toString()));
+        assertTrue(output().matches("(?s)verify .*data\\.tgz: 3 entries, 60 bytes, .*"));
+
+        assertEquals(0, run("extract", compress.toString()));
+        Path decompress = Paths.get(output().replaceAll("(?s)^extract .* to (.*): .*$", "$1"));
+        assertTrue(exists(decompress.resolve("data/dir/test.txt")));
+
+        deleteIfExists(compress);
+        deleteNotEmptyDirectory(decompress);
+    }
+
+    @Test
+    public void batchRunsTheJobsOfTheStandardInput() throws IOException {
+        String jobs = "compress --format zip src/test/resources/data/dir\n"
+                + "# comment\n"
+                + "compress --format tar src/test/resources/data/dir2\n";
+        assertEquals(0, run(new ByteArrayInputStream(jobs.getBytes(StandardCharsets.UTF_8)), "batch", "--jobs", "2"));
+        String output = output();
+        assertTrue(output.contains("dir.zip: 1 entries"));
+        assertTrue(output.contains("dir2.tar: 2 entries"));
+        assertTrue(output.contains("batch of 2 jobs: 3 entries"));
+
+        deleteIfExists(Paths.get("src/test/resources/data/dir.zip"));
+        deleteIfExists(Paths.get("src/test/resources/data/dir2.tar"));
+    }
+
+    @Test
+    public void usageErrors() {
+        assertEquals(2, run());
+        assertEquals(2, run("compress"));
+        assertEquals(2, run("compress", "--format", "rar", "src/test/resources/data"));
+        assertEquals(2, run("list", "a.zip", "b.zip"));
+        assertTrue(new String(err.toByteArray(), StandardCharsets.UTF_8).contains("usage:"));
+
+        assertEquals(1, run("verify", "src/test/resources/missing.zip"));
+    }
+
+    @Test
+    public void formats() {
+        assertEquals(ArchiveType.GZIP, ArchiveCli.formatOf("tgz"));
+        assertEquals(ArchiveType.ZSTD, ArchiveCli.formatOf("tar.zst"));
+        assertEquals(ArchiveType.XZ, ArchiveCli.formatOf(".tar.xz"));
+        assertEquals(ArchiveType.ZIP, ArchiveCli.formatOf("ZIP"));
+    }
+
+    private int run(String... args) {
+        return run(new ByteArrayInputStream(new byte[0]), args);
+    }
+
+    private int run(InputStream in, String... args) {
+        out.reset();
+        return ArchiveCli.run(args, in, new PrintStream(out, true), new PrintStream(err, true));
+    }
+
+    private String output() {
+        return new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+}
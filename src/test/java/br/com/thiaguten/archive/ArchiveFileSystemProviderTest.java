@@ -0,0 +1,172 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static br.com.thiaguten.archive.TestFiles.deleteNotEmptyDirectory;
+import static java.nio.file.Files.*;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static org.junit.Assert.*;
+
+public class ArchiveFileSystemProviderTest {
+
+    @Test
+    public void walkAndReadArchives() throws IOException {
+        for (AbstractArchive archive : new AbstractArchive[]{new ZipArchive(), new TarArchive(), new GzipArchive(),
+                new ZstdArchive(), new XzArchive()}) {
+            Path compress = archive.compress(Paths.get("src/test/resources/data"));
+            URI uri = URI.create("archive:" + compress.toUri() + "!/");
+            try (FileSystem fileSystem = FileSystems.newFileSystem(uri, Collections.<String, Object>emptyMap())) {
+                assertTrue(fileSystem.isReadOnly());
+                assertSame(fileSystem, FileSystems.getFileSystem(uri));
+
+                final List<String> files = new ArrayList<>();
+                walkFileTree(fileSystem.getPath("/"), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        files.add(file.toString());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                Collections.sort(files);
+                assertEquals(Arrays.asList("/data/dir/test.txt", "/data/dir2/subdir2/test3.txt", "/data/dir2/test2.txt"), files);
+
+                Path entry = fileSystem.getPath("data", "dir2", "test2.txt");
+                assertArrayEquals(readAllBytes(Paths.get("src/test/resources/data/dir2/test2.txt")), readAllBytes(entry));
+                assertTrue(isDirectory(fileSystem.getPath("/data/dir2/subdir2")));
+                assertFalse(exists(fileSystem.getPath("/data/missing.txt")));
+                assertEquals(size(Paths.get("src/test/resources/data/dir2/test2.txt")), size(entry));
+                assertEquals(entry.toAbsolutePath(), fileSystem.provider().getPath(entry.toUri()));
+
+                try {
+                    write(entry, new byte[1]);
+                    fail();
+                } catch (ReadOnlyFileSystemException expected) {
+                    // read-only view
+                }
+            }
+            try {
+                FileSystems.getFileSystem(uri);
+                fail();
+            } catch (FileSystemNotFoundException expected) {
+                // closed file systems are unregistered
+            }
+            deleteIfExists(compress);
+        }
+    }
+
+    @Test
+    public void seekAcrossCachedBlocks() throws IOException {
+        final Path data = Paths.get("src/test/resources/blocks");
+        createDirectories(data);
+        byte[] content = new byte[5 * ArchiveFileSystem.BLOCK_SIZE + 123];
+        new Random(42).nextBytes(content);
+        write(data.resolve("file.bin"), content);
+        write(data.resolve("small.txt"), "small".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            for (AbstractArchive archive : new AbstractArchive[]{new ZipArchive(), new TarArchive(), new GzipArchive()}) {
+                Path compress = archive.compress(data);
+                // a cache of two blocks keeps restarting the decoder on backward seeks
+                final String cacheSize = String.valueOf(2 * ArchiveFileSystem.BLOCK_SIZE);
+                try (FileSystem fileSystem = new ArchiveFileSystemProvider().newFileSystem(compress,
+                        Collections.singletonMap(ArchiveFileSystemProvider.CACHE_SIZE, cacheSize))) {
+                    Path entry = fileSystem.getPath("/blocks/file.bin");
+                    try (SeekableByteChannel channel = newByteChannel(entry)) {
+                        assertEquals(content.length, channel.size());
+                        for (long position : new long[]{3 * ArchiveFileSystem.BLOCK_SIZE - 10, 100, content.length - 50, 0}) {
+                            ByteBuffer buffer = ByteBuffer.allocate(1000);
+                            channel.position(position);
+                            int read = channel.read(buffer);
+                            assertEquals(Math.min(1000, content.length - position), read);
+                            assertArrayEquals(Arrays.copyOfRange(content, (int) position, (int) position + read),
+                                    Arrays.copyOf(buffer.array(), read));
+                        }
+                        channel.position(content.length);
+                        assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+                    }
+                    assertArrayEquals(content, readAllBytes(entry));
+                    assertEquals("small", new String(readAllBytes(fileSystem.getPath("/blocks/small.txt")), StandardCharsets.UTF_8));
+                }
+                deleteIfExists(compress);
+            }
+        } finally {
+            deleteNotEmptyDirectory(data);
+        }
+    }
+
+    @Test
+    public void renamedAndAppendedEntries() throws IOException {
+        Path tgz = Paths.get("src/test/resources/renamed.tgz");
+        try {
+            for (String[] member : new String[][]{{"./a/first.txt", "first", "same.txt", "old"}, {"same.txt", "new"}}) {
+                // each member is a gzip member holding its own tar archive, as written by append
+                try (OutputStream file = newOutputStream(tgz, CREATE, APPEND);
+                     TarArchiveOutputStream outputStream = new TarArchiveOutputStream(new GzipCompressorOutputStream(file))) {
+                    for (int i = 0; i < member.length; i += 2) {
+                        byte[] content = member[i + 1].getBytes(StandardCharsets.UTF_8);
+                        TarArchiveEntry entry = new TarArchiveEntry(member[i]);
+                        entry.setSize(content.length);
+                        outputStream.putArchiveEntry(entry);
+                        outputStream.write(content);
+                        outputStream.closeArchiveEntry();
+                    }
+                }
+            }
+
+            try (FileSystem fileSystem = new ArchiveFileSystemProvider().newFileSystem(tgz,
+                    Collections.<String, Object>emptyMap())) {
+                assertEquals("first", new String(readAllBytes(fileSystem.getPath("/a/first.txt")), StandardCharsets.UTF_8));
+                assertEquals("new", new String(readAllBytes(fileSystem.getPath("/same.txt")), StandardCharsets.UTF_8));
+                assertTrue(isDirectory(fileSystem.getPath("/a")));
+                assertFalse(exists(fileSystem.getPath("/a/missing.txt")));
+            }
+        } finally {
+            deleteIfExists(tgz);
+        }
+    }
+
+}
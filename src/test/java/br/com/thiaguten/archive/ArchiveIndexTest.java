@@ -0,0 +1,264 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static java.nio.file.Files.*;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.junit.Assert.*;
+
+public class ArchiveIndexTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = createTempDirectory("index");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path child : AbstractArchive.listChildren(dir)) {
+            deleteIfExists(child);
+        }
+        deleteIfExists(dir);
+    }
+
+    @Test
+    public void zipIndex() throws IOException {
+        ZipArchive archive = new ZipArchive();
+        Path compress = archive.compress(Paths.get("src/test/resources/data"));
+        try (ArchiveIndex index = archive.index(compress)) {
+            assertIndex(index, true);
+        } finally {
+            deleteIfExists(compress);
+        }
+    }
+
+    @Test
+    public void tarIndex() throws IOException {
+        TarArchive archive = new TarArchive();
+        Path compress = archive.compress(Paths.get("src/test/resources/data"));
+        try (ArchiveIndex index = archive.index(compress)) {
+            assertIndex(index, false);
+        } finally {
+            deleteIfExists(compress);
+        }
+    }
+
+    @Test
+    public void zip64IndexWithManyEntries() throws IOException {
+        Path zip = dir.resolve("many.zip");
+        try (ZipArchiveOutputStream outputStream = new ZipArchiveOutputStream(zip.toFile())) {
+            outputStream.setUseZip64(Zip64Mode.Always);
+            for (int i = 0; i < 20000; i++) {
+                ZipArchiveEntry entry = new ZipArchiveEntry("dir" + (i % 10) + "/entry" + i + ".txt");
+                outputStream.putArchiveEntry(entry);
+                outputStream.write(("content " + i).getBytes("UTF-8"));
+                outputStream.closeArchiveEntry();
+            }
+        }
+
+        try (ArchiveIndex index = new ZipArchive().index(zip)) {
+            assertEquals(20000, index.size());
+            for (int i = 0; i < 20000; i += 997) {
+                int position = index.find("dir" + (i % 10) + "/entry" + i + ".txt");
+                assertEquals(i, position);
+                assertArrayEquals(("content " + i).getBytes("UTF-8"), read(index, position));
+            }
+            assertEquals(-1, index.find("dir0/entry1.txt"));
+        }
+    }
+
+    @Test
+    public void tarIndexWithLongNames() throws IOException {
+        StringBuilder longName = new StringBuilder();
+        while (longName.length() < 150) {
+            longName.append("long-directory-name/");
+        }
+        Path tar = dir.resolve("long.tar");
+        try (OutputStream file = newOutputStream(tar);
+             TarArchiveOutputStream outputStream = new TarArchiveOutputStream(file)) {
+            outputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+            write(outputStream, longName + "gnu.txt", "gnu");
+            outputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            write(outputStream, longName + "posix.txt", "posix");
+            write(outputStream, "short.txt", "short");
+        }
+
+        try (ArchiveIndex index = new TarArchive().index(tar)) {
+            assertEquals(3, index.size());
+            assertEquals(longName + "gnu.txt", index.getName(0));
+            assertArrayEquals("gnu".getBytes("UTF-8"), read(index, index.find(longName + "gnu.txt")));
+            assertArrayEquals("posix".getBytes("UTF-8"), read(index, index.find(longName + "posix.txt")));
+            assertArrayEquals("short".getBytes("UTF-8"), read(index, index.find("short.txt")));
+        }
+    }
+
+    @Test
+    public void concurrentReadsOfZipIndex() throws Exception {
+        Path zip = dir.resolve("concurrent.zip");
+        final int entries = 500;
+        try (ZipArchiveOutputStream outputStream = new ZipArchiveOutputStream(zip.toFile())) {
+            for (int i = 0; i < entries; i++) {
+                outputStream.putArchiveEntry(new ZipArchiveEntry("entry" + i + ".txt"));
+                outputStream.write(("content " + i).getBytes("UTF-8"));
+                outputStream.closeArchiveEntry();
+            }
+        }
+
+        try (final ArchiveIndex index = new ZipArchive().index(zip)) {
+            // every thread resolves the same data offsets at the same time
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<Void>> results = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    results.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            for (int i = 0; i < entries; i++) {
+                                assertArrayEquals(("content " + i).getBytes("UTF-8"), read(index, index.find("entry" + i + ".txt")));
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> result : results) {
+                    result.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void compressedTarStreamIndex() throws IOException {
+        GzipArchive archive = new GzipArchive();
+        Path tgz = dir.resolve("appended.tgz");
+        try (OutputStream file = newOutputStream(tgz);
+             TarArchiveOutputStream outputStream = new TarArchiveOutputStream(new GzipCompressorOutputStream(file))) {
+            write(outputStream, "./first.txt", "first");
+            write(outputStream, "same.txt", "old");
+        }
+        // appended as a new gzip member holding a new tar archive
+        try (OutputStream file = newOutputStream(tgz, APPEND);
+             TarArchiveOutputStream outputStream = new TarArchiveOutputStream(new GzipCompressorOutputStream(file))) {
+            write(outputStream, "same.txt", "new");
+        }
+
+        byte[] tar;
+        try (InputStream inputStream = archive.createUncompressedInputStream(newInputStream(tgz))) {
+            tar = IOUtils.toByteArray(inputStream);
+        }
+        try (InputStream inputStream = archive.createUncompressedInputStream(newInputStream(tgz));
+             ArchiveIndex index = ArchiveIndex.ofTar(inputStream)) {
+            assertEquals(3, index.size());
+            assertEquals(0, index.find("./first.txt"));
+            // the appended entry wins
+            int position = index.find("same.txt");
+            assertEquals(2, position);
+            assertEquals("new", new String(tar, (int) index.getDataOffset(position), (int) index.getSize(position), "UTF-8"));
+            assertTrue(index.getLastModified(position) > 0);
+            try {
+                index.getInputStream(position);
+                fail("compressed tar entries are not readable from the index");
+            } catch (IOException expected) {
+                // read from the decompressed stream instead
+            }
+        }
+    }
+
+    @Test
+    public void dictionaryZipIndex() throws IOException {
+        ZipArchive archive = new ZipArchive();
+        archive.setDictionaryCompression(true);
+        Path compress = archive.compress(Paths.get("src/test/resources/data"));
+        try (ArchiveIndex index = archive.index(compress)) {
+            int position = index.find("data/dir/test.txt");
+            assertEquals(ZipArchive.DICTIONARY_METHOD, index.getMethod(position));
+            assertIndex(index, true);
+        } finally {
+            deleteIfExists(compress);
+        }
+    }
+
+    private static void assertIndex(ArchiveIndex index, boolean zip) throws IOException {
+        String[] names = {"data/dir/test.txt", "data/dir2/subdir2/test3.txt", "data/dir2/test2.txt"};
+        assertEquals(names.length, index.size() - (index.find(ZipArchive.DICTIONARY_ENTRY) >= 0 ? 1 : 0));
+        for (String name : names) {
+            int position = index.find(name);
+            assertTrue(position >= 0);
+            assertFalse(index.isDirectory(position));
+
+            byte[] expected = readAllBytes(Paths.get("src/test/resources", name));
+            byte[] copy = new byte[index.getNameLength(position)];
+            index.copyName(position, copy, 0);
+            assertArrayEquals(name.getBytes("UTF-8"), copy);
+            assertEquals(expected.length, index.getSize(position));
+            assertArrayEquals(expected, read(index, position));
+            if (zip) {
+                CRC32 crc = new CRC32();
+                crc.update(expected);
+                assertEquals((int) crc.getValue(), index.getCrc(position));
+            }
+        }
+        assertEquals(-1, index.find("data/missing.txt"));
+    }
+
+    private static byte[] read(ArchiveIndex index, int position) throws IOException {
+        try (InputStream inputStream = index.getInputStream(position)) {
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+    private static void write(TarArchiveOutputStream outputStream, String name, String content) throws IOException {
+        byte[] data = content.getBytes("UTF-8");
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(data.length);
+        outputStream.putArchiveEntry(entry);
+        outputStream.write(data);
+        outputStream.closeArchiveEntry();
+    }
+
+}
@@ -0,0 +1,402 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static br.com.thiaguten.archive.TestFiles.deleteNotEmptyDirectory;
+import static java.nio.file.Files.*;
+import static org.junit.Assert.*;
+
+public class ArchivePublisherTest {
+
+    private Path dir;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = createTempDirectory("publisher");
+        Path data = createDirectories(dir.resolve("data/sub"));
+
+        byte[] large = new byte[200 * 1024];
+        new Random(42).nextBytes(large);
+        write(data.resolve("large.bin"), large);
+        write(data.resolve("small.txt"), "small".getBytes("UTF-8"));
+        write(data.resolve("empty.txt"), new byte[0]);
+
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        deleteNotEmptyDirectory(dir);
+    }
+
+    @Test
+    public void publishTarToZip() throws Exception {
+        TarArchive tar = new TarArchive();
+        Path compress = tar.compress(dir.resolve("data"));
+
+        Path zip = dir.resolve("copy.zip");
+        assertEquals(zip, new ZipArchive().compress(zip, tar.publish(compress, executor)).get(10, TimeUnit.SECONDS));
+
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            for (String name : new String[]{"data/sub/large.bin", "data/sub/small.txt", "data/sub/empty.txt"}) {
+                try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(name))) {
+                    assertArrayEquals(readAllBytes(dir.resolve(name)), IOUtils.toByteArray(inputStream));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void publisherHonorsDemand() throws Exception {
+        Path compress = new ZipArchive().compress(dir.resolve("data"));
+        Publisher<StreamEntry> publisher = new ZipArchive().publish(compress, executor);
+
+        final List<StreamEntry> entries = Collections.synchronizedList(new ArrayList<StreamEntry>());
+        final Subscription[] subscription = new Subscription[1];
+        final boolean[] completed = new boolean[1];
+        publisher.subscribe(new Subscriber<StreamEntry>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription[0] = s;
+            }
+
+            @Override
+            public void onNext(StreamEntry entry) {
+                entries.add(entry);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed[0] = true;
+            }
+        });
+
+        subscription[0].request(1);
+        Thread.sleep(200);
+        assertEquals(1, entries.size());
+
+        // the body of a skipped entry can no longer be read
+        subscription[0].request(10);
+        awaitTermination();
+        assertEquals(3, entries.size());
+        assertTrue(completed[0]);
+
+        final Throwable[] error = new Throwable[1];
+        entries.get(0).getBody().subscribe(new Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+            }
+
+            @Override
+            public void onNext(ByteBuffer chunk) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error[0] = t;
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        assertTrue(error[0] instanceof IllegalStateException);
+    }
+
+    @Test
+    public void bodyIsReadInRequestedChunks() throws Exception {
+        Path compress = new TarArchive().compress(dir.resolve("data/sub/large.bin"));
+        Publisher<StreamEntry> publisher = new TarArchive().publish(compress, executor);
+
+        final List<ByteBuffer> chunks = Collections.synchronizedList(new ArrayList<ByteBuffer>());
+        final Subscription[] bodySubscription = new Subscription[1];
+        publisher.subscribe(new Subscriber<StreamEntry>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(StreamEntry entry) {
+                entry.getBody().subscribe(new Subscriber<ByteBuffer>() {
+                    @Override
+                    public void onSubscribe(Subscription s) {
+                        bodySubscription[0] = s;
+                        s.request(1);
+                    }
+
+                    @Override
+                    public void onNext(ByteBuffer chunk) {
+                        chunks.add(chunk);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onComplete() {
+                    }
+                });
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        Thread.sleep(200);
+        assertEquals(1, chunks.size());
+        assertEquals(ArchivePublisher.CHUNK_SIZE, chunks.get(0).remaining());
+
+        bodySubscription[0].request(Long.MAX_VALUE);
+        awaitTermination();
+        int total = 0;
+        for (ByteBuffer chunk : chunks) {
+            total += chunk.remaining();
+        }
+        assertEquals(200 * 1024, total);
+    }
+
+    @Test
+    public void bodyIsSubscribedFromAnotherThread() throws Exception {
+        Path compress = new TarArchive().compress(dir.resolve("data"));
+        Publisher<StreamEntry> publisher = new TarArchive().publish(compress, executor);
+
+        final ExecutorService reader = Executors.newSingleThreadExecutor();
+        final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+        final Throwable[] error = new Throwable[1];
+        final CountDownLatch completed = new CountDownLatch(1);
+        try {
+            publisher.subscribe(new Subscriber<StreamEntry>() {
+                private Subscription subscription;
+
+                @Override
+                public void onSubscribe(Subscription s) {
+                    subscription = s;
+                    s.request(1);
+                }
+
+                @Override
+                public void onNext(final StreamEntry entry) {
+                    // the body is subscribed after the publisher returned from onNext
+                    reader.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                Thread.sleep(50);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            if (entry.isDirectory()) {
+                                subscription.request(1);
+                                return;
+                            }
+                            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+                            entry.getBody().subscribe(new Subscriber<ByteBuffer>() {
+                                @Override
+                                public void onSubscribe(Subscription s) {
+                                    s.request(Long.MAX_VALUE);
+                                }
+
+                                @Override
+                                public void onNext(ByteBuffer chunk) {
+                                    data.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                                }
+
+                                @Override
+                                public void onError(Throwable t) {
+                                    error[0] = t;
+                                    completed.countDown();
+                                }
+
+                                @Override
+                                public void onComplete() {
+                                    contents.put(entry.getName(), data.toByteArray());
+                                    subscription.request(1);
+                                }
+                            });
+                        }
+                    });
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    error[0] = t;
+                    completed.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.countDown();
+                }
+            });
+
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+        } finally {
+            reader.shutdownNow();
+        }
+        assertNull(error[0]);
+        assertEquals(3, contents.size());
+        for (String name : new String[]{"data/sub/large.bin", "data/sub/small.txt", "data/sub/empty.txt"}) {
+            assertArrayEquals(readAllBytes(dir.resolve(name)), contents.get(name));
+        }
+    }
+
+    @Test
+    public void tarEntryOfUnknownSizeIsSpooled() throws Exception {
+        byte[] large = readAllBytes(dir.resolve("data/sub/large.bin"));
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (int offset = 0; offset < large.length; offset += 50 * 1024) {
+            chunks.add(ByteBuffer.wrap(large, offset, Math.min(50 * 1024, large.length - offset)));
+        }
+        Publisher<StreamEntry> entries = publisherOf(Arrays.asList(
+                new StreamEntry("unknown.bin", -1, publisherOf(chunks)),
+                new StreamEntry("known.txt", 5, publisherOf(Collections.singletonList(
+                        ByteBuffer.wrap("small".getBytes("UTF-8")))))));
+
+        Path tar = dir.resolve("spooled.tar");
+        assertEquals(tar, new TarArchive().compress(tar, entries).get(10, TimeUnit.SECONDS));
+
+        try (TarArchiveInputStream inputStream = new TarArchiveInputStream(newInputStream(tar))) {
+            TarArchiveEntry entry = inputStream.getNextTarEntry();
+            assertEquals("unknown.bin", entry.getName());
+            assertEquals(large.length, entry.getSize());
+            assertArrayEquals(large, IOUtils.toByteArray(inputStream));
+            entry = inputStream.getNextTarEntry();
+            assertEquals("known.txt", entry.getName());
+            assertArrayEquals("small".getBytes("UTF-8"), IOUtils.toByteArray(inputStream));
+            assertNull(inputStream.getNextTarEntry());
+        }
+    }
+
+    @Test
+    public void subscriberKeepsTheLastModifiedDateAndTheExistingFiles() throws Exception {
+        Date date = new Date(1500000000000L);
+        Publisher<StreamEntry> entries = publisherOf(Collections.singletonList(
+                new StreamEntry("dated.txt", 5, date, publisherOf(Collections.singletonList(
+                        ByteBuffer.wrap("small".getBytes("UTF-8")))))));
+
+        Path existing = dir.resolve("dated.tar");
+        write(existing, "existing".getBytes("UTF-8"));
+        Path tar = new TarArchive().compress(existing, entries).get(10, TimeUnit.SECONDS);
+        assertFalse(existing.equals(tar));
+        assertArrayEquals("existing".getBytes("UTF-8"), readAllBytes(existing));
+
+        try (TarArchiveInputStream inputStream = new TarArchiveInputStream(newInputStream(tar))) {
+            assertEquals(date, inputStream.getNextTarEntry().getModTime());
+        }
+
+        Path zip = dir.resolve("dated.zip");
+        assertEquals(zip, new ZipArchive().compress(zip, new TarArchive().publish(tar, executor)).get(10, TimeUnit.SECONDS));
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(date.getTime(), zipFile.getEntry("dated.txt").getTime());
+        }
+    }
+
+    /**
+     * Synchronous publisher of the given items.
+     */
+    private static <T> Publisher<T> publisherOf(final List<T> items) {
+        return new Publisher<T>() {
+            @Override
+            public void subscribe(final Subscriber<? super T> subscriber) {
+                subscriber.onSubscribe(new Subscription() {
+                    private int index;
+
+                    private long requested;
+
+                    private boolean emitting;
+
+                    private boolean done;
+
+                    @Override
+                    public void request(long n) {
+                        requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                        if (emitting) {
+                            return;
+                        }
+                        emitting = true;
+                        while (requested > 0 && index < items.size() && !done) {
+                            requested--;
+                            subscriber.onNext(items.get(index++));
+                        }
+                        if (index == items.size() && !done) {
+                            done = true;
+                            subscriber.onComplete();
+                        }
+                        emitting = false;
+                    }
+
+                    @Override
+                    public void cancel() {
+                        done = true;
+                    }
+                });
+            }
+        };
+    }
+
+    private void awaitTermination() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+}
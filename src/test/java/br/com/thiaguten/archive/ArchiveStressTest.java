@@ -0,0 +1,334 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static br.com.thiaguten.archive.TestFiles.deleteNotEmptyDirectory;
+import static java.nio.file.Files.*;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.SPARSE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.*;
+
+/**
+ * Scale and soak tests over deterministic generated corpora, run by the
+ * stress profile only. Every archive type compresses and decompresses the
+ * corpora concurrently through its shared strategy, and the sizes and
+ * thresholds are set by the stress.* system properties, e.g.
+ * <code>mvn test -Pstress -Dstress.files=100000 -Dstress.types=ZIP,GZIP</code>.
+ */
+public class ArchiveStressTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveStressTest.class);
+
+    private static final long MB = 1024 * 1024;
+
+    private static final int FILES = Integer.getInteger("stress.files", 1000000);
+
+    private static final int FILES_PER_DIRECTORY = 1000;
+
+    private static final int DEPTH = Integer.getInteger("stress.depth", 128);
+
+    private static final long LARGE_FILE_SIZE = Long.getLong("stress.largeFileSize", 3L * 1024 * MB);
+
+    private static final long SPARSE_FILE_SIZE = Long.getLong("stress.sparseFileSize", 2L * 1024 * MB);
+
+    private static final int THREADS = Integer.getInteger("stress.threads", 4);
+
+    private static final long MAX_HEAP = Long.getLong("stress.maxHeapMB", 256) * MB;
+
+    private static final double MIN_THROUGHPUT = Double.parseDouble(System.getProperty("stress.minThroughputMBs", "5"));
+
+    private final Path root = Paths.get("target/stress");
+
+    private HeapSampler heapSampler;
+
+    @Before
+    public void setUp() throws IOException {
+        deleteNotEmptyDirectory(root);
+        createDirectories(root);
+        System.gc();
+        heapSampler = new HeapSampler();
+        heapSampler.start();
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        heapSampler.interrupt();
+        heapSampler.join();
+        deleteNotEmptyDirectory(root);
+    }
+
+    @Test
+    public void deepTree() throws Exception {
+        Path corpus = root.resolve("deep");
+        Path dir = corpus;
+        for (int level = 0; level < DEPTH; level++) {
+            dir = dir.resolve(String.format("level-%03d", level));
+            createDirectories(dir);
+            write(dir.resolve("file.txt"), ("level " + level + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        roundTrip(corpus, 2, false);
+    }
+
+    @Test
+    public void manyFiles() throws Exception {
+        Path corpus = root.resolve("many");
+        for (int i = 0; i < FILES; i++) {
+            Path dir = corpus.resolve(String.format("dir-%05d", i / FILES_PER_DIRECTORY));
+            if (i % FILES_PER_DIRECTORY == 0) {
+                createDirectories(dir);
+            }
+            write(dir.resolve("file-" + i + ".txt"), ("file " + i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        roundTrip(corpus, 2, false);
+    }
+
+    @Test
+    public void largeFile() throws Exception {
+        Path corpus = root.resolve("large");
+        createDirectories(corpus);
+        // half random, half repeated text, so every codec has work to do
+        final Random random = new Random(42);
+        final byte[] text = "the quick brown fox jumps over the lazy dog\n".getBytes(StandardCharsets.UTF_8);
+        final byte[] block = new byte[(int) MB];
+        try (OutputStream outputStream = newOutputStream(corpus.resolve("large.bin"))) {
+            for (long written = 0; written < LARGE_FILE_SIZE; written += block.length) {
+                random.nextBytes(block);
+                for (int i = block.length / 2; i < block.length; i++) {
+                    block[i] = text[i % text.length];
+                }
+                outputStream.write(block, 0, (int) Math.min(block.length, LARGE_FILE_SIZE - written));
+            }
+        }
+        roundTrip(corpus, 1, true);
+    }
+
+    @Test
+    public void sparseFile() throws Exception {
+        Path corpus = root.resolve("sparse");
+        createDirectories(corpus);
+        try (FileChannel channel = FileChannel.open(corpus.resolve("sparse.bin"), CREATE_NEW, WRITE, SPARSE)) {
+            for (long position : new long[]{0, SPARSE_FILE_SIZE / 2, SPARSE_FILE_SIZE - 8}) {
+                channel.write(ByteBuffer.wrap("sparse!\n".getBytes(StandardCharsets.UTF_8)), position);
+            }
+        }
+        roundTrip(corpus, 1, true);
+    }
+
+    /**
+     * Compresses and decompresses the corpus with every archive type at the
+     * same time, the given number of runs per type sharing its strategy, and
+     * checks the extracted tree against the corpus.
+     */
+    private void roundTrip(final Path corpus, int runsPerType, boolean checkThroughput) throws Exception {
+        final String expected = fingerprint(corpus);
+        final long bytes = size(corpus);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<ArchiveType> types = new ArrayList<>();
+            final List<Future<Double>> results = new ArrayList<>();
+            for (final ArchiveType type : types()) {
+                for (int run = 0; run < runsPerType; run++) {
+                    types.add(type);
+                    results.add(executor.submit(new Callable<Double>() {
+                        @Override
+                        public Double call() throws Exception {
+                            return roundTrip(type.getStrategy(), corpus, expected, bytes);
+                        }
+                    }));
+                }
+            }
+            for (int i = 0; i < results.size(); i++) {
+                final double throughput;
+                try {
+                    throughput = results.get(i).get();
+                } catch (ExecutionException e) {
+                    throw new AssertionError(types.get(i) + " round trip of " + corpus + " failed", e.getCause());
+                }
+                log.info(String.format("%s round trip of %s: %.2f MB/s", types.get(i), corpus, throughput));
+                if (checkThroughput) {
+                    assertTrue(types.get(i) + " throughput " + throughput + " MB/s", throughput >= MIN_THROUGHPUT);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        final long peak = heapSampler.peak;
+        log.info(String.format("peak live heap %d MB", peak / MB));
+        assertTrue("peak live heap " + peak / MB + " MB", peak <= MAX_HEAP);
+    }
+
+    private static double roundTrip(Archive archive, Path corpus, String expected, long bytes) throws IOException {
+        final long start = System.nanoTime();
+        final Path compress = archive.compress(corpus);
+        Path decompress = null;
+        try {
+            decompress = archive.decompress(compress);
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            assertEquals(archive.getName(), expected, fingerprint(decompress.resolve(corpus.getFileName().toString())));
+            return bytes / (double) MB / seconds;
+        } finally {
+            deleteIfExists(compress);
+            if (decompress != null) {
+                deleteNotEmptyDirectory(decompress);
+            }
+        }
+    }
+
+    private static List<ArchiveType> types() {
+        final String types = System.getProperty("stress.types");
+        if (types == null || types.isEmpty()) {
+            return Arrays.asList(ArchiveType.values());
+        }
+        final List<ArchiveType> selected = new ArrayList<>();
+        for (String type : types.split(",")) {
+            selected.add(ArchiveType.valueOf(type.trim().toUpperCase()));
+        }
+        return selected;
+    }
+
+    /**
+     * Digest of the relative paths, sizes and CRCs of the files of the tree,
+     * in name order, streamed so a large tree is never held in memory.
+     */
+    private static String fingerprint(Path dir) throws IOException {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            fingerprint(dir, dir, digest);
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void fingerprint(Path root, Path dir, MessageDigest digest) throws IOException {
+        final List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        }
+        Collections.sort(children);
+        final byte[] buffer = new byte[64 * 1024];
+        for (Path child : children) {
+            if (isDirectory(child)) {
+                fingerprint(root, child, digest);
+                continue;
+            }
+            final CRC32 crc = new CRC32();
+            long size = 0;
+            try (InputStream inputStream = newInputStream(child)) {
+                int n;
+                while ((n = inputStream.read(buffer)) > 0) {
+                    crc.update(buffer, 0, n);
+                    size += n;
+                }
+            }
+            final String record = root.relativize(child).toString().replace('\\', '/') + ":" + size + ":" + crc.getValue() + "\n";
+            digest.update(record.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static long size(Path dir) throws IOException {
+        final long[] total = new long[1];
+        walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                total[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+
+    /**
+     * Samples the heap in use right after the last collection of each pool,
+     * the live data, leaving out the garbage not collected yet.
+     */
+    private static class HeapSampler extends Thread {
+
+        volatile long peak;
+
+        HeapSampler() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                long live = 0;
+                for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                    final MemoryUsage usage = pool.getCollectionUsage();
+                    if (pool.getType() == MemoryType.HEAP && usage != null) {
+                        live += usage.getUsed();
+                    }
+                }
+                peak = Math.max(peak, live);
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+}
@@ -22,6 +22,9 @@ package br.com.thiaguten.archive;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,9 +34,16 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
+import static br.com.thiaguten.archive.TestFiles.deleteNotEmptyDirectory;
 import static java.nio.file.Files.*;
+import static java.nio.file.StandardOpenOption.APPEND;
 import static org.junit.Assert.*;
 
 public class ArchiveTest {
@@ -55,6 +65,34 @@ public class ArchiveTest {
         compressAndDecompressDirectory(ArchiveType.GZIP);
     }
 
+    @Test
+    public void zstdArchiveCompressAndDecompressDirectory() throws IOException {
+        compressAndDecompressDirectory(ArchiveType.ZSTD);
+    }
+
+    @Test
+    public void xzArchiveCompressAndDecompressDirectory() throws IOException {
+        compressAndDecompressDirectory(ArchiveType.XZ);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void xzArchiveRejectsInvalidLevel() {
+        new XzArchive().setCompressionLevel(10);
+    }
+
+    @Test
+    public void zstdArchiveRejectsInvalidLevels() {
+        for (int level : new int[]{0, -2, 23}) {
+            try {
+                new ZstdArchive().setCompressionLevel(level);
+                fail("zstd level " + level + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("zstd"));
+            }
+        }
+        new ZstdArchive().setCompressionLevel(22);
+    }
+
     @Test
     public void zipArchiveCompressDecompressFile() throws IOException {
         compressAndDecompressFile(ArchiveType.ZIP);
@@ -80,6 +118,563 @@ public class ArchiveTest {
         deleteIfExists(compress1);
     }
 
+    @Test
+    public void zipArchiveAppend() throws IOException {
+        appendAndDecompress(ArchiveType.ZIP);
+    }
+
+    @Test
+    public void tarArchiveAppend() throws IOException {
+        appendAndDecompress(ArchiveType.TAR);
+    }
+
+    @Test
+    public void gzipArchiveAppend() throws IOException {
+        appendAndDecompress(ArchiveType.GZIP);
+    }
+
+    @Test
+    public void zstdArchiveAppend() throws IOException {
+        appendAndDecompress(ArchiveType.ZSTD);
+    }
+
+    @Test
+    public void xzArchiveAppend() throws IOException {
+        appendAndDecompress(ArchiveType.XZ);
+    }
+
+    @Test
+    public void appendAfterOddEndOfArchivePadding() throws IOException {
+        for (ArchiveType type : new ArchiveType[]{ArchiveType.TAR, ArchiveType.GZIP, ArchiveType.ZSTD, ArchiveType.XZ}) {
+            Path dir = createDirectories(Paths.get("src/test/resources/padding"));
+            // a header and two data records leave an odd number of zero records in the block
+            write(dir.resolve("one.txt"), new byte[600]);
+            write(dir.resolve("two.txt"), "second".getBytes("UTF-8"));
+            write(dir.resolve("three.txt"), "third".getBytes("UTF-8"));
+
+            Archive archive = type.getStrategy();
+            Path compress = archive.compress(dir.resolve("one.txt"));
+            archive.append(compress, dir.resolve("two.txt"));
+            archive.append(compress, dir.resolve("three.txt"));
+            assertTrue(type + " verify", archive.verify(compress));
+
+            Path decompress = archive.decompress(compress);
+            try {
+                assertEquals(type.toString(), Arrays.asList(decompress.resolve("one.txt"), decompress.resolve("three.txt"),
+                        decompress.resolve("two.txt")), AbstractArchive.listChildren(decompress));
+                assertArrayEquals("second".getBytes("UTF-8"), readAllBytes(decompress.resolve("two.txt")));
+            } finally {
+                deleteIfExists(compress);
+                deleteNotEmptyDirectory(decompress);
+                deleteNotEmptyDirectory(dir);
+            }
+        }
+    }
+
+    @Test
+    public void zipArchiveAppendIsReadableByJdk() throws IOException {
+        Archive archive = ArchiveType.ZIP.getStrategy();
+        Path compress = archive.compress(Paths.get("src/test/resources/data/dir"));
+        archive.append(compress, Paths.get("src/test/resources/data/dir2"));
+
+        try (java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(compress.toFile())) {
+            assertEquals(3, zipFile.size());
+            assertNotNull(zipFile.getEntry("dir/test.txt"));
+            assertNotNull(zipFile.getEntry("dir2/subdir2/test3.txt"));
+        }
+
+        deleteIfExists(compress);
+    }
+
+    @Test
+    public void decompressWithFsyncModes() throws IOException {
+        for (AbstractArchive.FsyncMode fsyncMode : AbstractArchive.FsyncMode.values()) {
+            for (AbstractArchive archive : new AbstractArchive[]{new ZipArchive(), new TarArchive(), new GzipArchive()}) {
+                archive.setFsyncMode(fsyncMode);
+                Path compress = archive.compress(Paths.get("src/test/resources/data"));
+
+                Path decompress = archive.decompress(compress);
+                assertArrayEquals(readAllBytes(Paths.get("src/test/resources/data/dir2/subdir2/test3.txt")),
+                        readAllBytes(decompress.resolve("data/dir2/subdir2/test3.txt")));
+                assertArrayEquals(readAllBytes(Paths.get("src/test/resources/data/dir/test.txt")),
+                        readAllBytes(decompress.resolve("data/dir/test.txt")));
+
+                deleteIfExists(compress);
+                deleteNotEmptyDirectory(decompress);
+            }
+        }
+    }
+
+    @Test
+    public void reproducibleArchives() throws IOException {
+        for (AbstractArchive archive : new AbstractArchive[]{new ZipArchive(), new TarArchive(), new GzipArchive()}) {
+            archive.setReproducible(true);
+            Path compress = archive.compress(Paths.get("src/test/resources/data"));
+            byte[] content = readAllBytes(compress);
+            Path fingerprint = Paths.get(compress + ".fingerprint");
+            assertTrue(exists(fingerprint));
+
+            // unchanged inputs, the archive is not written again
+            FileTime lastModifiedTime = FileTime.fromMillis(0);
+            setLastModifiedTime(compress, lastModifiedTime);
+            assertEquals(compress, archive.compress(Paths.get("src/test/resources/data")));
+            assertEquals(lastModifiedTime, getLastModifiedTime(compress));
+
+            // same bytes when written again
+            deleteIfExists(fingerprint);
+            assertEquals(compress, archive.compress(Paths.get("src/test/resources/data")));
+            assertArrayEquals(content, readAllBytes(compress));
+
+            try (InputStream inputStream = newInputStream(compress);
+                 ArchiveInputStream archiveInputStream = archive.createArchiveInputStream(inputStream)) {
+                ArchiveEntry entry = archiveInputStream.getNextEntry();
+                assertEquals("data/dir/test.txt", entry.getName());
+                if (entry instanceof TarArchiveEntry) {
+                    assertEquals(315532800000L, entry.getLastModifiedDate().getTime());
+                    assertEquals("", ((TarArchiveEntry) entry).getUserName());
+                }
+            }
+
+            deleteIfExists(compress);
+            deleteIfExists(fingerprint);
+        }
+    }
+
+    @Test
+    public void reproducibleCompressedTarDoesNotDependOnThreads() throws IOException {
+        for (ArchiveType type : new ArchiveType[]{ArchiveType.ZSTD, ArchiveType.XZ}) {
+            byte[] content = null;
+            for (int threads : new int[]{1, 4}) {
+                CompressedTarArchive archive = type == ArchiveType.ZSTD ? new ZstdArchive() : new XzArchive();
+                archive.setReproducible(true);
+                archive.setThreads(threads);
+                archive.setBlockSize(4096);
+                Path compress = archive.compress(Paths.get("src/test/resources/data"));
+                if (content == null) {
+                    content = readAllBytes(compress);
+                } else {
+                    assertArrayEquals(content, readAllBytes(compress));
+                }
+                deleteIfExists(compress);
+                deleteIfExists(Paths.get(compress + ".fingerprint"));
+            }
+        }
+    }
+
+    @Test
+    public void reproducibleArchiveIsRewrittenWhenSettingsChange() throws IOException {
+        ZstdArchive zstd = new ZstdArchive();
+        zstd.setReproducible(true);
+        ZipArchive zip = new ZipArchive();
+        zip.setReproducible(true);
+        for (AbstractArchive archive : new AbstractArchive[]{zstd, zip}) {
+            Path compress = archive.compress(Paths.get("src/test/resources/data"));
+            Path fingerprint = Paths.get(compress + ".fingerprint");
+            byte[] previous = readAllBytes(fingerprint);
+
+            if (archive == zstd) {
+                zstd.setBlockSize(4096);
+            } else {
+                zip.setDictionaryCompression(true);
+            }
+            FileTime lastModifiedTime = FileTime.fromMillis(0);
+            setLastModifiedTime(compress, lastModifiedTime);
+            assertEquals(compress, archive.compress(Paths.get("src/test/resources/data")));
+            assertFalse(lastModifiedTime.equals(getLastModifiedTime(compress)));
+            assertFalse(Arrays.equals(previous, readAllBytes(fingerprint)));
+
+            deleteIfExists(compress);
+            deleteIfExists(fingerprint);
+        }
+    }
+
+    @Test
+    public void resumeCheckpointedCompress() throws IOException {
+        final Path data = Paths.get("src/test/resources/data");
+        for (AbstractArchive archive : new AbstractArchive[]{
+                new ZipArchive() {
+                    @Override
+                    protected void compressFile(Path root, Path file, ArchiveOutputStream out) throws IOException {
+                        interruptAfter(this, root, file, 2);
+                        super.compressFile(root, file, out);
+                    }
+                },
+                new TarArchive() {
+                    @Override
+                    protected void compressFile(Path root, Path file, ArchiveOutputStream out) throws IOException {
+                        interruptAfter(this, root, file, 2);
+                        super.compressFile(root, file, out);
+                    }
+                },
+                new GzipArchive() {
+                    @Override
+                    protected void compressFile(Path root, Path file, ArchiveOutputStream out) throws IOException {
+                        interruptAfter(this, root, file, 2);
+                        super.compressFile(root, file, out);
+                    }
+                },
+                // a checkpointed compressed tar goes through the parallel compressor, even with one thread
+                new ZstdArchive() {
+                    {
+                        setThreads(1);
+                    }
+
+                    @Override
+                    protected void compressFile(Path root, Path file, ArchiveOutputStream out) throws IOException {
+                        interruptAfter(this, root, file, 2);
+                        super.compressFile(root, file, out);
+                    }
+                },
+                new XzArchive() {
+                    {
+                        setThreads(1);
+                    }
+
+                    @Override
+                    protected void compressFile(Path root, Path file, ArchiveOutputStream out) throws IOException {
+                        interruptAfter(this, root, file, 2);
+                        super.compressFile(root, file, out);
+                    }
+                }}) {
+            archive.setCheckpointInterval(1);
+            Path compress = Paths.get("src/test/resources/data" + archive.getExtension());
+            try {
+                archive.compress(data);
+                fail("compress should be interrupted");
+            } catch (IOException e) {
+                assertEquals("interrupted", e.getMessage());
+            }
+            Path checkpoint = Paths.get(compress + ".checkpoint");
+            assertTrue(exists(checkpoint));
+
+            // bytes written after the last checkpoint are dropped
+            write(compress, new byte[]{1, 2, 3}, APPEND);
+
+            archive.setCheckpointInterval(0);
+            assertEquals(compress, archive.resume(compress, data));
+            assertFalse(exists(checkpoint));
+
+            Path decompress = archive.decompress(compress);
+            assertEquals(size(data.resolve("dir/test.txt")), size(decompress.resolve("data/dir/test.txt")));
+            assertEquals(size(data.resolve("dir2/test2.txt")), size(decompress.resolve("data/dir2/test2.txt")));
+            assertEquals(size(data.resolve("dir2/subdir2/test3.txt")),
+                    size(decompress.resolve("data/dir2/subdir2/test3.txt")));
+
+            deleteIfExists(compress);
+            deleteNotEmptyDirectory(decompress);
+        }
+    }
+
+    @Test
+    public void zipResumeKeepsTheEntryDigests() throws IOException {
+        final Path data = Paths.get("src/test/resources/data");
+        final int[] interruptAfter = {1};
+        ZipArchive archive = new ZipArchive() {
+            @Override
+            protected void compressFile(Path root, Path file, ArchiveOutputStream out) throws IOException {
+                interruptAfter(this, root, file, interruptAfter[0]);
+                super.compressFile(root, file, out);
+            }
+        };
+        archive.setDigestAlgorithm("SHA-256");
+        archive.setCheckpointInterval(1);
+        Path compress = Paths.get("src/test/resources/data" + archive.getExtension());
+        try {
+            archive.compress(data);
+            fail("compress should be interrupted");
+        } catch (IOException e) {
+            assertEquals("interrupted", e.getMessage());
+        }
+
+        // the digests of the first run are recorded again by the checkpoints of the resumed one
+        interruptAfter[0] = 2;
+        try {
+            archive.resume(compress, data);
+            fail("resume should be interrupted");
+        } catch (IOException e) {
+            assertEquals("interrupted", e.getMessage());
+        }
+
+        archive.setCheckpointInterval(0);
+        assertEquals(compress, archive.resume(compress, data));
+
+        int digests = 0;
+        try (ZipFile zipFile = new ZipFile(compress.toFile())) {
+            for (ZipArchiveEntry entry : Collections.list(zipFile.getEntries())) {
+                if (!entry.isDirectory()) {
+                    assertNotNull(EntryDigest.load(entry));
+                    digests++;
+                }
+            }
+        }
+        assertEquals(3, digests);
+        assertTrue(archive.verify(compress));
+
+        deleteIfExists(compress);
+    }
+
+    @Test
+    public void zipRejectsTooSmallVolumes() {
+        ZipArchive zip = new ZipArchive();
+        try {
+            zip.setVolumeSize(64 * 1024 - 1);
+            fail("zip volumes smaller than 64KB should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("zip volume size"));
+        }
+        try {
+            zip.setVolumeSize(-1);
+            fail("negative volume sizes should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, zip.getVolumeSize());
+        }
+        zip.setVolumeSize(64 * 1024);
+        zip.setVolumeSize(0);
+        // the tar volumes are byte ranges of any size
+        new TarArchive().setVolumeSize(1024);
+    }
+
+    @Test
+    public void splitVolumes() throws IOException {
+        final Path data = Paths.get("src/test/resources/volumes");
+        createDirectories(data);
+        final Random random = new Random(42);
+        for (int i = 0; i < 3; i++) {
+            byte[] content = new byte[100 * 1024];
+            random.nextBytes(content);
+            write(data.resolve("file" + i + ".bin"), content);
+        }
+
+        try {
+            for (AbstractArchive archive : new AbstractArchive[]{new ZipArchive(), new TarArchive(), new GzipArchive()}) {
+                final List<Path> volumes = new ArrayList<>();
+                archive.setVolumeSize(64 * 1024);
+                archive.setVolumeListener(new VolumeListener() {
+                    @Override
+                    public void volumeClosed(Path volume) {
+                        volumes.add(volume);
+                    }
+                });
+
+                Path compress = archive.compress(data);
+                assertTrue(volumes.size() > 4);
+                for (Path volume : volumes) {
+                    assertTrue(size(volume) <= 64 * 1024);
+                }
+                // zip segments end with the archive itself, tar volumes start with the returned path
+                assertEquals(compress, archive instanceof ZipArchive ? volumes.get(volumes.size() - 1) : volumes.get(0));
+                assertTrue(archive.verify(compress));
+
+                Path decompress = archive.decompress(compress);
+                for (int i = 0; i < 3; i++) {
+                    assertArrayEquals(readAllBytes(data.resolve("file" + i + ".bin")),
+                            readAllBytes(decompress.resolve("volumes/file" + i + ".bin")));
+                }
+
+                for (Path volume : volumes) {
+                    deleteIfExists(volume);
+                }
+                deleteNotEmptyDirectory(decompress);
+            }
+        } finally {
+            deleteNotEmptyDirectory(data);
+        }
+    }
+
+    @Test
+    public void transcodeArchives() throws IOException {
+        ZipArchive zipArchive = new ZipArchive();
+        zipArchive.setDictionaryCompression(true);
+        zipArchive.setDigestAlgorithm("SHA-256");
+        Path zip = zipArchive.compress(Paths.get("src/test/resources/data"));
+
+        // zip -> tgz -> zip
+        Path tgz = zipArchive.transcode(zip, ArchiveType.GZIP);
+        assertEquals("data.tgz", tgz.getFileName().toString());
+        assertTrue(ArchiveType.GZIP.getStrategy().verify(tgz));
+        Path zip2 = ArchiveType.GZIP.getStrategy().transcode(tgz, ArchiveType.ZIP);
+        Path decompress = ArchiveType.ZIP.getStrategy().decompress(zip2);
+        assertArrayEquals(readAllBytes(Paths.get("src/test/resources/data/dir2/subdir2/test3.txt")),
+                readAllBytes(decompress.resolve("data/dir2/subdir2/test3.txt")));
+        deleteNotEmptyDirectory(decompress);
+
+        // zip -> zip filtered, the entries are copied raw
+        Path filtered = zipArchive.transcode(zip, zipArchive, new ArchiveEntryFilter() {
+            @Override
+            public boolean accept(ArchiveEntry entry) {
+                return entry.getName().startsWith("data/dir2/");
+            }
+        });
+        assertTrue(zipArchive.verify(filtered));
+        decompress = zipArchive.decompress(filtered);
+        assertFalse(exists(decompress.resolve("data/dir/test.txt")));
+        assertArrayEquals(readAllBytes(Paths.get("src/test/resources/data/dir2/test2.txt")),
+                readAllBytes(decompress.resolve("data/dir2/test2.txt")));
+        deleteNotEmptyDirectory(decompress);
+
+        deleteIfExists(zip);
+        deleteIfExists(tgz);
+        deleteIfExists(zip2);
+        deleteIfExists(filtered);
+    }
+
+    @Test
+    public void mergeAndFilterZipArchives() throws IOException {
+        ZipArchive zipArchive = new ZipArchive();
+        Path shard1 = zipArchive.compress(Paths.get("src/test/resources/data/dir"));
+        zipArchive.setDictionaryCompression(true);
+        Path shard2 = zipArchive.compress(Paths.get("src/test/resources/data/dir2"));
+        // another preset dictionary, its dictionary compressed entries are recompressed by the merge
+        Path shard3 = zipArchive.compress(Paths.get("src/test/resources/data/dir2/subdir2"), Paths.get("src/test/resources/data/dir"));
+
+        Path merge = zipArchive.merge(Paths.get("src/test/resources/merge.zip"), null, shard1, shard2, shard3);
+        assertTrue(zipArchive.verify(merge));
+        try (ZipFile source = new ZipFile(shard1.toFile()); ZipFile merged = new ZipFile(merge.toFile())) {
+            ZipArchiveEntry entry = source.getEntry("dir/test.txt");
+            assertEquals(entry.getCompressedSize(), merged.getEntry("dir/test.txt").getCompressedSize());
+            assertEquals(entry.getCrc(), merged.getEntry("dir/test.txt").getCrc());
+            assertNotNull(merged.getEntry("subdir2/test3.txt"));
+        }
+        Path decompress = zipArchive.decompress(merge);
+        assertArrayEquals(readAllBytes(Paths.get("src/test/resources/data/dir2/subdir2/test3.txt")),
+                readAllBytes(decompress.resolve("subdir2/test3.txt")));
+        assertArrayEquals(readAllBytes(Paths.get("src/test/resources/data/dir2/test2.txt")),
+                readAllBytes(decompress.resolve("dir2/test2.txt")));
+        deleteNotEmptyDirectory(decompress);
+
+        Path filter = zipArchive.filter(merge, new ArchiveEntryFilter() {
+            @Override
+            public boolean accept(ArchiveEntry entry) {
+                return !entry.getName().startsWith("dir2/");
+            }
+        });
+        assertTrue(zipArchive.verify(filter));
+        try (ZipFile filtered = new ZipFile(filter.toFile())) {
+            assertNotNull(filtered.getEntry("dir/test.txt"));
+            assertNull(filtered.getEntry("dir2/test2.txt"));
+        }
+
+        deleteIfExists(shard1);
+        deleteIfExists(shard2);
+        deleteIfExists(shard3);
+        deleteIfExists(merge);
+        deleteIfExists(filter);
+    }
+
+    @Test
+    public void verifyArchives() throws IOException {
+        for (ArchiveType type : ArchiveType.values()) {
+            Archive archive = type.getStrategy();
+            Path compress = archive.compress(Paths.get("src/test/resources/data"));
+            assertTrue(archive.verify(compress));
+            deleteIfExists(compress);
+        }
+    }
+
+    @Test
+    public void verifyArchivesWithEntryDigest() throws IOException {
+        for (String algorithm : new String[]{"SHA-256", "XXH32", "CRC32", "CRC32C"}) {
+            for (AbstractArchive archive : new AbstractArchive[]{new ZipArchive(), new TarArchive(), new GzipArchive()}) {
+                archive.setDigestAlgorithm(algorithm);
+                Path compress = archive.compress(Paths.get("src/test/resources/data"));
+                assertTrue(archive.verify(compress));
+                if (archive instanceof ZipArchive) {
+                    // computed by the copy loop and written with the central directory
+                    try (ZipFile zipFile = new ZipFile(compress.toFile())) {
+                        String digest = EntryDigest.load(zipFile.getEntry("data/dir/test.txt"));
+                        assertTrue(digest.startsWith(algorithm + ":"));
+                    }
+                }
+
+                Path decompress = archive.decompress(compress);
+                assertTrue(exists(decompress.resolve("data/dir2/subdir2/test3.txt")));
+
+                deleteIfExists(compress);
+                deleteNotEmptyDirectory(decompress);
+            }
+        }
+    }
+
+    @Test
+    public void tarDigestsOfFilesReadInMemoryAndReadTwice() throws IOException {
+        final Path data = Paths.get("src/test/resources/digests");
+        createDirectories(data);
+        final Random random = new Random(42);
+        byte[] small = new byte[1000];
+        random.nextBytes(small);
+        write(data.resolve("small.bin"), small);
+        byte[] large = new byte[AbstractArchive.MAX_DIGESTED_CONTENT_SIZE + 1];
+        random.nextBytes(large);
+        write(data.resolve("large.bin"), large);
+
+        try {
+            for (AbstractArchive archive : new AbstractArchive[]{new TarArchive(), new GzipArchive()}) {
+                archive.setDigestAlgorithm("SHA-256");
+                Path compress = archive.compress(data);
+                assertTrue(archive.verify(compress));
+
+                int digests = 0;
+                try (ArchiveInputStream archiveInputStream = archive.createArchiveInputStream(newInputStream(compress))) {
+                    ArchiveEntry entry;
+                    while ((entry = archiveInputStream.getNextEntry()) != null) {
+                        byte[] content = entry.getName().endsWith("small.bin") ? small : large;
+                        EntryDigest digest = EntryDigest.of("SHA-256");
+                        digest.update(content, 0, content.length);
+                        assertEquals(digest.value(), EntryDigest.load(entry));
+                        digests++;
+                    }
+                }
+                assertEquals(2, digests);
+
+                deleteIfExists(compress);
+            }
+        } finally {
+            deleteNotEmptyDirectory(data);
+        }
+    }
+
+    @Test
+    public void verifyCorruptedZipArchive() throws IOException {
+        Archive archive = ArchiveType.ZIP.getStrategy();
+        Path compress = archive.compress(Paths.get("src/test/resources/data/dir/test.txt"));
+        long dataOffset;
+        try (org.apache.commons.compress.archivers.zip.ZipFile zipFile = new org.apache.commons.compress.archivers.zip.ZipFile(compress.toFile())) {
+            dataOffset = zipFile.getEntry("test.txt").getDataOffset();
+        }
+        corrupt(compress, dataOffset + 2);
+        assertFalse(archive.verify(compress));
+        deleteIfExists(compress);
+    }
+
+    @Test
+    public void verifyCorruptedTarArchiveHeader() throws IOException {
+        Archive archive = ArchiveType.TAR.getStrategy();
+        Path compress = archive.compress(Paths.get("src/test/resources/data/dir/test.txt"));
+        corrupt(compress, 0);
+        assertFalse(archive.verify(compress));
+        deleteIfExists(compress);
+    }
+
+    @Test
+    public void verifyCorruptedTarArchiveData() throws IOException {
+        TarArchive archive = new TarArchive();
+        archive.setDigestAlgorithm("SHA-256");
+        Path file = Paths.get("src/test/resources/data/dir/test.txt");
+        Path compress = archive.compress(file);
+        corrupt(compress, new String(readAllBytes(compress), "ISO-8859-1").indexOf(new String(readAllBytes(file), "ISO-8859-1")));
+        assertFalse(archive.verify(compress));
+        deleteIfExists(compress);
+    }
+
+    @Test
+    public void verifyCorruptedGzipArchive() throws IOException {
+        Archive archive = ArchiveType.GZIP.getStrategy();
+        Path compress = archive.compress(Paths.get("src/test/resources/data"));
+        corrupt(compress, size(compress) - 6);
+        assertFalse(archive.verify(compress));
+        deleteIfExists(compress);
+    }
+
     @Test
     public void zipAbstractArchiveCompressDecompress() throws IOException {
         Archive archive = new ZipArchive2();
@@ -100,7 +695,13 @@ public class ArchiveTest {
         assertEquals("src/test/resources/test", AbstractArchive.removeExtension(Paths.get("src/test/resources/test.tar")).toString());
         assertEquals("src/test/resources/test", AbstractArchive.removeExtension(Paths.get("src/test/resources/test.tgz")).toString());
         assertEquals("src/test/resources/test", AbstractArchive.removeExtension(Paths.get("src/test/resources/test.zip")).toString());
+        assertEquals("src/test/resources/test", AbstractArchive.removeExtension(Paths.get("src/test/resources/test.tar.zst")).toString());
+        assertEquals("src/test/resources/test", AbstractArchive.removeExtension(Paths.get("src/test/resources/test.tar.xz")).toString());
         assertEquals("src/test/resources/data/dir/test", AbstractArchive.removeExtension(Paths.get("src/test/resources/data/dir/test.txt")).toString());
+        // only the extensions of the archive types are removed as a whole
+        assertEquals("src/test/resources/test.tar", AbstractArchive.removeExtension(Paths.get("src/test/resources/test.tar.bak")).toString());
+        assertEquals("src/test/resources/test.tar", AbstractArchive.removeExtension(Paths.get("src/test/resources/test.tar.zst"), ".zip").toString());
+        assertEquals("src/test/resources/test", AbstractArchive.removeExtension(Paths.get("src/test/resources/test.TAR.XZ"), ".tar.xz").toString());
     }
 
     @Test
@@ -150,6 +751,26 @@ public class ArchiveTest {
         deleteNotEmptyDirectory(decompress);
     }
 
+    private void appendAndDecompress(ArchiveType type) throws IOException {
+        Archive archive = type.getStrategy();
+
+        log.info("APPEND {}", type);
+        Path compress = archive.compress(Paths.get("src/test/resources/data/dir/test.txt"));
+        assertEquals(compress, archive.append(compress, Paths.get("src/test/resources/data/dir2")));
+        assertEquals(compress, archive.append(compress, Paths.get("src/test/resources/data/dir2/test2.txt")));
+
+        Path decompress = archive.decompress(compress);
+        assertTrue(exists(decompress.resolve("test.txt")));
+        assertTrue(exists(decompress.resolve("test2.txt")));
+        assertTrue(exists(decompress.resolve("dir2/test2.txt")));
+        assertTrue(exists(decompress.resolve("dir2/subdir2/test3.txt")));
+        assertEquals(size(Paths.get("src/test/resources/data/dir2/subdir2/test3.txt")),
+                size(decompress.resolve("dir2/subdir2/test3.txt")));
+
+        deleteIfExists(compress);
+        deleteNotEmptyDirectory(decompress);
+    }
+
     private class ZipArchive2 extends AbstractArchive implements Archive {
 
         private final ZipArchive zipArchive = new ZipArchive();
@@ -181,16 +802,19 @@ public class ArchiveTest {
 
     }
 
-    private static void deleteNotEmptyDirectory(final Path dir) throws IOException {
-        List<Path> children = AbstractArchive.listChildren(dir);
-        for (Path child : children) {
-            if (isDirectory(child)) {
-                deleteNotEmptyDirectory(child);
-            } else {
-                deleteIfExists(child);
-            }
+    /**
+     * Fails a checkpointed compress after the given number of files.
+     */
+    private static void interruptAfter(AbstractArchive archive, Path root, Path file, int files) throws IOException {
+        if (archive.getCheckpointInterval() > 0 && AbstractArchive.listFiles(root.resolve("data")).indexOf(file) >= files) {
+            throw new IOException("interrupted");
         }
-        deleteIfExists(dir);
+    }
+
+    private static void corrupt(Path path, long offset) throws IOException {
+        byte[] bytes = readAllBytes(path);
+        bytes[(int) offset] ^= 0x5A;
+        write(path, bytes);
     }
 
 }
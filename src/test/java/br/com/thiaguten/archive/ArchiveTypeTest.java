@@ -47,6 +47,18 @@ public class ArchiveTypeTest {
         assertEquals("application/gzip", mimeType);
     }
 
+    @Test
+    public void mimetypeZstdTest() {
+        String mimeType = ArchiveType.ZSTD.getMimeType();
+        assertEquals("application/zstd", mimeType);
+    }
+
+    @Test
+    public void mimetypeXzTest() {
+        String mimeType = ArchiveType.XZ.getMimeType();
+        assertEquals("application/x-xz", mimeType);
+    }
+
     @Test
     public void extensionTarTest() {
         String extension = ArchiveType.TAR.getExtension();
@@ -65,6 +77,18 @@ public class ArchiveTypeTest {
         assertEquals(".tgz", extension);
     }
 
+    @Test
+    public void extensionZstdTest() {
+        String extension = ArchiveType.ZSTD.getExtension();
+        assertEquals(".tar.zst", extension);
+    }
+
+    @Test
+    public void extensionXzTest() {
+        String extension = ArchiveType.XZ.getExtension();
+        assertEquals(".tar.xz", extension);
+    }
+
     @Test
     public void strategyTarTest() {
         Archive strategy = ArchiveType.TAR.getStrategy();
@@ -83,6 +107,18 @@ public class ArchiveTypeTest {
         assertTrue(strategy instanceof GzipArchive);
     }
 
+    @Test
+    public void strategyZstdTest() {
+        Archive strategy = ArchiveType.ZSTD.getStrategy();
+        assertTrue(strategy instanceof ZstdArchive);
+    }
+
+    @Test
+    public void strategyXzTest() {
+        Archive strategy = ArchiveType.XZ.getStrategy();
+        assertTrue(strategy instanceof XzArchive);
+    }
+
     @Test
     public void ofMimetypeTarTest() {
         ArchiveType type = ArchiveType.of("application/x-tar");
@@ -101,6 +137,18 @@ public class ArchiveTypeTest {
         assertEquals(ArchiveType.GZIP, type);
     }
 
+    @Test
+    public void ofMimetypeZstdTest() {
+        ArchiveType type = ArchiveType.of("application/zstd");
+        assertEquals(ArchiveType.ZSTD, type);
+    }
+
+    @Test
+    public void ofMimetypeXzTest() {
+        ArchiveType type = ArchiveType.of("application/x-xz");
+        assertEquals(ArchiveType.XZ, type);
+    }
+
     @Test(expected = RuntimeException.class)
     public void invalidOfTest() {
         ArchiveType.of("");
@@ -129,6 +177,8 @@ public class ArchiveTypeTest {
         assertEquals("ZipArchive", ArchiveType.ZIP.getName());
         assertEquals("TarArchive", ArchiveType.TAR.getName());
         assertEquals("GzipArchive", ArchiveType.GZIP.getName());
+        assertEquals("ZstdArchive", ArchiveType.ZSTD.getName());
+        assertEquals("XzArchive", ArchiveType.XZ.getName());
     }
 
     @Test
@@ -136,13 +186,19 @@ public class ArchiveTypeTest {
         assertEquals("TAR", ArchiveType.TAR.name());
         assertEquals("ZIP", ArchiveType.ZIP.name());
         assertEquals("GZIP", ArchiveType.GZIP.name());
+        assertEquals("ZSTD", ArchiveType.ZSTD.name());
+        assertEquals("XZ", ArchiveType.XZ.name());
         assertEquals(0, ArchiveType.TAR.ordinal());
         assertEquals(1, ArchiveType.ZIP.ordinal());
         assertEquals(2, ArchiveType.GZIP.ordinal());
-        assertEquals(3, ArchiveType.values().length);
+        assertEquals(3, ArchiveType.ZSTD.ordinal());
+        assertEquals(4, ArchiveType.XZ.ordinal());
+        assertEquals(5, ArchiveType.values().length);
         assertEquals(ArchiveType.TAR, ArchiveType.valueOf("TAR"));
         assertEquals(ArchiveType.ZIP, ArchiveType.valueOf("ZIP"));
         assertEquals(ArchiveType.GZIP, ArchiveType.valueOf("GZIP"));
+        assertEquals(ArchiveType.ZSTD, ArchiveType.valueOf("ZSTD"));
+        assertEquals(ArchiveType.XZ, ArchiveType.valueOf("XZ"));
     }
 
 }
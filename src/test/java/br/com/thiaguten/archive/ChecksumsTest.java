@@ -0,0 +1,83 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import static java.nio.file.Files.*;
+import static org.junit.Assert.*;
+
+public class ChecksumsTest {
+
+    private static final byte[] CHECK = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void checkValues() {
+        assertEquals(0xCBF43926L, checksum(Checksums.newChecksum(Checksums.CRC32), CHECK));
+        assertEquals(0xE3069283L, checksum(Checksums.newChecksum(Checksums.CRC32C), CHECK));
+        assertEquals(0xE3069283L, checksum(new Checksums.Crc32c(), CHECK));
+    }
+
+    @Test
+    public void combineBlockChecksums() {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        for (String algorithm : new String[]{Checksums.CRC32, Checksums.CRC32C}) {
+            for (int split : new int[]{0, 1, 4096, 65537, data.length}) {
+                Checksum first = Checksums.newChecksum(algorithm);
+                first.update(data, 0, split);
+                Checksum second = Checksums.newChecksum(algorithm);
+                second.update(data, split, data.length - split);
+                assertEquals(checksum(Checksums.newChecksum(algorithm), data),
+                        Checksums.combine(algorithm, first.getValue(), second.getValue(), data.length - split));
+            }
+        }
+    }
+
+    @Test
+    public void parallelFileChecksum() throws IOException {
+        byte[] data = new byte[9 * 1024 * 1024 + 123];
+        new Random(42).nextBytes(data);
+        Path file = createTempFile("checksums", ".bin");
+        try {
+            write(file, data);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            assertEquals(crc.getValue(), Checksums.checksum(file, Checksums.CRC32, 4));
+            assertEquals(checksum(Checksums.newChecksum(Checksums.CRC32C), data),
+                    Checksums.checksum(file, Checksums.CRC32C, 4));
+        } finally {
+            deleteIfExists(file);
+        }
+    }
+
+    private static long checksum(Checksum checksum, byte[] data) {
+        checksum.update(data, 0, data.length);
+        return checksum.getValue();
+    }
+
+}
@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static br.com.thiaguten.archive.TestFiles.deleteNotEmptyDirectory;
+import static java.nio.file.Files.*;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.junit.Assert.*;
+
+public class DedupArchiveTest {
+
+    @Test
+    public void consecutiveBackupsOnlyStoreTheChangedChunks() throws IOException {
+        final Path data = Paths.get("src/test/resources/backup");
+        final Path store = Paths.get("src/test/resources/chunks");
+        createDirectories(data);
+        byte[] content = new byte[1024 * 1024];
+        new Random(42).nextBytes(content);
+        write(data.resolve("file.bin"), content);
+        write(data.resolve("small.txt"), "small".getBytes("UTF-8"));
+
+        try {
+            Path first;
+            long firstPackSize;
+            try (DedupArchive archive = new DedupArchive(store)) {
+                archive.setDigestAlgorithm("CRC32C");
+                first = archive.compress(data);
+                firstPackSize = archive.getChunkStore().getPackSize();
+                assertTrue(firstPackSize >= content.length);
+                // the manifest only holds the chunk ids
+                assertTrue(size(first) < content.length / 50);
+            }
+
+            // a few bytes inserted in the middle shift everything after them
+            byte[] changed = new byte[content.length + 10];
+            System.arraycopy(content, 0, changed, 0, content.length / 2);
+            System.arraycopy(content, content.length / 2, changed, content.length / 2 + 10, content.length / 2);
+            write(data.resolve("file.bin"), changed);
+
+            try (DedupArchive archive = new DedupArchive(store)) {
+                archive.setDigestAlgorithm("CRC32C");
+                Path second = archive.compress(data);
+                ChunkStore chunkStore = archive.getChunkStore();
+                assertTrue(chunkStore.getDuplicateCount() > 0);
+                assertTrue(chunkStore.getPackSize() - firstPackSize < 3 * ContentDefinedChunker.MAX_SIZE);
+
+                assertTrue(archive.verify(first));
+                assertTrue(archive.verify(second));
+                Path decompress = archive.decompress(first);
+                assertArrayEquals(content, readAllBytes(decompress.resolve("backup/file.bin")));
+                assertArrayEquals("small".getBytes("UTF-8"), readAllBytes(decompress.resolve("backup/small.txt")));
+                deleteNotEmptyDirectory(decompress);
+                decompress = archive.decompress(second);
+                assertArrayEquals(changed, readAllBytes(decompress.resolve("backup/file.bin")));
+                deleteNotEmptyDirectory(decompress);
+
+                deleteIfExists(first);
+                deleteIfExists(second);
+            }
+        } finally {
+            deleteNotEmptyDirectory(data);
+            deleteNotEmptyDirectory(store);
+        }
+    }
+
+    @Test
+    public void resumeCheckpointedCompress() throws IOException {
+        final Path data = Paths.get("src/test/resources/resume");
+        final Path store = Paths.get("src/test/resources/resume-chunks");
+        createDirectories(data);
+        final Random random = new Random(42);
+        for (int i = 0; i < 4; i++) {
+            byte[] content = new byte[100 * 1024];
+            random.nextBytes(content);
+            write(data.resolve("file" + i + ".bin"), content);
+        }
+
+        try (DedupArchive archive = new DedupArchive(store) {
+            @Override
+            protected void compressFile(Path root, Path file, ArchiveOutputStream out) throws IOException {
+                if (getCheckpointInterval() > 0 && AbstractArchive.listFiles(data).indexOf(file) >= 2) {
+                    throw new IOException("interrupted");
+                }
+                super.compressFile(root, file, out);
+            }
+        }) {
+            archive.setDigestAlgorithm("CRC32C");
+            archive.setCheckpointInterval(1);
+            Path compress = Paths.get("src/test/resources/resume.dedup");
+            try {
+                archive.compress(data);
+                fail("compress should be interrupted");
+            } catch (IOException e) {
+                assertEquals("interrupted", e.getMessage());
+            }
+            // bytes written after the last checkpoint are dropped
+            write(compress, new byte[]{1, 2, 3}, APPEND);
+
+            archive.setCheckpointInterval(0);
+            assertEquals(compress, archive.resume(compress, data));
+            assertTrue(archive.verify(compress));
+            Path decompress = archive.decompress(compress);
+            for (int i = 0; i < 4; i++) {
+                assertArrayEquals(readAllBytes(data.resolve("file" + i + ".bin")),
+                        readAllBytes(decompress.resolve("resume/file" + i + ".bin")));
+            }
+            deleteNotEmptyDirectory(decompress);
+            deleteIfExists(compress);
+        } finally {
+            deleteNotEmptyDirectory(data);
+            deleteNotEmptyDirectory(store);
+        }
+    }
+
+    @Test
+    public void verifyDetectsAFlippedBitInAStoredChunk() throws IOException {
+        final Path data = Paths.get("src/test/resources/bitflip");
+        final Path store = Paths.get("src/test/resources/bitflip-chunks");
+        createDirectories(data);
+        // random data is stored as is, without a deflate stream to check it
+        byte[] content = new byte[256 * 1024];
+        new Random(42).nextBytes(content);
+        write(data.resolve("file.bin"), content);
+
+        try (DedupArchive archive = new DedupArchive(store)) {
+            Path compress = archive.compress(data);
+            assertTrue(archive.verify(compress));
+
+            Path pack = store.resolve(ChunkStore.PACK_FILE);
+            byte[] chunks = readAllBytes(pack);
+            assertEquals(content.length, chunks.length);
+            chunks[chunks.length / 2] ^= 1;
+            write(pack, chunks);
+
+            assertFalse(archive.verify(compress));
+            try {
+                archive.decompress(compress);
+                fail("decompress should reject the corrupted chunk");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Corrupted chunk"));
+            }
+            deleteIfExists(compress);
+        } finally {
+            deleteNotEmptyDirectory(data);
+            deleteNotEmptyDirectory(store);
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+import static java.nio.file.Files.*;
+import static org.junit.Assert.*;
+
+public class ExtractionLimitsTest {
+
+    private static final int BOMB_SIZE = 64 * 1024 * 1024;
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = createTempDirectory("limits");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void traversalIsAlwaysRejected() throws IOException {
+        Path tgz = tgz("evil.tgz", "ok.txt", "../evil.txt");
+        assertLimit(ExtractionLimitException.Limit.PATH_TRAVERSAL, new GzipArchive(), tgz);
+        assertFalse(exists(dir.resolve("evil.txt")));
+        assertTrue(exists(dir.resolve("evil/ok.txt")));
+    }
+
+    @Test
+    public void zipTraversalIsAlwaysRejected() throws IOException {
+        Path zip = dir.resolve("evil.zip");
+        try (ZipArchiveOutputStream outputStream = new ZipArchiveOutputStream(zip.toFile())) {
+            outputStream.putArchiveEntry(new ZipArchiveEntry("a/../../evil.txt"));
+            outputStream.write(new byte[]{1});
+            outputStream.closeArchiveEntry();
+        }
+        assertLimit(ExtractionLimitException.Limit.PATH_TRAVERSAL, new ZipArchive(), zip);
+        assertFalse(exists(dir.resolve("evil.txt")));
+    }
+
+    @Test
+    public void entriesAreLimited() throws IOException {
+        GzipArchive archive = new GzipArchive();
+        archive.getExtractionLimits().setMaxEntries(2);
+        assertLimit(ExtractionLimitException.Limit.ENTRIES, archive, tgz("many.tgz", "1", "2", "3"));
+        assertFalse(exists(dir.resolve("many/3")));
+    }
+
+    @Test
+    public void pathDepthIsLimited() throws IOException {
+        GzipArchive archive = new GzipArchive();
+        archive.getExtractionLimits().setMaxPathDepth(3);
+        assertLimit(ExtractionLimitException.Limit.PATH_DEPTH, archive, tgz("deep.tgz", "a/b/c", "a/b/c/d"));
+        assertTrue(exists(dir.resolve("deep/a/b/c")));
+    }
+
+    @Test
+    public void tarBombIsAbortedEarly() throws IOException {
+        Path tgz = dir.resolve("bomb.tgz");
+        try (OutputStream file = newOutputStream(tgz);
+             TarArchiveOutputStream outputStream = new TarArchiveOutputStream(new GzipCompressorOutputStream(file))) {
+            TarArchiveEntry entry = new TarArchiveEntry("zeros");
+            entry.setSize(BOMB_SIZE);
+            outputStream.putArchiveEntry(entry);
+            writeZeros(outputStream);
+            outputStream.closeArchiveEntry();
+        }
+
+        GzipArchive archive = new GzipArchive();
+        archive.getExtractionLimits().setMaxEntryRatio(100);
+        assertLimit(ExtractionLimitException.Limit.ENTRY_RATIO, archive, tgz);
+        // the partial file is removed
+        assertFalse(exists(dir.resolve("bomb/zeros")));
+    }
+
+    @Test
+    public void zipBombIsAbortedEarly() throws IOException {
+        Path zip = dir.resolve("bomb.zip");
+        try (ZipArchiveOutputStream outputStream = new ZipArchiveOutputStream(zip.toFile())) {
+            outputStream.putArchiveEntry(new ZipArchiveEntry("zeros"));
+            writeZeros(outputStream);
+            outputStream.closeArchiveEntry();
+        }
+
+        ZipArchive archive = new ZipArchive();
+        archive.getExtractionLimits().setMaxEntryRatio(100);
+        assertLimit(ExtractionLimitException.Limit.ENTRY_RATIO, archive, zip);
+        assertFalse(exists(dir.resolve("bomb/zeros")));
+    }
+
+    @Test
+    public void dedupRatioUsesTheStoredChunks() throws IOException {
+        byte[] random = new byte[4 * 1024 * 1024];
+        new Random(42).nextBytes(random);
+        write(createDirectories(dir.resolve("random")).resolve("random.bin"), random);
+        write(createDirectories(dir.resolve("zeros")).resolve("zeros.bin"), new byte[8 * 1024 * 1024]);
+
+        try (DedupArchive archive = new DedupArchive(dir.resolve("store"))) {
+            archive.getExtractionLimits().setMaxEntryRatio(100);
+            // the manifest holds only the chunk ids, far smaller than the data
+            Path decompress = archive.decompress(archive.compress(dir.resolve("random")));
+            assertArrayEquals(random, readAllBytes(decompress.resolve("random/random.bin")));
+
+            // every reference to the same stored chunk counts, repeated data is still a bomb
+            assertLimit(ExtractionLimitException.Limit.ENTRY_RATIO, archive, archive.compress(dir.resolve("zeros")));
+        }
+    }
+
+    @Test
+    public void totalBytesAreLimited() throws IOException {
+        GzipArchive archive = new GzipArchive();
+        archive.getExtractionLimits().setMaxTotalBytes(5);
+        // each entry holds its name, the third one crosses the limit
+        assertLimit(ExtractionLimitException.Limit.TOTAL_BYTES, archive, tgz("total.tgz", "ab", "cd", "ef"));
+        assertEquals(2, size(dir.resolve("total/cd")));
+        assertFalse(exists(dir.resolve("total/ef")));
+    }
+
+    @Test
+    public void withinLimitsIsExtracted() throws IOException {
+        GzipArchive archive = new GzipArchive();
+        archive.getExtractionLimits().setMaxTotalBytes(6);
+        archive.getExtractionLimits().setMaxEntries(3);
+        archive.getExtractionLimits().setMaxPathDepth(2);
+        archive.getExtractionLimits().setMaxEntryRatio(1.5);
+        Path decompress = archive.decompress(tgz("fine.tgz", "ab", "cd", "x/ef"));
+        assertEquals(2, size(decompress.resolve("x/ef")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLimitIsRejected() {
+        new ExtractionLimits().setMaxEntries(-1);
+    }
+
+    private static void assertLimit(ExtractionLimitException.Limit limit, AbstractArchive archive, Path path)
+            throws IOException {
+        try {
+            archive.decompress(path);
+            fail("expected the " + limit + " limit");
+        } catch (ExtractionLimitException e) {
+            assertEquals(limit, e.getLimit());
+        }
+    }
+
+    private static void writeZeros(OutputStream outputStream) throws IOException {
+        byte[] zeros = new byte[64 * 1024];
+        for (int i = 0; i < BOMB_SIZE / zeros.length; i++) {
+            outputStream.write(zeros);
+        }
+    }
+
+    /**
+     * Writes a tar.gz whose entries hold their own name.
+     */
+    private Path tgz(String name, String... entryNames) throws IOException {
+        Path tgz = dir.resolve(name);
+        try (OutputStream file = newOutputStream(tgz);
+             TarArchiveOutputStream outputStream = new TarArchiveOutputStream(new GzipCompressorOutputStream(file))) {
+            for (String entryName : entryNames) {
+                byte[] data = entryName.substring(entryName.lastIndexOf('/') + 1).getBytes("UTF-8");
+                TarArchiveEntry entry = new TarArchiveEntry(entryName);
+                entry.setSize(data.length);
+                outputStream.putArchiveEntry(entry);
+                outputStream.write(data);
+                outputStream.closeArchiveEntry();
+            }
+        }
+        return tgz;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelCompressorOutputStreamTest {
+
+    private static final ParallelCompressorOutputStream.Compressor GZIP = new ParallelCompressorOutputStream.Compressor() {
+        @Override
+        public OutputStream createCompressorOutputStream(OutputStream outputStream) throws IOException {
+            return new GZIPOutputStream(outputStream);
+        }
+    };
+
+    @Test
+    public void blocksAreWrittenInOrder() throws IOException {
+        byte[] data = new byte[100000];
+        Random random = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) random.nextInt(16);
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream outputStream = new ParallelCompressorOutputStream(compressed, GZIP, 4, 4096, new Throttle())) {
+            outputStream.write(data, 0, 1);
+            outputStream.write(data, 1, 50000);
+            for (int i = 50001; i < data.length; i++) {
+                outputStream.write(data[i]);
+            }
+        }
+
+        // each block is a gzip member, read back as a single stream
+        assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))));
+    }
+
+    @Test
+    public void compressionErrorIsReported() throws IOException {
+        final IOException failure = new IOException("failure");
+        OutputStream outputStream = new ParallelCompressorOutputStream(new ByteArrayOutputStream(),
+                new ParallelCompressorOutputStream.Compressor() {
+                    @Override
+                    public OutputStream createCompressorOutputStream(OutputStream outputStream) throws IOException {
+                        throw failure;
+                    }
+                }, 2, 16, new Throttle());
+        try {
+            outputStream.write(new byte[64]);
+            outputStream.close();
+            fail("compression error not reported");
+        } catch (IOException e) {
+            assertEquals(failure, e);
+        }
+    }
+
+    @Test
+    public void workersAreStoppedAfterAFailure() throws Exception {
+        final Set<Thread> before = compressorThreads();
+        OutputStream outputStream = new ParallelCompressorOutputStream(new ByteArrayOutputStream(),
+                new ParallelCompressorOutputStream.Compressor() {
+                    @Override
+                    public OutputStream createCompressorOutputStream(OutputStream outputStream) throws IOException {
+                        throw new IOException("failure");
+                    }
+                }, 2, 16, new Throttle());
+        try {
+            // never closed, the failed write alone must release the workers
+            outputStream.write(new byte[64]);
+            fail("compression error not reported");
+        } catch (IOException e) {
+            assertEquals("failure", e.getMessage());
+        }
+        // only the workers started by this stream are checked
+        Set<Thread> started = compressorThreads();
+        started.removeAll(before);
+        for (int i = 0; i < 100 && !started.isEmpty(); i++) {
+            Thread.sleep(50);
+            started.retainAll(compressorThreads());
+        }
+        assertTrue(started.isEmpty());
+    }
+
+    private static Set<Thread> compressorThreads() {
+        Set<Thread> threads = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("compressor-") && thread.isAlive()) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, n);
+        }
+        return outputStream.toByteArray();
+    }
+
+}
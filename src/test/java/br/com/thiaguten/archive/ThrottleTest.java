@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.Files.*;
+import static org.junit.Assert.*;
+
+public class ThrottleTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = createTempDirectory("throttle");
+        byte[] data = new byte[1024 * 1024];
+        new Random(42).nextBytes(data);
+        write(dir.resolve("data.bin"), data);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path child : AbstractArchive.listChildren(dir)) {
+            for (Path grandChild : AbstractArchive.listChildren(child)) {
+                deleteIfExists(grandChild);
+            }
+            deleteIfExists(child);
+        }
+        deleteIfExists(dir);
+    }
+
+    @Test
+    public void readRateAppliesToTheFileBytes() throws IOException {
+        final AtomicLong read = new AtomicLong();
+        final AtomicLong written = new AtomicLong();
+        Throttle throttle = new Throttle() {
+            @Override
+            void acquireRead(long bytes) throws InterruptedIOException {
+                read.addAndGet(bytes);
+                super.acquireRead(bytes);
+            }
+
+            @Override
+            void acquireWrite(long bytes) throws InterruptedIOException {
+                written.addAndGet(bytes);
+                super.acquireWrite(bytes);
+            }
+        };
+        write(dir.resolve("zeros.bin"), new byte[1024 * 1024]);
+        GzipArchive archive = new GzipArchive();
+        archive.setThrottle(throttle);
+
+        Path compress = archive.compress(dir.resolve("zeros.bin"));
+        assertEquals(1024 * 1024, read.get());
+        assertEquals(1024 * 1024, written.get());
+
+        read.set(0);
+        written.set(0);
+        archive.decompress(compress);
+        // the archive bytes are read, not the decompressed data
+        assertTrue(read.get() > 0 && read.get() <= size(compress));
+        assertEquals(1024 * 1024, written.get());
+    }
+
+    @Test
+    public void zipEntriesAreThrottledPerBuffer() throws IOException {
+        final AtomicLong read = new AtomicLong();
+        final AtomicLong largestRead = new AtomicLong();
+        Throttle throttle = new Throttle() {
+            @Override
+            void acquireRead(long bytes) throws InterruptedIOException {
+                read.addAndGet(bytes);
+                largestRead.set(Math.max(largestRead.get(), bytes));
+                super.acquireRead(bytes);
+            }
+        };
+        ZipArchive archive = new ZipArchive();
+        Path compress = archive.compress(dir.resolve("data.bin"));
+        archive.setThrottle(throttle);
+
+        archive.decompress(compress);
+        // the compressed bytes are read, not the whole entry at once
+        assertTrue(read.get() > 1024 * 1024 && read.get() <= size(compress));
+        assertTrue(largestRead.get() < 1024 * 1024);
+
+        read.set(0);
+        largestRead.set(0);
+        Path merge = archive.merge(dir.resolve("merge.zip"), null, compress);
+        assertTrue(read.get() > 1024 * 1024 && read.get() <= size(compress));
+        assertTrue(largestRead.get() < 1024 * 1024);
+        assertEquals(size(compress), size(merge));
+    }
+
+    @Test
+    public void tokenBucketDelaysTheMissingTokens() {
+        Throttle.TokenBucket bucket = new Throttle.TokenBucket(0);
+        bucket.setRate(1000, 0);
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve(500, 0));
+        // the tokens taken in advance are paid back by the elapsed time
+        assertEquals(0, bucket.reserve(0, TimeUnit.MILLISECONDS.toNanos(500)));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(250), bucket.reserve(250, TimeUnit.MILLISECONDS.toNanos(500)));
+        // at most one second of tokens is saved while idle
+        assertEquals(0, bucket.reserve(1000, TimeUnit.SECONDS.toNanos(10)));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.reserve(100, TimeUnit.SECONDS.toNanos(10)));
+
+        bucket.setRate(0, TimeUnit.SECONDS.toNanos(10));
+        assertEquals(0, bucket.reserve(1000000, TimeUnit.SECONDS.toNanos(10)));
+    }
+
+    @Test
+    public void concurrentFilesAreLimited() throws Exception {
+        final Throttle throttle = new Throttle();
+        throttle.setMaxConcurrentFiles(2);
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger maxOpen = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(6);
+
+        for (int i = 0; i < 6; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        throttle.acquireFile();
+                        try {
+                            int current = open.incrementAndGet();
+                            while (current > maxOpen.get()) {
+                                maxOpen.compareAndSet(maxOpen.get(), current);
+                            }
+                            Thread.sleep(50);
+                            open.decrementAndGet();
+                        } finally {
+                            throttle.releaseFile();
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, maxOpen.get());
+    }
+
+    @Test
+    public void limitsCanBeRaisedWhileWaiting() throws Exception {
+        final Throttle throttle = new Throttle();
+        throttle.setMaxConcurrentFiles(1);
+        throttle.acquireFile();
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    throttle.acquireFile();
+                    acquired.countDown();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }).start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        throttle.setMaxConcurrentFiles(0);
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCpuBudget() {
+        new Throttle().setCpuBudget(1.5);
+    }
+
+}
@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * simple-compress
+ * %%
+ * Copyright (C) 2016 Thiago Gutenberg Carvalho da Costa
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package br.com.thiaguten.archive;
+
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static br.com.thiaguten.archive.TestFiles.deleteNotEmptyDirectory;
+import static java.nio.file.Files.*;
+import static org.junit.Assert.*;
+
+public class ZipArchiveTest {
+
+    private Path dir;
+
+    private Path data;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = createTempDirectory("zip");
+        data = createDirectory(dir.resolve("data"));
+
+        Random random = new Random(7);
+        String[] status = {"active", "inactive", "pending", "blocked"};
+        for (int i = 0; i < 500; i++) {
+            StringBuilder json = new StringBuilder("{\n");
+            json.append("  \"id\": ").append(i).append(",\n");
+            json.append("  \"name\": \"customer-").append(random.nextInt(100000)).append("\",\n");
+            json.append("  \"status\": \"").append(status[random.nextInt(status.length)]).append("\",\n");
+            json.append("  \"address\": {\"street\": \"Rua ").append(random.nextInt(1000))
+                    .append("\", \"city\": \"Sao Paulo\", \"country\": \"Brazil\"},\n");
+            json.append("  \"createdAt\": \"2016-0").append(1 + random.nextInt(9)).append("-1")
+                    .append(random.nextInt(10)).append("T10:00:00Z\",\n");
+            json.append("  \"tags\": [\"archive\", \"compress\", \"json\"]\n}\n");
+            write(data.resolve("customer-" + i + ".json"), json.toString().getBytes("UTF-8"));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        deleteNotEmptyDirectory(dir);
+    }
+
+    @Test
+    public void dictionaryCompressionImprovesSmallFilesRatio() throws IOException {
+        ZipArchive plain = new ZipArchive();
+        Path plainCompress = plain.compress(data);
+        move(plainCompress, dir.resolve("plain.zip"));
+
+        ZipArchive archive = new ZipArchive();
+        archive.setDictionaryCompression(true);
+        Path compress = archive.compress(data);
+
+        assertTrue(size(compress) < size(dir.resolve("plain.zip")));
+        try (ZipFile zipFile = new ZipFile(compress.toFile())) {
+            assertNotNull(ZipArchive.readDictionary(zipFile));
+            assertEquals(ZipArchive.DICTIONARY_METHOD, zipFile.getEntry("data/customer-1.json").getMethod());
+        }
+        assertTrue(archive.verify(compress));
+        assertTrue(ArchiveType.ZIP.getStrategy().verify(compress));
+
+        Path decompress = ArchiveType.ZIP.getStrategy().decompress(compress);
+        assertFalse(exists(decompress.resolve(ZipArchive.DICTIONARY_ENTRY)));
+        for (int i = 0; i < 500; i++) {
+            String name = "customer-" + i + ".json";
+            assertArrayEquals(readAllBytes(data.resolve(name)), readAllBytes(decompress.resolve("data").resolve(name)));
+        }
+    }
+
+    @Test
+    public void appendToDictionaryArchive() throws IOException {
+        ZipArchive archive = new ZipArchive();
+        archive.setDictionaryCompression(true);
+        Path compress = archive.compress(data);
+        archive.append(compress, java.nio.file.Paths.get("src/test/resources/data/dir/test.txt"));
+
+        assertTrue(archive.verify(compress));
+        Path decompress = archive.decompress(compress);
+        assertTrue(exists(decompress.resolve("test.txt")));
+        assertTrue(exists(decompress.resolve("data/customer-499.json")));
+    }
+
+}